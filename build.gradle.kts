@@ -3,6 +3,7 @@ import com.github.jengelman.gradle.plugins.shadow.tasks.ShadowJar
 plugins {
     id("com.github.johnrengelman.shadow") version "8.1.1"
     id("me.qoomon.git-versioning") version "6.4.2"
+    id("me.champeau.jmh") version "0.7.1"
 
     id("java")
 }
@@ -30,27 +31,29 @@ java {
 
 repositories {
     mavenCentral()
-    // Needed for https://github.com/FoxSamu/ASM-Descriptor
-    maven {
-        url = uri("https://maven.shadew.net/")
-    }
 }
 
 dependencies {
     implementation("info.picocli:picocli:4.7.2")
     implementation("com.google.guava:guava:31.1-jre")
+    implementation("org.yaml:snakeyaml:2.0")
     implementation("org.ow2.asm:asm:9.4")
     implementation("org.ow2.asm:asm-util:9.4")
 
-    // https://github.com/FoxSamu/ASM-Descriptor
-    implementation("net.shadew:descriptor:1.0") {
-        exclude("org.ow2.asm", "asm-commons")
-    }
-
     testImplementation("org.junit.jupiter:junit-jupiter-api:5.8.1")
     testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine:5.8.1")
 }
 
+jmh {
+    jmhVersion.set("1.36")
+    // gc.alloc.rate.norm is the number of bytes allocated per benchmark operation
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+}
+
 tasks {
     getByName<Test>("test") {
         useJUnitPlatform()
@@ -67,6 +70,10 @@ tasks {
                     "Implementation-Version" to project.version)
         }
         minimize()
+        // the plugins run in the build's JVM, next to other versions of these libraries
+        listOf("com.google", "org.checkerframework", "picocli", "org.objectweb.asm", "org.yaml.snakeyaml").forEach {
+            relocate(it, "com.lightstep.flashlight.shaded.$it")
+        }
     }
 
     named("build") {
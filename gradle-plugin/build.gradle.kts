@@ -0,0 +1,39 @@
+plugins {
+    id("java-gradle-plugin")
+}
+
+group = rootProject.group
+version = rootProject.version
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    // the shadow jar, as the root project's plain jar is disabled; its dependencies are relocated
+    implementation(project(":", "shadowRuntimeElements"))
+
+    testImplementation(gradleTestKit())
+    testImplementation("org.junit.jupiter:junit-jupiter-api:5.8.1")
+    testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine:5.8.1")
+}
+
+tasks {
+    getByName<Test>("test") {
+        useJUnitPlatform()
+    }
+}
+
+gradlePlugin {
+    plugins {
+        create("flashlight") {
+            id = "com.lightstep.flashlight"
+            implementationClass = "com.lightstep.flashlight.gradle.FlashlightPlugin"
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.lightstep.flashlight.gradle;
+
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+
+/** The {@code flashlight} block, the defaults of every {@link FlashlightTask} of the project. */
+public abstract class FlashlightExtension {
+
+    /** YAML or JSON rules that replace the built-in ones, like {@code --rules}. */
+    public abstract RegularFileProperty getRules();
+
+    /** A JFR recording to rank methods by, like {@code --jfr}. */
+    public abstract RegularFileProperty getJfr();
+
+    /** Calls per second of methods for the overhead estimate, like {@code --invocations}. */
+    public abstract RegularFileProperty getInvocations();
+
+    /** Additional blocking methods, like {@code --blocking-calls}. */
+    public abstract RegularFileProperty getBlockingCalls();
+
+    /** The class folders or jars to compare with, like {@code --baseline}. */
+    public abstract ConfigurableFileCollection getBaseline();
+
+    /** Patterns of the classes to scan, like {@code --include}. */
+    public abstract ListProperty<String> getIncludes();
+
+    /** Patterns of the classes to skip, like {@code --exclude}. */
+    public abstract ListProperty<String> getExcludes();
+
+    /** Further command line options, such as {@code --call-graph} or {@code --max-methods=200}, but no files. */
+    public abstract ListProperty<String> getArguments();
+}
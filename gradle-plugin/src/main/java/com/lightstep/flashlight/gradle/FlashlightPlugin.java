@@ -0,0 +1,45 @@
+package com.lightstep.flashlight.gradle;
+
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+import org.gradle.api.file.ProjectLayout;
+import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.api.tasks.SourceSet;
+import org.gradle.api.tasks.SourceSetContainer;
+
+/**
+ * Adds the {@code flashlight} extension and, with the {@code java} plugin, a {@code flashlight} task that scans the
+ * compiled main classes and writes {@code build/flashlight/report.txt}.
+ */
+public class FlashlightPlugin implements Plugin<Project> {
+
+    @Override
+    public void apply(Project project) {
+        FlashlightExtension extension = project.getExtensions().create("flashlight", FlashlightExtension.class);
+        ProjectLayout layout = project.getLayout();
+        project.getTasks().withType(FlashlightTask.class).configureEach(task -> {
+            task.getRules().convention(extension.getRules());
+            task.getJfr().convention(extension.getJfr());
+            task.getInvocations().convention(extension.getInvocations());
+            task.getBlockingCalls().convention(extension.getBlockingCalls());
+            task.getBaseline().from(extension.getBaseline());
+            task.getIncludes().convention(extension.getIncludes());
+            task.getExcludes().convention(extension.getExcludes());
+            task.getArguments().convention(extension.getArguments());
+            task.getWorkingDirectory().convention(layout.getProjectDirectory());
+            task.getCacheDirectory().convention(layout.getBuildDirectory().dir("flashlight/cache/" + task.getName()));
+        });
+
+        project.getPlugins().withType(JavaPlugin.class, java -> {
+            SourceSet main = project.getExtensions().getByType(SourceSetContainer.class)
+                    .getByName(SourceSet.MAIN_SOURCE_SET_NAME);
+            project.getTasks().register("flashlight", FlashlightTask.class, task -> {
+                task.setGroup("verification");
+                task.setDescription("Selects the methods of the main classes to instrument with OpenTelemetry.");
+                // carries the dependency on the compile tasks
+                task.getClasses().from(main.getOutput().getClassesDirs());
+                task.getReport().convention(layout.getBuildDirectory().file("flashlight/report.txt"));
+            });
+        });
+    }
+}
@@ -0,0 +1,171 @@
+package com.lightstep.flashlight.gradle;
+
+import com.lightstep.flashlight.FlashlightMain;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.LocalState;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects the methods to instrument of compiled classes in the build's JVM and writes the report, the include list
+ * first, to {@link #getReport()}. The class files are the task's inputs, so the task is up to date, or taken from the
+ * build cache, while the bytecode stays the same; when it changed, only the classes that changed are analyzed again.
+ */
+@CacheableTask
+public abstract class FlashlightTask extends DefaultTask {
+    // options that keep running, write files the task does not declare or, like --stream, clash with its cache
+    private static final List<String> UNSUPPORTED_OPTIONS =
+            List.of("--watch", "--daemon", "--connect", "--weave", "--tracer", "--cache-dir", "--stream");
+    // options that name files, which the task only tracks when they are set through its properties
+    private static final Map<String, String> FILE_OPTIONS = Map.of(
+            "--rules", "rules",
+            "--jfr", "jfr",
+            "--invocations", "invocations",
+            "--blocking-calls", "blockingCalls",
+            "--baseline", "baseline");
+
+    /** The class folders or jars to scan. */
+    @InputFiles
+    @SkipWhenEmpty
+    @IgnoreEmptyDirectories
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getClasses();
+
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getRules();
+
+    /** A JFR recording to rank methods by, like {@code --jfr}. */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getJfr();
+
+    /** Calls per second of methods for the overhead estimate, like {@code --invocations}. */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getInvocations();
+
+    /** Additional blocking methods, like {@code --blocking-calls}. */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getBlockingCalls();
+
+    /** The class folders or jars to compare with, like {@code --baseline}. */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getBaseline();
+
+    @Input
+    public abstract ListProperty<String> getIncludes();
+
+    @Input
+    public abstract ListProperty<String> getExcludes();
+
+    /** Further command line options, except those that name files, which have properties of their own. */
+    @Input
+    public abstract ListProperty<String> getArguments();
+
+    @Internal
+    public abstract DirectoryProperty getWorkingDirectory();
+
+    /** Analysis results of the classes of earlier runs, so that unchanged classes are not analyzed again. */
+    @LocalState
+    public abstract DirectoryProperty getCacheDirectory();
+
+    @OutputFile
+    public abstract RegularFileProperty getReport();
+
+    @TaskAction
+    public void analyze() throws IOException {
+        List<String> args = new ArrayList<>();
+        for (String argument : getArguments().get()) {
+            for (String option : UNSUPPORTED_OPTIONS) {
+                if (argument.equals(option) || argument.startsWith(option + "=")) {
+                    throw new GradleException(String.format("%s is not supported by the %s task", option, getName()));
+                }
+            }
+            for (Map.Entry<String, String> option : FILE_OPTIONS.entrySet()) {
+                if (argument.equals(option.getKey()) || argument.startsWith(option.getKey() + "=")) {
+                    throw new GradleException(String.format(
+                            "%s names a file, set the %s property of the %s task instead",
+                            option.getKey(), option.getValue(), getName()));
+                }
+            }
+            args.add(argument);
+        }
+        args.add("--cache-dir=" + getCacheDirectory().get().getAsFile());
+        addFile(args, "--rules", getRules());
+        addFile(args, "--jfr", getJfr());
+        addFile(args, "--invocations", getInvocations());
+        addFile(args, "--blocking-calls", getBlockingCalls());
+        for (File baseline : getBaseline().getFiles()) {
+            args.add("--baseline=" + baseline);
+        }
+        for (String include : getIncludes().get()) {
+            args.add("--include=" + include);
+        }
+        for (String exclude : getExcludes().get()) {
+            args.add("--exclude=" + exclude);
+        }
+        args.add("--");
+        for (File file : getClasses().getFiles()) {
+            if (file.exists()) {
+                args.add(file.getPath());
+            }
+        }
+
+        File report = getReport().get().getAsFile();
+        Files.createDirectories(report.toPath().getParent());
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        int exitCode;
+        try (OutputStream reportStream = Files.newOutputStream(report.toPath());
+                PrintStream out = new PrintStream(reportStream, false, StandardCharsets.UTF_8);
+                PrintStream err = new PrintStream(errors, true, StandardCharsets.UTF_8)) {
+            exitCode = FlashlightMain.execute(
+                    getWorkingDirectory().get().getAsFile().toPath(), out, err, args.toArray(new String[0]));
+        }
+        String messages = errors.toString(StandardCharsets.UTF_8).trim();
+        if (exitCode != 0) {
+            throw new GradleException(String.format("Flashlight failed with exit code %d:%n%s", exitCode, messages));
+        }
+        if (!messages.isEmpty()) {
+            getLogger().info(messages);
+        }
+    }
+
+    private static void addFile(List<String> args, String option, RegularFileProperty file) {
+        if (file.isPresent()) {
+            args.add(option + "=" + file.get().getAsFile());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.lightstep.flashlight.gradle;
+
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlashlightPluginTest {
+
+    private static GradleRunner runner(Path projectDir) {
+        return GradleRunner.create()
+                .withProjectDir(projectDir.toFile())
+                .withPluginClasspath()
+                .withArguments("flashlight");
+    }
+
+    private static BuildResult flashlight(Path projectDir) {
+        return runner(projectDir).build();
+    }
+
+    private static void writeBuild(Path projectDir, String flashlight) throws IOException {
+        Files.writeString(projectDir.resolve("settings.gradle.kts"), "rootProject.name = \"app\"\n");
+        Files.writeString(
+                projectDir.resolve("build.gradle.kts"),
+                "plugins {\n"
+                        + "    id(\"java\")\n"
+                        + "    id(\"com.lightstep.flashlight\")\n"
+                        + "}\n"
+                        + "\n"
+                        + "flashlight {\n"
+                        + flashlight
+                        + "}\n");
+    }
+
+    private static void writeApp(Path projectDir, String body) throws IOException {
+        Path source = projectDir.resolve("src/main/java/com/example/App.java");
+        Files.createDirectories(source.getParent());
+        Files.writeString(source, "package com.example;\n\npublic class App {\n" + body + "}\n");
+    }
+
+    @Test
+    void analyzesOnlyWhenClassesChange(@TempDir Path projectDir) throws IOException {
+        writeBuild(projectDir, "    includes.add(\"com.example.*\")\n");
+        writeApp(projectDir, "    public void run() {\n    }\n");
+
+        assertEquals(TaskOutcome.SUCCESS, flashlight(projectDir).task(":flashlight").getOutcome());
+        Path report = projectDir.resolve("build/flashlight/report.txt");
+        assertTrue(Files.isRegularFile(report));
+
+        assertEquals(TaskOutcome.UP_TO_DATE, flashlight(projectDir).task(":flashlight").getOutcome());
+
+        writeApp(
+                projectDir,
+                "    public void run() {\n        synchronized (this) {\n            run();\n        }\n    }\n");
+        assertEquals(TaskOutcome.SUCCESS, flashlight(projectDir).task(":flashlight").getOutcome());
+        assertTrue(Files.readString(report).contains("com.example.App[run]"));
+    }
+
+    @Test
+    void tracksFilesOfOptions(@TempDir Path projectDir) throws IOException {
+        writeBuild(projectDir, "    blockingCalls.set(file(\"blocking-calls.txt\"))\n");
+        writeApp(projectDir, "    public void run() throws Exception {\n        Thread.sleep(1);\n    }\n");
+        Path blockingCalls = Files.writeString(projectDir.resolve("blocking-calls.txt"), "com.example.Other.call\n");
+
+        assertEquals(TaskOutcome.SUCCESS, flashlight(projectDir).task(":flashlight").getOutcome());
+        assertEquals(TaskOutcome.UP_TO_DATE, flashlight(projectDir).task(":flashlight").getOutcome());
+        Files.writeString(blockingCalls, "java.lang.Thread.sleep\n");
+        assertEquals(TaskOutcome.SUCCESS, flashlight(projectDir).task(":flashlight").getOutcome());
+
+        writeBuild(projectDir, "    arguments.add(\"--blocking-calls=blocking-calls.txt\")\n");
+        assertTrue(runner(projectDir).buildAndFail().getOutput()
+                .contains("--blocking-calls names a file, set the blockingCalls property of the flashlight task"));
+    }
+}
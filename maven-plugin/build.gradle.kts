@@ -0,0 +1,40 @@
+plugins {
+    id("java")
+    // generates the plugin descriptor from the mojo annotations
+    id("de.benediktritter.maven-plugin-development") version "0.4.2"
+}
+
+group = rootProject.group
+version = rootProject.version
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    // the shadow jar, as the root project's plain jar is disabled; its dependencies are relocated
+    implementation(project(":", "shadowRuntimeElements"))
+
+    compileOnly("org.apache.maven:maven-plugin-api:3.9.1")
+    compileOnly("org.apache.maven.plugin-tools:maven-plugin-annotations:3.8.1")
+
+    testImplementation("org.apache.maven:maven-plugin-api:3.9.1")
+    testImplementation("org.junit.jupiter:junit-jupiter-api:5.8.1")
+    testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine:5.8.1")
+}
+
+tasks {
+    getByName<Test>("test") {
+        useJUnitPlatform()
+    }
+}
+
+mavenPlugin {
+    artifactId.set("flashlight-maven-plugin")
+    goalPrefix.set("flashlight")
+}
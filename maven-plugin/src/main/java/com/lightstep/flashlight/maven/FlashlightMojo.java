@@ -0,0 +1,262 @@
+package com.lightstep.flashlight.maven;
+
+import com.lightstep.flashlight.FlashlightMain;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Selects the methods to instrument of the compiled classes in Maven's JVM and writes the report, the include list
+ * first, to {@code target/flashlight/report.txt}.
+ *
+ * <p>Maven has no up-to-date checks, so the goal keeps a hash of its inputs, the Flashlight version, the options and
+ * the bytes of the class files and of the files the options name, next to the report and does nothing while it
+ * matches. When classes changed, only those are analyzed again.
+ */
+@Mojo(name = "analyze", defaultPhase = LifecyclePhase.PROCESS_CLASSES, threadSafe = true)
+public class FlashlightMojo extends AbstractMojo {
+    // options that keep running, write files the goal does not know about or, like --stream, clash with its cache
+    private static final List<String> UNSUPPORTED_OPTIONS =
+            List.of("--watch", "--daemon", "--connect", "--weave", "--tracer", "--cache-dir", "--stream");
+    // options that name files, which the goal only hashes when they are set through its parameters
+    private static final Map<String, String> FILE_OPTIONS = Map.of(
+            "--rules", "rules",
+            "--jfr", "jfr",
+            "--invocations", "invocations",
+            "--blocking-calls", "blockingCalls",
+            "--baseline", "baseline");
+
+    @Parameter(defaultValue = "${project.basedir}", readonly = true, required = true)
+    private File baseDirectory;
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+    private File classesDirectory;
+
+    @Parameter(defaultValue = "${project.build.directory}/flashlight/report.txt", required = true)
+    private File report;
+
+    /** Analysis results of the classes of earlier runs, so that unchanged classes are not analyzed again. */
+    @Parameter(defaultValue = "${project.build.directory}/flashlight/cache", required = true)
+    private File cacheDirectory;
+
+    /** YAML or JSON rules that replace the built-in ones, like {@code --rules}. */
+    @Parameter(property = "flashlight.rules")
+    private File rules;
+
+    /** A JFR recording to rank methods by, like {@code --jfr}. */
+    @Parameter(property = "flashlight.jfr")
+    private File jfr;
+
+    /** Calls per second of methods for the overhead estimate, like {@code --invocations}. */
+    @Parameter
+    private File invocations;
+
+    /** Additional blocking methods, like {@code --blocking-calls}. */
+    @Parameter
+    private File blockingCalls;
+
+    /** The class folders or jars to compare with, like {@code --baseline}. */
+    @Parameter
+    private List<File> baseline = new ArrayList<>();
+
+    /** Patterns of the classes to scan, like {@code --include}. */
+    @Parameter
+    private List<String> includes = new ArrayList<>();
+
+    /** Patterns of the classes to skip, like {@code --exclude}. */
+    @Parameter
+    private List<String> excludes = new ArrayList<>();
+
+    /**
+     * Further command line options, such as {@code --call-graph} or {@code --max-methods=200}, except those that name
+     * files, which have parameters of their own.
+     */
+    @Parameter
+    private List<String> arguments = new ArrayList<>();
+
+    @Parameter(property = "flashlight.skip", defaultValue = "false")
+    private boolean skip;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skip) {
+            getLog().info("Skipping Flashlight");
+            return;
+        }
+        if (!classesDirectory.isDirectory()) {
+            getLog().info("No classes to analyze");
+            return;
+        }
+        List<String> args = new ArrayList<>();
+        for (String argument : arguments) {
+            for (String option : UNSUPPORTED_OPTIONS) {
+                if (argument.equals(option) || argument.startsWith(option + "=")) {
+                    throw new MojoFailureException(String.format("%s is not supported by the analyze goal", option));
+                }
+            }
+            for (Map.Entry<String, String> option : FILE_OPTIONS.entrySet()) {
+                if (argument.equals(option.getKey()) || argument.startsWith(option.getKey() + "=")) {
+                    throw new MojoFailureException(String.format(
+                            "%s names a file, set the %s parameter of the analyze goal instead",
+                            option.getKey(), option.getValue()));
+                }
+            }
+            args.add(argument);
+        }
+        args.add("--cache-dir=" + cacheDirectory);
+        List<File> inputFiles = new ArrayList<>();
+        addFile(args, inputFiles, "--rules", rules);
+        addFile(args, inputFiles, "--jfr", jfr);
+        addFile(args, inputFiles, "--invocations", invocations);
+        addFile(args, inputFiles, "--blocking-calls", blockingCalls);
+        for (File baselinePath : baseline) {
+            addFile(args, inputFiles, "--baseline", baselinePath);
+        }
+        for (String include : includes) {
+            args.add("--include=" + include);
+        }
+        for (String exclude : excludes) {
+            args.add("--exclude=" + exclude);
+        }
+        args.add("--");
+        args.add(classesDirectory.getPath());
+
+        try {
+            Path stamp = stamp(report.toPath());
+            String inputs = hashInputs(args, inputFiles, classesDirectory.toPath(), flashlightVersion());
+            if (isUpToDate(report.toPath(), inputs)) {
+                getLog().info("Flashlight report is up to date");
+                return;
+            }
+            Files.deleteIfExists(stamp);
+            analyze(args);
+            Files.writeString(stamp, inputs);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not write " + report, e);
+        }
+    }
+
+    private static void addFile(List<String> args, List<File> inputFiles, String option, File file) {
+        if (file != null) {
+            args.add(option + "=" + file);
+            inputFiles.add(file);
+        }
+    }
+
+    private void analyze(List<String> args) throws IOException, MojoFailureException {
+        Files.createDirectories(report.toPath().getParent());
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        int exitCode;
+        try (OutputStream reportStream = Files.newOutputStream(report.toPath());
+                PrintStream out = new PrintStream(reportStream, false, StandardCharsets.UTF_8);
+                PrintStream err = new PrintStream(errors, true, StandardCharsets.UTF_8)) {
+            exitCode = FlashlightMain.execute(baseDirectory.toPath(), out, err, args.toArray(new String[0]));
+        }
+        String messages = errors.toString(StandardCharsets.UTF_8).trim();
+        if (exitCode != 0) {
+            throw new MojoFailureException(
+                    String.format("Flashlight failed with exit code %d:%n%s", exitCode, messages));
+        }
+        if (!messages.isEmpty()) {
+            getLog().info(messages);
+        }
+    }
+
+    /** Returns the file next to {@code report} that holds the hash of the inputs it was written for. */
+    static Path stamp(Path report) {
+        return report.resolveSibling(report.getFileName() + ".inputs");
+    }
+
+    /** Returns whether {@code report} exists and was written for the inputs that hash to {@code inputs}. */
+    static boolean isUpToDate(Path report, String inputs) throws IOException {
+        Path stamp = stamp(report);
+        return Files.isRegularFile(report) && Files.isRegularFile(stamp) && Files.readString(stamp).equals(inputs);
+    }
+
+    /**
+     * Returns the version of the Flashlight that analyzes the classes, as a new one can select other methods from the
+     * same classes. Snapshots keep their version while they change, so the size and modification time of the jar that
+     * holds it count too.
+     */
+    static String flashlightVersion() throws IOException {
+        String version = String.valueOf(FlashlightMain.class.getPackage().getImplementationVersion());
+        CodeSource codeSource = FlashlightMain.class.getProtectionDomain().getCodeSource();
+        if (codeSource != null && codeSource.getLocation().getProtocol().equals("file")) {
+            try {
+                Path jar = Path.of(codeSource.getLocation().toURI());
+                if (Files.isRegularFile(jar)) {
+                    version += " " + Files.size(jar) + " " + Files.getLastModifiedTime(jar).toMillis();
+                }
+            } catch (URISyntaxException e) {
+                // the version alone
+            }
+        }
+        return version;
+    }
+
+    // the Flashlight version, the options, the files that they name, such as the rules, and the class files with their
+    // relative paths, in a stable order
+    static String hashInputs(List<String> args, List<File> inputFiles, Path classesDirectory, String flashlightVersion)
+            throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(flashlightVersion.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        for (String arg : args) {
+            digest.update(arg.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        for (File inputFile : inputFiles) {
+            hash(digest, inputFile.toPath());
+        }
+        hash(digest, classesDirectory);
+        StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(String.format("%02x", b));
+        }
+        return hash.toString();
+    }
+
+    // a file, or every file in a folder with its relative path; missing ones are left to FlashlightMain to report
+    private static void hash(MessageDigest digest, Path input) throws IOException {
+        if (Files.isRegularFile(input)) {
+            digest.update(Files.readAllBytes(input));
+        } else if (Files.isDirectory(input)) {
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(input)) {
+                files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                digest.update(input.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(Files.readAllBytes(file));
+            }
+        }
+        digest.update((byte) 0);
+    }
+}
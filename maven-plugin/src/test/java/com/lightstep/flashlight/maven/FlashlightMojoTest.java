@@ -0,0 +1,67 @@
+package com.lightstep.flashlight.maven;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlashlightMojoTest {
+
+    private static final List<String> ARGS = List.of("--call-graph", "--", "classes");
+
+    @Test
+    void hashesEveryInput(@TempDir Path tempDir) throws IOException {
+        Path classes = Files.createDirectories(tempDir.resolve("classes/com/example")).getParent().getParent();
+        Files.write(classes.resolve("com/example/App.class"), new byte[] {1, 2, 3});
+        File rules = Files.writeString(tempDir.resolve("rules.yaml"), "excludedMethods: []").toFile();
+        Path baseline = Files.createDirectories(tempDir.resolve("baseline/com/example")).getParent().getParent();
+        Files.write(baseline.resolve("com/example/App.class"), new byte[] {1, 2});
+        List<File> inputFiles = List.of(rules, baseline.toFile());
+        String inputs = FlashlightMojo.hashInputs(ARGS, inputFiles, classes, "1.0");
+        assertEquals(inputs, FlashlightMojo.hashInputs(ARGS, inputFiles, classes, "1.0"));
+
+        assertNotEquals(inputs, FlashlightMojo.hashInputs(ARGS, inputFiles, classes, "1.1"));
+        assertNotEquals(inputs, FlashlightMojo.hashInputs(List.of("--", "classes"), inputFiles, classes, "1.0"));
+        assertNotEquals(inputs, FlashlightMojo.hashInputs(ARGS, List.of(rules), classes, "1.0"));
+
+        Files.writeString(rules.toPath(), "excludedMethods: [toString]");
+        String changedRules = FlashlightMojo.hashInputs(ARGS, inputFiles, classes, "1.0");
+        assertNotEquals(inputs, changedRules);
+
+        Files.write(baseline.resolve("com/example/App.class"), new byte[] {1, 3});
+        String changedBaseline = FlashlightMojo.hashInputs(ARGS, inputFiles, classes, "1.0");
+        assertNotEquals(changedRules, changedBaseline);
+
+        Files.write(classes.resolve("com/example/App.class"), new byte[] {1, 2, 4});
+        String changedClass = FlashlightMojo.hashInputs(ARGS, inputFiles, classes, "1.0");
+        assertNotEquals(changedBaseline, changedClass);
+
+        Files.move(classes.resolve("com/example/App.class"), classes.resolve("com/example/Main.class"));
+        assertNotEquals(changedClass, FlashlightMojo.hashInputs(ARGS, inputFiles, classes, "1.0"));
+    }
+
+    @Test
+    void isUpToDateOnlyWithReportAndMatchingStamp(@TempDir Path tempDir) throws IOException {
+        Path report = tempDir.resolve("report.txt");
+        Path stamp = FlashlightMojo.stamp(report);
+        assertEquals(tempDir.resolve("report.txt.inputs"), stamp);
+        assertFalse(FlashlightMojo.isUpToDate(report, "abc"));
+
+        Files.writeString(stamp, "abc");
+        assertFalse(FlashlightMojo.isUpToDate(report, "abc"));
+
+        Files.writeString(report, "com.example.App[run]");
+        assertTrue(FlashlightMojo.isUpToDate(report, "abc"));
+        assertFalse(FlashlightMojo.isUpToDate(report, "abd"));
+    }
+
+}
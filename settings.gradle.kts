@@ -1,2 +1,3 @@
 rootProject.name = "flashlight"
 
+include("gradle-plugin", "maven-plugin")
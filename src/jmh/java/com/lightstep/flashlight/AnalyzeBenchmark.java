@@ -0,0 +1,62 @@
+package com.lightstep.flashlight;
+
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/** Single class analysis; each operation is one class, so the score is classes/sec. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AnalyzeBenchmark {
+
+    @Param({"synthetic", "com.lightstep.flashlight.FlashlightMain"})
+    public String subject;
+
+    private String className;
+    private byte[] classFile;
+    private MethodVisitor method;
+    private int call;
+
+    @Setup
+    public void setup() throws IOException {
+        method = new AnalyzingClassVisitor("com.example.Subject")
+                .visitMethod(Opcodes.ACC_PUBLIC, "run", "()V", null, null);
+        if (subject.equals("synthetic")) {
+            className = SyntheticClasses.internalName(0).replace('/', '.');
+            classFile = SyntheticClasses.generate(0);
+            return;
+        }
+        className = subject;
+        try (InputStream stream = getClass().getResourceAsStream("/" + subject.replace('.', '/') + ".class")) {
+            classFile = Objects.requireNonNull(stream).readAllBytes();
+        }
+    }
+
+    @Benchmark
+    public AnalyzedClass analyze() {
+        return new AnalyzingClassVisitor(className).analyze(classFile);
+    }
+
+    /** One invoke instruction of a call target seen before; gc.alloc.rate.norm should be 0. */
+    @Benchmark
+    public void invokeInstruction() {
+        if ((call++ & 1) == 0) {
+            method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+        } else {
+            method.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/List", "get", "(I)Ljava/lang/Object;", true);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.lightstep.flashlight;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans generated directories and jars. The {@code classes} counter reports classes/sec; divide the normalized
+ * allocation rate of the gc profiler by {@code classCount} for bytes allocated per class.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScanBenchmark {
+    private static final PrintStream DISCARDED = new PrintStream(OutputStream.nullOutputStream());
+
+    @Param({"1000", "10000", "100000"})
+    public int classCount;
+
+    @Param({"DIRECTORY", "JAR"})
+    public SyntheticClasses.Layout layout;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path directory;
+    private Path classPath;
+    private ScanOptions options;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long classes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            classes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("flashlight-scan-benchmark");
+        classPath = SyntheticClasses.write(directory, layout, classCount);
+        options = ScanOptions.defaults().withThreads(threads);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticClasses.delete(directory);
+    }
+
+    @Benchmark
+    public List<AnalyzedClass> scan(Counters counters) throws IOException {
+        List<AnalyzedClass> analyzedClasses = new ClassScanner(Set.of(classPath.toFile()), options).scan();
+        counters.classes += analyzedClasses.size();
+        return analyzedClasses;
+    }
+
+    /** End-to-end: FlashlightMain on the generated classes, discarding the report it prints. */
+    @Benchmark
+    public int execute(Counters counters) {
+        int exitCode = FlashlightMain.execute(
+                directory, DISCARDED, System.err, "--threads=" + threads, "--", classPath.toString());
+        if (exitCode != 0) {
+            throw new IllegalStateException("Flashlight failed with exit code " + exitCode);
+        }
+        counters.classes += classCount;
+        return exitCode;
+    }
+}
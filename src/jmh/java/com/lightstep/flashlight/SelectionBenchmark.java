@@ -0,0 +1,40 @@
+package com.lightstep.flashlight;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Aggregation of already analyzed classes, in classes/sec. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SelectionBenchmark {
+    private static final int CLASS_COUNT = 10_000;
+
+    private final List<AnalyzedClass> analyzedClasses = new ArrayList<>(CLASS_COUNT);
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            String className = SyntheticClasses.internalName(i).replace('/', '.');
+            analyzedClasses.add(new AnalyzingClassVisitor(className).analyze(SyntheticClasses.generate(i)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLASS_COUNT)
+    public MethodSelection select() {
+        MethodSelection selection = new MethodSelection(SelectionOptions.defaults());
+        selection.addAll(analyzedClasses);
+        return selection;
+    }
+}
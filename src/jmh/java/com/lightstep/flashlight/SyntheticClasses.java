@@ -0,0 +1,140 @@
+package com.lightstep.flashlight;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SYNCHRONIZED;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.ICONST_0;
+import static org.objectweb.asm.Opcodes.IF_ICMPNE;
+import static org.objectweb.asm.Opcodes.ILOAD;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.IRETURN;
+import static org.objectweb.asm.Opcodes.POP;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V11;
+
+/**
+ * Generates class files with a mix of methods that hit every analysis category: client and repository calls,
+ * synchronized methods, many branches and many calls.
+ */
+final class SyntheticClasses {
+    enum Layout {
+        DIRECTORY,
+        JAR
+    }
+
+    private SyntheticClasses() {}
+
+    static String internalName(int index) {
+        return "bench/p" + (index % 100) + "/Synthetic" + index;
+    }
+
+    static byte[] generate(int index) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        writer.visit(V11, ACC_PUBLIC, internalName(index), null, "java/lang/Object", null);
+
+        MethodVisitor init = writer.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        MethodVisitor client = writer.visitMethod(ACC_PUBLIC, "fetch", "()Ljava/lang/Object;", null, null);
+        client.visitCode();
+        client.visitMethodInsn(INVOKESTATIC, "bench/OrderClient", "get", "()Ljava/lang/Object;", false);
+        client.visitInsn(ARETURN);
+        client.visitMaxs(0, 0);
+        client.visitEnd();
+
+        MethodVisitor repository = writer.visitMethod(ACC_PUBLIC, "load", "()Ljava/lang/Object;", null, null);
+        repository.visitCode();
+        repository.visitMethodInsn(INVOKESTATIC, "bench/OrderRepository", "find", "()Ljava/lang/Object;", false);
+        repository.visitInsn(ARETURN);
+        repository.visitMaxs(0, 0);
+        repository.visitEnd();
+
+        MethodVisitor sync = writer.visitMethod(ACC_PUBLIC | ACC_SYNCHRONIZED, "update", "()V", null, null);
+        sync.visitCode();
+        sync.visitInsn(RETURN);
+        sync.visitMaxs(0, 0);
+        sync.visitEnd();
+
+        MethodVisitor branches = writer.visitMethod(ACC_PUBLIC | ACC_STATIC, "route", "(I)I", null, null);
+        branches.visitCode();
+        for (int i = 0; i < 8; i++) {
+            Label next = new Label();
+            branches.visitVarInsn(ILOAD, 0);
+            branches.visitLdcInsn(i);
+            branches.visitJumpInsn(IF_ICMPNE, next);
+            branches.visitLdcInsn(i * 10);
+            branches.visitInsn(IRETURN);
+            branches.visitLabel(next);
+        }
+        branches.visitInsn(ICONST_0);
+        branches.visitInsn(IRETURN);
+        branches.visitMaxs(0, 0);
+        branches.visitEnd();
+
+        MethodVisitor calls = writer.visitMethod(ACC_PUBLIC | ACC_STATIC, "compute", "(I)V", null, null);
+        calls.visitCode();
+        for (int i = 0; i < 12; i++) {
+            calls.visitVarInsn(ILOAD, 0);
+            calls.visitMethodInsn(INVOKESTATIC, "java/lang/Math", "abs", "(I)I", false);
+            calls.visitInsn(POP);
+        }
+        calls.visitInsn(RETURN);
+        calls.visitMaxs(0, 0);
+        calls.visitEnd();
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    static Path write(Path directory, Layout layout, int classCount) throws IOException {
+        if (layout == Layout.DIRECTORY) {
+            for (int i = 0; i < classCount; i++) {
+                Path file = directory.resolve(internalName(i) + ".class");
+                Files.createDirectories(file.getParent());
+                Files.write(file, generate(i));
+            }
+            return directory;
+        }
+        Path jar = directory.resolve("synthetic.jar");
+        try (OutputStream out = Files.newOutputStream(jar);
+                JarOutputStream jarOut = new JarOutputStream(out)) {
+            for (int i = 0; i < classCount; i++) {
+                jarOut.putNextEntry(new ZipEntry(internalName(i) + ".class"));
+                jarOut.write(generate(i));
+                jarOut.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    static void delete(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> children = Files.list(path)) {
+                for (Path child : (Iterable<Path>) children::iterator) {
+                    delete(child);
+                }
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+}
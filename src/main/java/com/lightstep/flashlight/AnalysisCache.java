@@ -0,0 +1,431 @@
+package com.lightstep.flashlight;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * On-disk cache of per-method analysis results. Classes are keyed by a hash of their bytes; archives are keyed by path,
+ * modification time and size so that an unchanged jar does not even have to be opened.
+ *
+ * <p>Only entries used by the current scan are written back, so classes that disappear from the classpath are
+ * evicted on the next save. Bump {@link #FORMAT_VERSION} whenever {@link AnalyzedClass} changes what it records.
+ * Class entries also depend on the {@link Rules} they were analyzed with, so they are dropped when the rules
+ * fingerprint changes; archive entries only record content hashes and survive.
+ */
+class AnalysisCache {
+    private static final String FILE_NAME = "analysis.cache";
+    private static final int MAGIC = 0x464c4341; // "FLCA"
+    private static final int FORMAT_VERSION = 11;
+    private static final HashFunction CONTENT_HASH = Hashing.murmur3_128();
+
+    static class ArchiveEntry {
+        private final String resourceName;
+        private final String entryName;
+        private final HashCode contentHash;
+        private final long crc;
+
+        ArchiveEntry(String resourceName, String entryName, @Nullable HashCode contentHash, long crc) {
+            this.resourceName = resourceName;
+            this.entryName = entryName;
+            this.contentHash = contentHash;
+            this.crc = crc;
+        }
+
+        public String getResourceName() {
+            return resourceName;
+        }
+
+        /** Returns the {@link ClassFile#getEntryName() entry} that holds the class in the archive. */
+        public String getEntryName() {
+            return entryName;
+        }
+
+        @Nullable
+        public HashCode getContentHash() {
+            return contentHash;
+        }
+
+        /** Returns the CRC-32 from the central directory of the archive, or -1. */
+        public long getCrc() {
+            return crc;
+        }
+    }
+
+    private static class Archive {
+        private final long lastModified;
+        private final long size;
+        private final List<ArchiveEntry> entries;
+
+        Archive(long lastModified, long size, List<ArchiveEntry> entries) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.entries = entries;
+        }
+    }
+
+    private final Path file;
+    private final HashCode rulesFingerprint;
+    private final Map<HashCode, AnalyzedClass> classes = new ConcurrentHashMap<>();
+    private final Map<String, Archive> archives = new ConcurrentHashMap<>();
+    private final Map<HashCode, AnalyzedClass> retainedClasses = new ConcurrentHashMap<>();
+    private final Map<String, Archive> retainedArchives = new ConcurrentHashMap<>();
+    private final Map<String, List<ClassFile>> scannedArchives = new ConcurrentHashMap<>();
+    private final Map<String, HashCode> archivedHashes = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder archiveHits = new LongAdder();
+    private final LongAdder archiveMisses = new LongAdder();
+
+    private AnalysisCache(@Nullable Path directory, HashCode rulesFingerprint) {
+        this.file = directory == null ? null : directory.resolve(FILE_NAME);
+        this.rulesFingerprint = rulesFingerprint;
+    }
+
+    /**
+     * Returns an empty cache that is kept in memory rather than in a file, for a process that scans more than once;
+     * each {@link #save()} replaces the cached entries with the ones used by the last scan.
+     */
+    static AnalysisCache inMemory(HashCode rulesFingerprint) {
+        return new AnalysisCache(null, rulesFingerprint);
+    }
+
+    static AnalysisCache load(Path directory) throws IOException {
+        return load(directory, Rules.defaults().fingerprint());
+    }
+
+    /**
+     * Loads the cache stored in {@code directory} for classes analyzed with the rules of {@code rulesFingerprint}; a
+     * missing, outdated or corrupt cache file starts out empty.
+     */
+    static AnalysisCache load(Path directory, HashCode rulesFingerprint) throws IOException {
+        Files.createDirectories(directory);
+        AnalysisCache cache = new AnalysisCache(directory, rulesFingerprint);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cache.file)))) {
+            cache.read(in);
+        } catch (NoSuchFileException e) {
+            // first run
+        } catch (IOException | RuntimeException e) {
+            cache.classes.clear();
+            cache.archives.clear();
+        }
+        return cache;
+    }
+
+    static HashCode hash(byte[] classFile) {
+        return CONTENT_HASH.hashBytes(classFile);
+    }
+
+    /**
+     * Returns the cached analysis of the class with {@code contentHash}, including classes analyzed earlier in this
+     * run, such as the baseline of a {@code --baseline} comparison.
+     */
+    @Nullable
+    public AnalyzedClass get(HashCode contentHash, String className) {
+        AnalyzedClass analyzedClass = classes.get(contentHash);
+        if (analyzedClass == null) {
+            analyzedClass = retainedClasses.get(contentHash);
+        }
+        if (analyzedClass == null || !analyzedClass.getClassName().equals(className)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        retainedClasses.put(contentHash, analyzedClass);
+        return analyzedClass;
+    }
+
+    public void put(HashCode contentHash, AnalyzedClass analyzedClass) {
+        retainedClasses.put(contentHash, analyzedClass);
+    }
+
+    /**
+     * Returns the content hash of a class file with the same resource name and archive CRC-32 that was hashed earlier
+     * in this run, so that the copy of an unchanged class in another jar does not have to be read.
+     */
+    @Nullable
+    public HashCode archivedHash(String resourceName, long crc) {
+        return archivedHashes.get(resourceName + '#' + crc);
+    }
+
+    public void putArchivedHash(String resourceName, long crc, HashCode contentHash) {
+        archivedHashes.put(resourceName + '#' + crc, contentHash);
+    }
+
+    /** Returns the class files recorded for {@code archive} if it has not changed since, otherwise {@code null}. */
+    @Nullable
+    public List<ArchiveEntry> archive(Path archive) throws IOException {
+        String key = archive.toAbsolutePath().normalize().toString();
+        Archive cached = archives.get(key);
+        BasicFileAttributes attributes = Files.readAttributes(archive, BasicFileAttributes.class);
+        if (cached == null
+                || cached.lastModified != attributes.lastModifiedTime().toMillis()
+                || cached.size != attributes.size()) {
+            archiveMisses.increment();
+            return null;
+        }
+        archiveHits.increment();
+        retainedArchives.put(key, cached);
+        return cached.entries;
+    }
+
+    /**
+     * Remembers the class files read from {@code archive}. Their content hashes are collected when the cache is saved,
+     * after the scan has filled them in.
+     */
+    public void recordArchive(Path archive, List<ClassFile> classFiles) {
+        scannedArchives.put(archive.toAbsolutePath().normalize().toString(), classFiles);
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long archiveHits() {
+        return archiveHits.sum();
+    }
+
+    public long archiveMisses() {
+        return archiveMisses.sum();
+    }
+
+    public void save() throws IOException {
+        for (Map.Entry<String, List<ClassFile>> scanned : scannedArchives.entrySet()) {
+            BasicFileAttributes attributes = Files.readAttributes(Path.of(scanned.getKey()), BasicFileAttributes.class);
+            List<ArchiveEntry> entries = new ArrayList<>(scanned.getValue().size());
+            for (ClassFile classFile : scanned.getValue()) {
+                entries.add(new ArchiveEntry(
+                        classFile.getResourceName(),
+                        classFile.getEntryName(),
+                        classFile.getContentHash(),
+                        classFile.getRecordedCrc()));
+            }
+            Archive archive = new Archive(attributes.lastModifiedTime().toMillis(), attributes.size(), entries);
+            retainedArchives.put(scanned.getKey(), archive);
+        }
+        scannedArchives.clear();
+        archivedHashes.clear();
+
+        if (file == null) {
+            classes.clear();
+            classes.putAll(retainedClasses);
+            retainedClasses.clear();
+            archives.clear();
+            archives.putAll(retainedArchives);
+            retainedArchives.clear();
+            return;
+        }
+        Path temp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            write(out);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            return;
+        }
+        boolean sameRules = readHash(in).equals(rulesFingerprint);
+        int classCount = readLength(in, CONTENT_HASH.bits() / Byte.SIZE);
+        for (int i = 0; i < classCount; i++) {
+            HashCode contentHash = readHash(in);
+            AnalyzedClass analyzedClass = readClass(in);
+            if (sameRules) {
+                classes.put(contentHash, analyzedClass);
+            }
+        }
+        int archiveCount = readLength(in, 2 + 8 + 8 + 4);
+        for (int i = 0; i < archiveCount; i++) {
+            String path = in.readUTF();
+            long lastModified = in.readLong();
+            long size = in.readLong();
+            int entryCount = readLength(in, 2 + 2 + 8 + 1);
+            List<ArchiveEntry> entries = new ArrayList<>(entryCount);
+            for (int j = 0; j < entryCount; j++) {
+                String resourceName = in.readUTF();
+                String entryName = in.readUTF();
+                long crc = in.readLong();
+                entries.add(new ArchiveEntry(resourceName, entryName, in.readBoolean() ? readHash(in) : null, crc));
+            }
+            archives.put(path, new Archive(lastModified, size, entries));
+        }
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.write(rulesFingerprint.asBytes());
+        out.writeInt(retainedClasses.size());
+        for (Map.Entry<HashCode, AnalyzedClass> entry : retainedClasses.entrySet()) {
+            out.write(entry.getKey().asBytes());
+            writeClass(out, entry.getValue());
+        }
+        out.writeInt(retainedArchives.size());
+        for (Map.Entry<String, Archive> entry : retainedArchives.entrySet()) {
+            Archive archive = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeLong(archive.lastModified);
+            out.writeLong(archive.size);
+            out.writeInt(archive.entries.size());
+            for (ArchiveEntry archiveEntry : archive.entries) {
+                out.writeUTF(archiveEntry.resourceName);
+                out.writeUTF(archiveEntry.entryName);
+                out.writeLong(archiveEntry.crc);
+                out.writeBoolean(archiveEntry.contentHash != null);
+                if (archiveEntry.contentHash != null) {
+                    out.write(archiveEntry.contentHash.asBytes());
+                }
+            }
+        }
+    }
+
+    private static AnalyzedClass readClass(DataInputStream in) throws IOException {
+        String className = in.readUTF();
+        String superName = in.readBoolean() ? in.readUTF() : null;
+        String[] interfaces = readStrings(in);
+        String enclosingClassName = in.readBoolean() ? in.readUTF() : null;
+        String enclosingMethodName = in.readBoolean() ? in.readUTF() : null;
+        int methodCount = readLength(in, 2 + 2 + 4 + 8);
+        String[] methodNames = new String[methodCount];
+        String[] methodDescriptors = new String[methodCount];
+        int[] flags = new int[methodCount];
+        long[] fingerprints = new long[methodCount];
+        for (int method = 0; method < methodCount; method++) {
+            methodNames[method] = in.readUTF();
+            methodDescriptors[method] = in.readUTF();
+            flags[method] = in.readInt();
+            fingerprints[method] = in.readLong();
+        }
+        int[] metrics = readInts(in);
+        String[] callTargets = readStrings(in);
+        int[] callOffsets = readInts(in);
+        int[] calls = readInts(in);
+        return new AnalyzedClass(
+                className,
+                superName,
+                interfaces,
+                enclosingClassName,
+                enclosingMethodName,
+                methodNames,
+                methodDescriptors,
+                metrics,
+                flags,
+                fingerprints,
+                callTargets,
+                callOffsets,
+                calls);
+    }
+
+    private static void writeClass(DataOutputStream out, AnalyzedClass analyzedClass) throws IOException {
+        out.writeUTF(analyzedClass.getClassName());
+        out.writeBoolean(analyzedClass.getSuperName() != null);
+        if (analyzedClass.getSuperName() != null) {
+            out.writeUTF(analyzedClass.getSuperName());
+        }
+        writeStrings(out, analyzedClass.getInterfaces());
+        writeNullable(out, analyzedClass.getEnclosingClassName());
+        writeNullable(out, analyzedClass.getEnclosingMethodName());
+        out.writeInt(analyzedClass.methodCount());
+        for (int method = 0; method < analyzedClass.methodCount(); method++) {
+            out.writeUTF(analyzedClass.methodName(method));
+            out.writeUTF(analyzedClass.methodDescriptor(method));
+            out.writeInt(analyzedClass.flags(method));
+            out.writeLong(analyzedClass.fingerprint(method));
+        }
+        int[] metrics = new int[Metric.values().length * analyzedClass.methodCount()];
+        for (Metric metric : Metric.values()) {
+            for (int method = 0; method < analyzedClass.methodCount(); method++) {
+                metrics[metric.ordinal() * analyzedClass.methodCount() + method] = analyzedClass.metric(metric, method);
+            }
+        }
+        writeInts(out, metrics);
+        writeStrings(out, analyzedClass.callTargets());
+        int[] callOffsets = new int[analyzedClass.methodCount() + 1];
+        for (int method = 0; method <= analyzedClass.methodCount(); method++) {
+            callOffsets[method] = analyzedClass.callOffset(method);
+        }
+        writeInts(out, callOffsets);
+        writeInts(out, analyzedClass.calls());
+    }
+
+    private static void writeNullable(DataOutputStream out, @Nullable String string) throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] strings = new String[readLength(in, 2)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+        return strings;
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] ints = new int[readLength(in, 4)];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = in.readInt();
+        }
+        return ints;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] ints) throws IOException {
+        out.writeInt(ints.length);
+        for (int value : ints) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Reads the number of elements that follow, each at least {@code minimumSize} bytes long. A corrupt length that the
+     * rest of the file cannot hold is rejected before anything is allocated for it; the stream of a file knows how
+     * many bytes are left.
+     */
+    private static int readLength(DataInputStream in, int minimumSize) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || (long) length * minimumSize > in.available()) {
+            throw new IOException("Corrupt analysis cache length: " + length);
+        }
+        return length;
+    }
+
+    private static HashCode readHash(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[CONTENT_HASH.bits() / Byte.SIZE];
+        in.readFully(bytes);
+        return HashCode.fromBytes(bytes);
+    }
+}
@@ -1,73 +1,293 @@
 package com.lightstep.flashlight;
 
-import java.util.Collections;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Map;
 
+/**
+ * The analysis result of a single class, stored column-wise: method {@code i} is described by {@code methodNames[i]},
+ * {@code methodDescriptors[i]}, the bits in {@code flags[i]}, the instruction hash in {@code fingerprints[i]} and one
+ * {@link Metric} per column of {@code metrics}, at {@code metrics[metric.ordinal() * methodCount + i]}.
+ *
+ * <p>The methods invoked by method {@code i} are {@code callTargets[calls[j]]} for {@code callOffsets[i] <= j <
+ * callOffsets[i + 1]}, each target in internal form, e.g. {@code java/lang/Object.toString()Ljava/lang/String;}.
+ */
 class AnalyzedClass {
+    static final int SYNCHRONIZED = 1;
+    static final int CLIENT_CALL = 1 << 1;
+    static final int REPOSITORY_CALL = 1 << 2;
+    /** Returns a field of {@code this} and does nothing else. */
+    static final int GETTER = 1 << 3;
+    /** Calls a client or repository inside a loop. */
+    static final int REMOTE_IO_IN_LOOP = 1 << 4;
+    /** Has an annotation of the {@link Rules}. */
+    static final int ANNOTATED = 1 << 5;
+    /** The synthetic body of a lambda expression; its flags are also set on the methods that create the lambda. */
+    static final int LAMBDA_BODY = 1 << 6;
+    /** Calls other methods while holding a lock, or waits for other threads. */
+    static final int LOCK_CONTENTION = 1 << 7;
+    /** The flags that lambda bodies and anonymous or local classes pass on to the method that creates them. */
+    static final int ENCLOSED_FLAGS =
+            SYNCHRONIZED | CLIENT_CALL | REPOSITORY_CALL | REMOTE_IO_IN_LOOP | LOCK_CONTENTION;
+    /** Call flags of the {@link Rules} that are never set on methods: taking a lock, releasing it and waiting. */
+    static final int LOCK_ACQUIRE = 1 << 8;
+    static final int LOCK_RELEASE = 1 << 9;
+    static final int LOCK_WAIT = 1 << 10;
+
+    private static final Interner<String> METHOD_NAMES = Interners.newWeakInterner();
+    // most call targets, like java/lang/Object.<init>()V, recur in many classes
+    private static final Interner<String> CALL_TARGETS = Interners.newWeakInterner();
 
-    private String className;
-    private List<AnalyzingMethodVisitor> analyzedMethods;
+    private final String className;
+    private final String superName;
+    private final String[] interfaces;
+    private final String enclosingClassName;
+    private final String enclosingMethodName;
+    private final String[] methodNames;
+    private final String[] methodDescriptors;
+    private final int[] metrics;
+    private final int[] flags;
+    private final long[] fingerprints;
+    private final String[] callTargets;
+    private final int[] callOffsets;
+    private final int[] calls;
 
-    public AnalyzedClass(String className, List<AnalyzingMethodVisitor> analyzedMethods) {
+    AnalyzedClass(
+            String className,
+            @Nullable String superName,
+            String[] interfaces,
+            @Nullable String enclosingClassName,
+            @Nullable String enclosingMethodName,
+            String[] methodNames,
+            String[] methodDescriptors,
+            int[] metrics,
+            int[] flags,
+            long[] fingerprints,
+            String[] callTargets,
+            int[] callOffsets,
+            int[] calls) {
         this.className = className;
-        this.analyzedMethods = analyzedMethods;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.enclosingClassName = enclosingClassName;
+        this.enclosingMethodName = enclosingMethodName;
+        this.methodNames = methodNames;
+        this.methodDescriptors = methodDescriptors;
+        this.metrics = metrics;
+        this.flags = flags;
+        this.fingerprints = fingerprints;
+        this.callTargets = callTargets;
+        this.callOffsets = callOffsets;
+        this.calls = calls;
+        for (int i = 0; i < methodNames.length; i++) {
+            methodNames[i] = METHOD_NAMES.intern(methodNames[i]);
+        }
+        for (int i = 0; i < callTargets.length; i++) {
+            callTargets[i] = CALL_TARGETS.intern(callTargets[i]);
+        }
     }
 
-    public Set<String> methodsWithSynchronize(MethodNameFilter filteredMethods) {
-        return analyzedMethods.stream()
-                .filter(filteredMethods)
-                .filter(AnalyzingMethodVisitor::hasSynchronized)
-                .map(AnalyzingMethodVisitor::name)
-                .collect(Collectors.toSet());
+    static AnalyzedClass of(
+            String className,
+            @Nullable String superName,
+            String[] interfaces,
+            @Nullable String enclosingClassName,
+            @Nullable String enclosingMethodName,
+            List<AnalyzingMethodVisitor> analyzedMethods,
+            List<String> callTargets) {
+        int size = analyzedMethods.size();
+        String[] methodNames = new String[size];
+        String[] methodDescriptors = new String[size];
+        int[] metrics = new int[Metric.values().length * size];
+        int[] flags = new int[size];
+        long[] fingerprints = new long[size];
+        int[] callOffsets = new int[size + 1];
+        int[][] methodCalls = new int[size][];
+        for (int i = 0; i < size; i++) {
+            AnalyzingMethodVisitor method = analyzedMethods.get(i);
+            methodNames[i] = method.name();
+            methodDescriptors[i] = method.descriptor();
+            fingerprints[i] = method.fingerprint();
+            for (Metric metric : Metric.values()) {
+                metrics[metric.ordinal() * size + i] = method.metric(metric);
+            }
+            flags[i] = (method.hasSynchronized() ? SYNCHRONIZED : 0)
+                    | (method.hasClientCall() ? CLIENT_CALL : 0)
+                    | (method.hasRepositoryCall() ? REPOSITORY_CALL : 0)
+                    | (method.isGetter() ? GETTER : 0)
+                    | (method.hasRemoteIoInLoop() ? REMOTE_IO_IN_LOOP : 0)
+                    | (method.isAnnotated() ? ANNOTATED : 0)
+                    | (method.isLambdaBody() ? LAMBDA_BODY : 0)
+                    | (method.hasLockContention() ? LOCK_CONTENTION : 0);
+            methodCalls[i] = Arrays.stream(method.callTargets()).sorted().distinct().toArray();
+            callOffsets[i + 1] = callOffsets[i] + methodCalls[i].length;
+        }
+        attributeLambdaBodies(className, methodNames, methodDescriptors, flags, methodCalls, callTargets);
+        int[] calls = new int[callOffsets[size]];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(methodCalls[i], 0, calls, callOffsets[i], methodCalls[i].length);
+        }
+        return new AnalyzedClass(
+                className,
+                superName,
+                interfaces,
+                enclosingClassName,
+                enclosingMethodName,
+                methodNames,
+                methodDescriptors,
+                metrics,
+                flags,
+                fingerprints,
+                callTargets.toArray(new String[0]),
+                callOffsets,
+                calls);
     }
 
-    public Set<String> methodsWithClientCalls(MethodNameFilter filteredMethods) {
-        return className.endsWith("Client")
-                ? Collections.emptySet()
-                : analyzedMethods.stream()
-                        .filter(filteredMethods)
-                        .filter(AnalyzingMethodVisitor::hasClientCall)
-                        .map(AnalyzingMethodVisitor::name)
-                        .collect(Collectors.toSet());
+    // folds the flags of lambda bodies into the methods that create them, until nested lambdas reach a fixed point
+    private static void attributeLambdaBodies(
+            String className,
+            String[] methodNames,
+            String[] methodDescriptors,
+            int[] flags,
+            int[][] methodCalls,
+            List<String> callTargets) {
+        Map<String, Integer> lambdaBodies = new HashMap<>();
+        String internalName = className.replace('.', '/');
+        for (int i = 0; i < methodNames.length; i++) {
+            if ((flags[i] & LAMBDA_BODY) != 0) {
+                lambdaBodies.put(internalName + '.' + methodNames[i] + methodDescriptors[i], i);
+            }
+        }
+        boolean changed = !lambdaBodies.isEmpty();
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < methodNames.length; i++) {
+                for (int callTarget : methodCalls[i]) {
+                    Integer body = lambdaBodies.get(callTargets.get(callTarget));
+                    if (body != null && (flags[body] & ENCLOSED_FLAGS & ~flags[i]) != 0) {
+                        flags[i] |= flags[body] & ENCLOSED_FLAGS;
+                        changed = true;
+                    }
+                }
+            }
+        }
     }
 
-    public Set<String> methodsWithRepositoryCalls(MethodNameFilter filteredMethods) {
-        return className.endsWith("Repository")
-                ? Collections.emptySet()
-                : analyzedMethods.stream()
-                        .filter(filteredMethods)
-                        .filter(AnalyzingMethodVisitor::hasRepositoryCall)
-                        .map(AnalyzingMethodVisitor::name)
-                        .collect(Collectors.toSet());
+    public String getClassName() {
+        return className;
     }
 
-    public Set<String> methodsWithHighMethodCount(int methodInstructionCountLimit, MethodNameFilter filteredMethods) {
-        return analyzedMethods.stream()
-                .filter(filteredMethods)
-                .filter(visitor -> visitor.methodCallCount >= methodInstructionCountLimit)
-                .map(AnalyzingMethodVisitor::name)
-                .collect(Collectors.toSet());
+    public String getInternalName() {
+        return className.replace('.', '/');
     }
 
-    public Set<String> methodsWithHighBranchCount(int branchInstructionCountLimit, MethodNameFilter filteredMethods) {
-        return analyzedMethods.stream()
-                .filter(filteredMethods)
-                .filter(visitor -> visitor.jumpCount >= branchInstructionCountLimit)
-                .map(AnalyzingMethodVisitor::name)
-                .collect(Collectors.toSet());
+    @Nullable
+    public String getSuperName() {
+        return superName;
     }
 
-    public String getClassName() {
-        return className;
+    public String[] getInterfaces() {
+        return interfaces;
+    }
+
+    /** Returns the class that declares this anonymous or local class, or {@code null} for any other class. */
+    @Nullable
+    public String getEnclosingClassName() {
+        return enclosingClassName;
+    }
+
+    /** Returns the method that declares this anonymous or local class, {@code null} if an initializer does. */
+    @Nullable
+    public String getEnclosingMethodName() {
+        return enclosingMethodName;
+    }
+
+    public int methodCount() {
+        return methodNames.length;
+    }
+
+    public String methodName(int method) {
+        return methodNames[method];
+    }
+
+    public String methodDescriptor(int method) {
+        return methodDescriptors[method];
+    }
+
+    public int methodCallCount(int method) {
+        return metric(Metric.METHOD_CALL_COUNT, method);
+    }
+
+    public int jumpCount(int method) {
+        return metric(Metric.JUMP_COUNT, method);
+    }
+
+    public int metric(Metric metric, int method) {
+        return metrics[metric.ordinal() * methodNames.length + method];
+    }
+
+    public int flags(int method) {
+        return flags[method];
+    }
+
+    /** Returns the {@link AnalyzingMethodVisitor#fingerprint() fingerprint} of the instructions of {@code method}. */
+    public long fingerprint(int method) {
+        return fingerprints[method];
+    }
+
+    public boolean hasFlag(int method, int flag) {
+        return (flags[method] & flag) != 0;
+    }
+
+    public String[] callTargets() {
+        return callTargets;
+    }
+
+    public int callOffset(int method) {
+        return callOffsets[method];
+    }
+
+    public int[] calls() {
+        return calls;
+    }
+
+    /** Returns the blocking methods that {@code method} invokes, each as {@code owner.name} in internal form. */
+    public List<String> blockingCalls(int method, BlockingCalls blockingCalls) {
+        List<String> blocking = new ArrayList<>(0);
+        for (int call = callOffsets[method]; call < callOffsets[method + 1]; call++) {
+            String callTarget = callTargets[calls[call]];
+            if (blockingCalls.matches(callTarget)) {
+                String site = callTarget.substring(0, callTarget.indexOf('('));
+                if (!blocking.contains(site)) {
+                    blocking.add(site);
+                }
+            }
+        }
+        return blocking;
     }
 
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder(className);
-        if (!analyzedMethods.isEmpty()) {
-            builder.append(" analyzedMethods:").append(analyzedMethods);
+        if (methodNames.length > 0) {
+            builder.append(" analyzedMethods:[");
+            for (int i = 0; i < methodNames.length; i++) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                builder.append(methodNames[i]).append("{flags=").append(flags[i]);
+                for (Metric metric : Metric.values()) {
+                    builder.append(", ").append(metric).append('=').append(metric(metric, i));
+                }
+                builder.append('}');
+            }
+            builder.append(']');
         }
         return builder.toString();
     }
@@ -7,30 +7,170 @@ import org.objectweb.asm.MethodVisitor;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 
 import static org.objectweb.asm.Opcodes.ASM9;
 
 class AnalyzingClassVisitor extends ClassVisitor {
     final List<AnalyzingMethodVisitor> analyzedMethods = new ArrayList<>();
+    // Call targets are looked up on every invoke instruction. An open addressing table over their parts compares them
+    // in place, where a map keyed by the concatenated target would build a string per instruction; ASM hands out one
+    // string instance per constant pool entry, so the comparisons are mostly identity checks.
+    private int[] targetTable = new int[64]; // call target + 1, 0 for a free slot
+    private String[] targetOwners = new String[16];
+    private String[] targetNames = new String[16];
+    private String[] targetDescriptors = new String[16];
+    // the rule flags of each call target, matched once per class rather than once per instruction
+    private int[] targetFlags = new int[16];
+    // the fingerprint of each call target, see AnalyzingMethodVisitor#fingerprint()
+    private long[] targetFingerprints = new long[16];
+    // the last method that called each call target, + 1
+    private int[] targetCallers = new int[16];
+    private int targetCount;
     private final String className;
+    private final Rules rules;
+    private String superName;
+    private String[] interfaces = new String[0];
+    private String enclosingClassName;
+    private String enclosingMethodName;
 
     protected AnalyzingClassVisitor(String className) {
+        this(className, Rules.defaults());
+    }
+
+    protected AnalyzingClassVisitor(String className, Rules rules) {
         super(ASM9);
         this.className = className;
+        this.rules = rules;
     }
 
     AnalyzedClass analyze(InputStream resourceAsStream) throws IOException {
-        ClassReader classReader = new ClassReader(resourceAsStream);
-        classReader.accept(this, 0);
-        return new AnalyzedClass(className, analyzedMethods);
+        return analyze(new ClassReader(resourceAsStream));
+    }
+
+    AnalyzedClass analyze(byte[] classFile) {
+        return analyze(new ClassReader(classFile));
+    }
+
+    private AnalyzedClass analyze(ClassReader classReader) {
+        // line numbers, local variable names and stack map frames do not affect any metric
+        classReader.accept(this, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        List<String> callTargets = new ArrayList<>(targetCount);
+        for (int target = 0; target < targetCount; target++) {
+            callTargets.add(targetOwners[target] + '.' + targetNames[target] + targetDescriptors[target]);
+        }
+        return AnalyzedClass.of(
+                className,
+                superName,
+                interfaces,
+                enclosingClassName,
+                enclosingMethodName,
+                analyzedMethods,
+                callTargets);
+    }
+
+    /** Returns the index of a call target, adding it on its first call. Known targets allocate nothing. */
+    int callTarget(String owner, String name, String descriptor) {
+        int hash = (owner.hashCode() * 31 + name.hashCode()) * 31 + descriptor.hashCode();
+        int mask = targetTable.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        for (int entry = targetTable[slot]; entry != 0; entry = targetTable[slot]) {
+            int target = entry - 1;
+            if (owner.equals(targetOwners[target])
+                    && name.equals(targetNames[target])
+                    && descriptor.equals(targetDescriptors[target])) {
+                return target;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int target = targetCount++;
+        if (target == targetOwners.length) {
+            int capacity = target * 2;
+            targetOwners = Arrays.copyOf(targetOwners, capacity);
+            targetNames = Arrays.copyOf(targetNames, capacity);
+            targetDescriptors = Arrays.copyOf(targetDescriptors, capacity);
+            targetFlags = Arrays.copyOf(targetFlags, capacity);
+            targetFingerprints = Arrays.copyOf(targetFingerprints, capacity);
+            targetCallers = Arrays.copyOf(targetCallers, capacity);
+        }
+        targetOwners[target] = owner;
+        targetNames[target] = name;
+        targetDescriptors[target] = descriptor;
+        targetFlags[target] = rules.callFlags(owner, name, descriptor);
+        targetFingerprints[target] = AnalyzingMethodVisitor.mix(
+                AnalyzingMethodVisitor.mix(AnalyzingMethodVisitor.mix(0, owner), name), descriptor);
+        targetTable[slot] = target + 1;
+        if (targetCount * 2 > targetTable.length) {
+            rehash();
+        }
+        return target;
+    }
+
+    private void rehash() {
+        targetTable = new int[targetTable.length * 2];
+        int mask = targetTable.length - 1;
+        for (int target = 0; target < targetCount; target++) {
+            int hash = (targetOwners[target].hashCode() * 31 + targetNames[target].hashCode()) * 31
+                    + targetDescriptors[target].hashCode();
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (targetTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            targetTable[slot] = target + 1;
+        }
+    }
+
+    /** Returns the {@link Rules#callFlags} of a call target. */
+    int callFlags(int callTarget) {
+        return targetFlags[callTarget];
+    }
+
+    long callTargetFingerprint(int callTarget) {
+        return targetFingerprints[callTarget];
+    }
+
+    /** Records that {@code method} calls {@code callTarget}; returns whether it had not been recorded before. */
+    boolean addCaller(int callTarget, int method) {
+        if (targetCallers[callTarget] == method + 1) {
+            return false;
+        }
+        targetCallers[callTarget] = method + 1;
+        return true;
+    }
+
+    Rules rules() {
+        return rules;
+    }
+
+    @Override
+    public void visit(
+            int version, int access, String name, String signature, String superName, String[] interfaces) {
+        this.superName = superName;
+        if (interfaces != null) {
+            this.interfaces = interfaces;
+        }
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    // only anonymous and local classes have an EnclosingMethod attribute; the name is null in initializers
+    @Override
+    public void visitOuterClass(String owner, String name, String descriptor) {
+        enclosingClassName = owner.replace('/', '.');
+        enclosingMethodName = name;
+        super.visitOuterClass(owner, name, descriptor);
     }
 
     @Override
     public MethodVisitor visitMethod(
             int access, String name, String descriptor, String signature, String[] exceptions) {
-        AnalyzingMethodVisitor methodVisitor = new AnalyzingMethodVisitor(name, access);
+        if (!rules.excludedMethods().test(name)) {
+            // never selected, so the reader skips the code
+            return null;
+        }
+        AnalyzingMethodVisitor methodVisitor =
+                new AnalyzingMethodVisitor(this, analyzedMethods.size(), name, descriptor, access);
         analyzedMethods.add(methodVisitor);
         return methodVisitor;
     }
@@ -1,28 +1,68 @@
 package com.lightstep.flashlight;
 
-import net.shadew.asm.descriptor.MethodDescriptor;
+import com.google.common.primitives.ImmutableIntArray;
+import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 
-import java.util.Set;
+import java.util.Arrays;
 
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
 import static org.objectweb.asm.Opcodes.ACC_SYNCHRONIZED;
+import static org.objectweb.asm.Opcodes.ACC_SYNTHETIC;
 import static org.objectweb.asm.Opcodes.ASM9;
 
 class AnalyzingMethodVisitor extends MethodVisitor {
+    private static final String LAMBDA_METAFACTORY = "java/lang/invoke/LambdaMetafactory";
+    private static final long FINGERPRINT_OFFSET = 0xcbf29ce484222325L;
+    private static final long FINGERPRINT_PRIME = 0x100000001b3L;
+
+    private final AnalyzingClassVisitor classVisitor;
+    private final int index;
     private final String name;
+    private final String descriptor;
+    private final boolean lambdaBody;
+    // each called target once, in order of the first call
+    private final ImmutableIntArray.Builder callTargets = ImmutableIntArray.builder();
     private boolean hasSynchronized;
     private boolean hasClientCall = false;
     private boolean hasRepositoryCall = false;
+    private boolean annotated = false;
+    private boolean hasRemoteIoInLoop = false;
+    // monitors and locks held at the current instruction, in instruction order; a synchronized method never drops
+    // below holding its own monitor, even where exception handlers release a monitor a second time
+    private final int minLockDepth;
+    private int lockDepth;
+    private boolean hasLockContention = false;
+    int criticalSectionSize = 0;
+    int lockedCallCount = 0;
+    // a getter is exactly ALOAD 0, GETFIELD, xRETURN
+    private boolean getterSoFar;
+    private final ControlFlowGraph controlFlowGraph = new ControlFlowGraph();
+    private final ImmutableIntArray.Builder remoteIoCalls = ImmutableIntArray.builder();
     int methodCallCount = 0;
     int jumpCount = 0;
+    int instructionCount = 0;
+    // hashes the opcodes and operands in order, with labels numbered in order of appearance; debug information and
+    // frames are skipped by the reader, so recompiling unchanged code keeps the fingerprint
+    private long fingerprint = FINGERPRINT_OFFSET;
+    private int labelCount = 0;
 
-    protected AnalyzingMethodVisitor(String name, int access) {
+    protected AnalyzingMethodVisitor(
+            AnalyzingClassVisitor classVisitor, int index, String name, String descriptor, int access) {
         super(ASM9);
+        this.classVisitor = classVisitor;
+        this.index = index;
         this.name = name;
+        this.descriptor = descriptor;
+        lambdaBody = (access & ACC_SYNTHETIC) != 0 && name.startsWith("lambda$");
         hasSynchronized = (access & ACC_SYNCHRONIZED) == ACC_SYNCHRONIZED;
+        minLockDepth = hasSynchronized ? 1 : 0;
+        lockDepth = minLockDepth;
+        getterSoFar = (access & ACC_STATIC) == 0 && descriptor.startsWith("()") && !descriptor.endsWith(")V");
     }
 
     @Override
@@ -40,58 +80,293 @@ class AnalyzingMethodVisitor extends MethodVisitor {
                 + '}';
     }
 
+    private void instruction(boolean partOfGetter, int opcode) {
+        fingerprint = mix(fingerprint, opcode);
+        getterSoFar &= partOfGetter;
+        instructionCount++;
+        if (lockDepth > 0) {
+            criticalSectionSize++;
+        }
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+        annotated |= classVisitor.rules().isAnnotation(descriptor);
+        return super.visitAnnotation(descriptor, visible);
+    }
+
+    /** Mixes {@code value} into {@code fingerprint}, FNV-1a style; allocates nothing. */
+    static long mix(long fingerprint, long value) {
+        return (fingerprint ^ value) * FINGERPRINT_PRIME;
+    }
+
+    static long mix(long fingerprint, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            fingerprint = mix(fingerprint, value.charAt(i));
+        }
+        return mix(fingerprint, value.length());
+    }
+
+    private static long mixConstant(long fingerprint, Object value) {
+        if (value instanceof String) {
+            return mix(fingerprint, (String) value);
+        } else if (value instanceof Integer) {
+            return mix(fingerprint, (Integer) value);
+        } else if (value instanceof Long) {
+            return mix(fingerprint, (Long) value);
+        } else if (value instanceof Float) {
+            return mix(fingerprint, Float.floatToIntBits((Float) value));
+        } else if (value instanceof Double) {
+            return mix(fingerprint, Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Type) {
+            return mix(fingerprint, ((Type) value).getDescriptor());
+        }
+        // handles and dynamic constants print all of their parts
+        return mix(fingerprint, value.toString());
+    }
+
+    private long label(Label label) {
+        if (label.info == null) {
+            label.info = labelCount++;
+        }
+        return (Integer) label.info;
+    }
+
+    @Override
+    public void visitLabel(Label label) {
+        fingerprint = mix(mix(fingerprint, -1), label(label));
+        controlFlowGraph.label(label, instructionCount);
+        super.visitLabel(label);
+    }
+
+    @Override
+    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+        fingerprint = mix(mix(mix(fingerprint, label(start)), label(end)), label(handler));
+        fingerprint = mix(fingerprint, type == null ? "" : type);
+        controlFlowGraph.tryCatch(start, end, handler);
+        super.visitTryCatchBlock(start, end, handler, type);
+    }
+
     @Override
     public void visitInsn(int opcode) {
-        hasSynchronized |= opcode == Opcodes.MONITORENTER;
+        if ((opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) || opcode == Opcodes.ATHROW) {
+            controlFlowGraph.exit(instructionCount);
+        }
+        if (opcode == Opcodes.MONITOREXIT) {
+            releaseLock();
+        }
+        instruction(instructionCount == 2 && opcode >= Opcodes.IRETURN && opcode <= Opcodes.ARETURN, opcode);
+        if (opcode == Opcodes.MONITORENTER) {
+            hasSynchronized = true;
+            lockDepth++;
+        }
         super.visitInsn(opcode);
     }
 
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+        instruction(false, opcode);
+        fingerprint = mix(fingerprint, operand);
+        super.visitIntInsn(opcode, operand);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int varIndex) {
+        if (opcode == Opcodes.RET) {
+            controlFlowGraph.exit(instructionCount);
+        }
+        instruction(instructionCount == 0 && opcode == Opcodes.ALOAD && varIndex == 0, opcode);
+        fingerprint = mix(fingerprint, varIndex);
+        super.visitVarInsn(opcode, varIndex);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+        instruction(false, opcode);
+        fingerprint = mix(fingerprint, type);
+        super.visitTypeInsn(opcode, type);
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+        instruction(instructionCount == 1 && opcode == Opcodes.GETFIELD, opcode);
+        fingerprint = mix(mix(mix(fingerprint, owner), name), descriptor);
+        super.visitFieldInsn(opcode, owner, name, descriptor);
+    }
+
+    @Override
+    public void visitLdcInsn(Object value) {
+        instruction(false, Opcodes.LDC);
+        fingerprint = mixConstant(fingerprint, value);
+        super.visitLdcInsn(value);
+    }
+
+    @Override
+    public void visitIincInsn(int varIndex, int increment) {
+        instruction(false, Opcodes.IINC);
+        fingerprint = mix(mix(fingerprint, varIndex), increment);
+        super.visitIincInsn(varIndex, increment);
+    }
+
+    @Override
+    public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+        instruction(false, Opcodes.MULTIANEWARRAY);
+        fingerprint = mix(mix(fingerprint, descriptor), numDimensions);
+        super.visitMultiANewArrayInsn(descriptor, numDimensions);
+    }
+
     @Override
     public void visitInvokeDynamicInsn(
             String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+        int position = instructionCount;
+        instruction(false, Opcodes.INVOKEDYNAMIC);
+        fingerprint = mixConstant(mix(mix(fingerprint, name), descriptor), bootstrapMethodHandle);
+        for (Object argument : bootstrapMethodArguments) {
+            fingerprint = mixConstant(fingerprint, argument);
+        }
         methodCallCount++;
+        // a lambda or method reference counts as a call of its implementation, which links lambda$ bodies to the
+        // method that creates them
+        if (bootstrapMethodHandle.getOwner().equals(LAMBDA_METAFACTORY)
+                && bootstrapMethodArguments.length > 1
+                && bootstrapMethodArguments[1] instanceof Handle) {
+            Handle implementation = (Handle) bootstrapMethodArguments[1];
+            call(position, implementation.getOwner(), implementation.getName(), implementation.getDesc());
+        }
         super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
     }
 
     @Override
     public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+        int position = instructionCount;
+        instruction(false, opcode);
         methodCallCount++;
-        MethodDescriptor methodDescriptor = MethodDescriptor.parse(descriptor);
-        String returnType = methodDescriptor.returnType().toAsm().getInternalName();
-
-        // check if this looks like a builder method
-        if (!owner.equals(returnType)) {
-            hasClientCall |=
-                    owner.endsWith("Client") && !returnType.endsWith("Client") && !returnType.endsWith("Builder");
-            hasRepositoryCall |= owner.endsWith("Repository")
-                    && !returnType.endsWith("Repository")
-                    && !returnType.endsWith("Builder");
+        int flags = call(position, owner, name, descriptor);
+        if ((flags & AnalyzedClass.LOCK_ACQUIRE) != 0) {
+            lockDepth++;
+        } else if ((flags & AnalyzedClass.LOCK_RELEASE) != 0) {
+            releaseLock();
+        } else {
+            if (lockDepth > 0) {
+                lockedCallCount++;
+                hasLockContention = true;
+            }
+            hasLockContention |= (flags & AnalyzedClass.LOCK_WAIT) != 0;
         }
         super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
     }
 
+    private void releaseLock() {
+        if (lockDepth > minLockDepth) {
+            lockDepth--;
+        }
+    }
+
+    /** Records a call and returns its {@link Rules#callFlags}. */
+    private int call(int position, String owner, String name, String descriptor) {
+        int callTarget = classVisitor.callTarget(owner, name, descriptor);
+        if (classVisitor.addCaller(callTarget, index)) {
+            callTargets.add(callTarget);
+        }
+        fingerprint = mix(fingerprint, classVisitor.callTargetFingerprint(callTarget));
+        int flags = classVisitor.callFlags(callTarget);
+        hasClientCall |= (flags & AnalyzedClass.CLIENT_CALL) != 0;
+        hasRepositoryCall |= (flags & AnalyzedClass.REPOSITORY_CALL) != 0;
+        if ((flags & (AnalyzedClass.CLIENT_CALL | AnalyzedClass.REPOSITORY_CALL)) != 0) {
+            remoteIoCalls.add(position);
+        }
+        return flags;
+    }
+
     @Override
     public void visitJumpInsn(int opcode, Label label) {
+        controlFlowGraph.jump(instructionCount, opcode != Opcodes.GOTO, label);
+        instruction(false, opcode);
+        fingerprint = mix(fingerprint, label(label));
         jumpCount++;
         super.visitJumpInsn(opcode, label);
     }
 
     @Override
     public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+        controlFlowGraph.jump(instructionCount, false, switchTargets(dflt, labels));
+        instruction(false, Opcodes.TABLESWITCH);
+        fingerprint = mix(mix(mix(fingerprint, min), max), label(dflt));
+        for (Label label : labels) {
+            fingerprint = mix(fingerprint, label(label));
+        }
         jumpCount++;
         super.visitTableSwitchInsn(min, max, dflt, labels);
     }
 
     @Override
     public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+        controlFlowGraph.jump(instructionCount, false, switchTargets(dflt, labels));
+        instruction(false, Opcodes.LOOKUPSWITCH);
+        fingerprint = mix(fingerprint, label(dflt));
+        for (int i = 0; i < keys.length; i++) {
+            fingerprint = mix(mix(fingerprint, keys[i]), label(labels[i]));
+        }
         jumpCount++;
         super.visitLookupSwitchInsn(dflt, keys, labels);
     }
 
+    private static Label[] switchTargets(Label dflt, Label[] labels) {
+        Label[] targets = Arrays.copyOf(labels, labels.length + 1);
+        targets[labels.length] = dflt;
+        return targets;
+    }
+
+    @Override
+    public void visitEnd() {
+        controlFlowGraph.analyze(instructionCount);
+        for (int position : remoteIoCalls.build().toArray()) {
+            hasRemoteIoInLoop |= controlFlowGraph.loopDepth(position) > 0;
+        }
+        super.visitEnd();
+    }
+
+    int metric(Metric metric) {
+        switch (metric) {
+            case METHOD_CALL_COUNT:
+                return methodCallCount;
+            case JUMP_COUNT:
+                return jumpCount;
+            case INSTRUCTION_COUNT:
+                return instructionCount;
+            case LOOP_DEPTH:
+                return controlFlowGraph.loopDepth();
+            case CYCLOMATIC_COMPLEXITY:
+                return controlFlowGraph.cyclomaticComplexity();
+            case CRITICAL_SECTION_SIZE:
+                return criticalSectionSize;
+            case LOCKED_CALL_COUNT:
+                return lockedCallCount;
+            default:
+                throw new AssertionError(metric);
+        }
+    }
+
     public String name() {
         return name;
     }
 
+    /**
+     * Returns a hash of the instructions of the method, equal for methods with the same instructions, operands and
+     * branch structure.
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    public String descriptor() {
+        return descriptor;
+    }
+
+    int[] callTargets() {
+        return callTargets.build().toArray();
+    }
+
     public boolean hasSynchronized() {
         return hasSynchronized;
     }
@@ -103,4 +378,28 @@ class AnalyzingMethodVisitor extends MethodVisitor {
     public boolean hasRepositoryCall() {
         return hasRepositoryCall;
     }
+
+    /** Returns whether the method has an annotation of the {@link Rules}. */
+    public boolean isAnnotated() {
+        return annotated;
+    }
+
+    /** Returns whether a client or repository call is made inside a loop. */
+    public boolean hasRemoteIoInLoop() {
+        return hasRemoteIoInLoop;
+    }
+
+    /** Returns whether the method calls other methods while holding a lock, or waits for other threads. */
+    public boolean hasLockContention() {
+        return hasLockContention;
+    }
+
+    /** Returns whether this is the synthetic body of a lambda expression, which has no stable name. */
+    public boolean isLambdaBody() {
+        return lambdaBody;
+    }
+
+    public boolean isGetter() {
+        return getterSoFar && instructionCount == 3;
+    }
 }
@@ -0,0 +1,147 @@
+package com.lightstep.flashlight;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Methods that park the calling thread on I/O, a lock or another thread. Each pattern is {@code owner.name} with the
+ * owner written with dots like the class names of the {@link Rules}, and {@code $} for nested classes; the owner may
+ * be {@code *} to match any class and the name may end in {@code *} to match a prefix. Calls are matched by the owner
+ * the compiler emitted, so subtypes that callers commonly use are listed explicitly.
+ */
+class BlockingCalls {
+    static final List<String> DEFAULT_PATTERNS = List.of(
+            "*.wait",
+            "java.lang.Thread.sleep",
+            "java.lang.Thread.join",
+            "java.lang.Process.waitFor",
+            "java.util.concurrent.Future.get",
+            "java.util.concurrent.FutureTask.get",
+            "java.util.concurrent.CompletableFuture.get",
+            "java.util.concurrent.CompletableFuture.join",
+            "java.util.concurrent.ForkJoinTask.get",
+            "java.util.concurrent.ForkJoinTask.join",
+            "java.util.concurrent.ForkJoinTask.invoke",
+            "java.util.concurrent.ExecutorService.invokeAll",
+            "java.util.concurrent.ExecutorService.invokeAny",
+            "java.util.concurrent.ExecutorService.awaitTermination",
+            "java.util.concurrent.CountDownLatch.await",
+            "java.util.concurrent.CyclicBarrier.await",
+            "java.util.concurrent.Semaphore.acquire*",
+            "java.util.concurrent.BlockingQueue.take",
+            "java.util.concurrent.BlockingQueue.put",
+            "java.util.concurrent.LinkedBlockingQueue.take",
+            "java.util.concurrent.LinkedBlockingQueue.put",
+            "java.util.concurrent.ArrayBlockingQueue.take",
+            "java.util.concurrent.ArrayBlockingQueue.put",
+            "java.util.concurrent.locks.Lock.lock",
+            "java.util.concurrent.locks.Lock.lockInterruptibly",
+            "java.util.concurrent.locks.ReentrantLock.lock",
+            "java.util.concurrent.locks.ReentrantLock.lockInterruptibly",
+            "java.util.concurrent.locks.ReentrantReadWriteLock$ReadLock.lock",
+            "java.util.concurrent.locks.ReentrantReadWriteLock$WriteLock.lock",
+            "java.util.concurrent.locks.Condition.await*",
+            "java.util.concurrent.locks.LockSupport.park*",
+            "java.sql.Statement.execute*",
+            "java.sql.PreparedStatement.execute*",
+            "java.sql.CallableStatement.execute*",
+            "java.sql.DriverManager.getConnection",
+            "javax.sql.DataSource.getConnection",
+            "java.io.InputStream.read*",
+            "java.io.Reader.read*",
+            "java.io.BufferedReader.readLine",
+            "java.net.Socket.connect",
+            "java.net.ServerSocket.accept",
+            "java.net.URLConnection.connect",
+            "java.net.URLConnection.getInputStream",
+            "java.net.HttpURLConnection.getResponseCode",
+            "java.net.InetAddress.getByName",
+            "java.net.InetAddress.getAllByName",
+            "java.net.http.HttpClient.send",
+            "java.nio.channels.SocketChannel.connect",
+            "java.nio.channels.SocketChannel.read",
+            "java.nio.channels.ServerSocketChannel.accept",
+            "java.nio.channels.Selector.select");
+
+    private final Map<String, Set<String>> exactNames = new HashMap<>();
+    private final Map<String, List<String>> namePrefixes = new HashMap<>();
+    private final Map<String, Boolean> matchedTargets = new ConcurrentHashMap<>();
+
+    BlockingCalls(Collection<String> patterns) {
+        for (String pattern : patterns) {
+            int separator = pattern.lastIndexOf('.');
+            if (separator <= 0 || separator == pattern.length() - 1) {
+                throw new IllegalArgumentException("Expected owner.name: '" + pattern + "'");
+            }
+            // call targets are matched in internal form
+            String owner = pattern.substring(0, separator).replace('.', '/');
+            String name = pattern.substring(separator + 1);
+            if (name.endsWith("*")) {
+                namePrefixes
+                        .computeIfAbsent(owner, key -> new ArrayList<>())
+                        .add(name.substring(0, name.length() - 1));
+            } else {
+                exactNames.computeIfAbsent(owner, key -> new HashSet<>()).add(name);
+            }
+        }
+    }
+
+    static BlockingCalls defaults() {
+        return new BlockingCalls(DEFAULT_PATTERNS);
+    }
+
+    /**
+     * Returns the defaults plus the patterns in {@code file}, one per line. Blank lines and lines starting with {@code
+     * #} are skipped.
+     */
+    static BlockingCalls withPatterns(Path file) throws IOException {
+        List<String> patterns = new ArrayList<>(DEFAULT_PATTERNS);
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                patterns.add(line);
+            }
+        }
+        try {
+            return new BlockingCalls(patterns);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /** Returns whether {@code callTarget}, as in {@link AnalyzedClass#callTargets()}, blocks. */
+    public boolean matches(String callTarget) {
+        return matchedTargets.computeIfAbsent(callTarget, this::matchesUncached);
+    }
+
+    private boolean matchesUncached(String callTarget) {
+        int nameStart = callTarget.indexOf('.');
+        int descriptorStart = callTarget.indexOf('(', nameStart);
+        String owner = callTarget.substring(0, nameStart);
+        String name = callTarget.substring(nameStart + 1, descriptorStart);
+        return matches(owner, name) || matches("*", name);
+    }
+
+    private boolean matches(String owner, String name) {
+        Set<String> names = exactNames.get(owner);
+        if (names != null && names.contains(name)) {
+            return true;
+        }
+        for (String prefix : namePrefixes.getOrDefault(owner, List.of())) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,372 @@
+package com.lightstep.flashlight;
+
+import com.google.common.primitives.ImmutableIntArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Call graph over all methods of a scan. Every method gets an int id (its class's first id plus its index in the
+ * class) and edges are stored as compressed adjacency arrays: the callees of method {@code m} are {@code
+ * edges[edgeOffsets[m]]} up to {@code edgeOffsets[m + 1]}.
+ *
+ * <p>Invocations are resolved against the scanned classes only. A call to {@code Owner.m} is linked to the declaration
+ * in {@code Owner} or its nearest scanned superclass, and to the overrides in all scanned subtypes of {@code Owner}.
+ * A lambda is a call of its implementation method, and the method enclosing an anonymous or local class calls all of
+ * the class's methods.
+ *
+ * <p>Remote I/O (a direct client or repository call) is propagated to all transitive callers. The fan-out of a method
+ * is the number of remote I/O call paths below it, summed over the strongly connected components so that recursion
+ * terminates. A remote I/O entry point reaches remote I/O and has no caller outside its own component, so it is the
+ * highest-level method on each I/O path.
+ */
+class CallGraph {
+    private static final int REMOTE_IO = AnalyzedClass.CLIENT_CALL | AnalyzedClass.REPOSITORY_CALL;
+    private static final int[] NO_METHODS = new int[0];
+
+    private final Map<AnalyzedClass, Integer> firstMethods;
+    private final int[] edgeOffsets;
+    private final int[] edges;
+    private final long[] fanOut;
+    private final boolean[] entryPoints;
+
+    private CallGraph(
+            Map<AnalyzedClass, Integer> firstMethods,
+            int[] edgeOffsets,
+            int[] edges,
+            long[] fanOut,
+            boolean[] entryPoints) {
+        this.firstMethods = firstMethods;
+        this.edgeOffsets = edgeOffsets;
+        this.edges = edges;
+        this.fanOut = fanOut;
+        this.entryPoints = entryPoints;
+    }
+
+    /** Builds the graph; calls made by methods that {@code filteredMethods} rejects do not count as callers. */
+    static CallGraph build(List<AnalyzedClass> analyzedClasses, MethodNameFilter filteredMethods) {
+        Map<AnalyzedClass, Integer> firstMethods = new IdentityHashMap<>();
+        Map<String, Integer> classIndex = new HashMap<>();
+        int methodCount = 0;
+        for (int i = 0; i < analyzedClasses.size(); i++) {
+            AnalyzedClass analyzedClass = analyzedClasses.get(i);
+            firstMethods.put(analyzedClass, methodCount);
+            classIndex.putIfAbsent(analyzedClass.getInternalName(), i);
+            methodCount += analyzedClass.methodCount();
+        }
+
+        Resolver resolver = new Resolver(analyzedClasses, firstMethods, classIndex);
+        Map<Integer, List<Integer>> enclosedMethods = enclosedMethods(analyzedClasses, firstMethods, classIndex);
+        int[] edgeOffsets = new int[methodCount + 1];
+        ImmutableIntArray.Builder edges = ImmutableIntArray.builder();
+        boolean[] directRemoteIo = new boolean[methodCount];
+        boolean[] callers = new boolean[methodCount];
+        int[] seen = new int[methodCount];
+        Arrays.fill(seen, -1);
+        int edgeCount = 0;
+        int id = 0;
+        for (AnalyzedClass analyzedClass : analyzedClasses) {
+            String[] callTargets = analyzedClass.callTargets();
+            int[] calls = analyzedClass.calls();
+            for (int method = 0; method < analyzedClass.methodCount(); method++, id++) {
+                directRemoteIo[id] = analyzedClass.hasFlag(method, REMOTE_IO);
+                callers[id] = filteredMethods.test(analyzedClass.methodName(method));
+                int lastCall = analyzedClass.callOffset(method + 1);
+                for (int call = analyzedClass.callOffset(method); call < lastCall; call++) {
+                    for (int callee : resolver.resolve(callTargets[calls[call]])) {
+                        if (callee != id && seen[callee] != id) {
+                            seen[callee] = id;
+                            edges.add(callee);
+                            edgeCount++;
+                        }
+                    }
+                }
+                for (int callee : enclosedMethods.getOrDefault(id, List.of())) {
+                    if (seen[callee] != id) {
+                        seen[callee] = id;
+                        edges.add(callee);
+                        edgeCount++;
+                    }
+                }
+                edgeOffsets[id + 1] = edgeCount;
+            }
+        }
+
+        CallGraph graph = new CallGraph(
+                firstMethods, edgeOffsets, edges.build().toArray(), new long[methodCount], new boolean[methodCount]);
+        graph.propagate(directRemoteIo, callers);
+        return graph;
+    }
+
+    // the methods of each anonymous or local class, keyed by the ids of the methods named like its enclosing method
+    private static Map<Integer, List<Integer>> enclosedMethods(
+            List<AnalyzedClass> analyzedClasses,
+            Map<AnalyzedClass, Integer> firstMethods,
+            Map<String, Integer> classIndex) {
+        Map<Integer, List<Integer>> enclosedMethods = new HashMap<>();
+        for (AnalyzedClass enclosed : analyzedClasses) {
+            if (enclosed.getEnclosingClassName() == null || enclosed.getEnclosingMethodName() == null) {
+                continue;
+            }
+            Integer outerIndex = classIndex.get(enclosed.getEnclosingClassName().replace('.', '/'));
+            if (outerIndex == null) {
+                continue;
+            }
+            AnalyzedClass outer = analyzedClasses.get(outerIndex);
+            for (int method = 0; method < outer.methodCount(); method++) {
+                if (outer.methodName(method).equals(enclosed.getEnclosingMethodName())) {
+                    List<Integer> callees =
+                            enclosedMethods.computeIfAbsent(firstMethods.get(outer) + method, id -> new ArrayList<>());
+                    for (int callee = 0; callee < enclosed.methodCount(); callee++) {
+                        callees.add(firstMethods.get(enclosed) + callee);
+                    }
+                }
+            }
+        }
+        return enclosedMethods;
+    }
+
+    public int methodCount() {
+        return edgeOffsets.length - 1;
+    }
+
+    public int edgeCount() {
+        return edges.length;
+    }
+
+    public boolean reachesRemoteIo(AnalyzedClass analyzedClass, int method) {
+        return fanOut[id(analyzedClass, method)] > 0;
+    }
+
+    public long fanOut(AnalyzedClass analyzedClass, int method) {
+        return fanOut[id(analyzedClass, method)];
+    }
+
+    public boolean isRemoteIoEntryPoint(AnalyzedClass analyzedClass, int method) {
+        return entryPoints[id(analyzedClass, method)];
+    }
+
+    private int id(AnalyzedClass analyzedClass, int method) {
+        Integer firstMethod = firstMethods.get(analyzedClass);
+        if (firstMethod == null) {
+            throw new IllegalArgumentException("Not part of the call graph: " + analyzedClass.getClassName());
+        }
+        return firstMethod + method;
+    }
+
+    private void propagate(boolean[] directRemoteIo, boolean[] callers) {
+        int[] components = new int[methodCount()];
+        int componentCount = stronglyConnectedComponents(components);
+
+        // components are numbered in reverse topological order: callees before their callers
+        long[] componentFanOut = new long[componentCount];
+        boolean[] componentHasCaller = new boolean[componentCount];
+        int[][] members = members(components, componentCount);
+        int[] seen = new int[componentCount];
+        Arrays.fill(seen, -1);
+        for (int component = 0; component < componentCount; component++) {
+            long total = 0;
+            for (int method : members[component]) {
+                if (directRemoteIo[method]) {
+                    total++;
+                }
+                for (int edge = edgeOffsets[method]; edge < edgeOffsets[method + 1]; edge++) {
+                    int callee = components[edges[edge]];
+                    if (callee == component) {
+                        continue;
+                    }
+                    componentHasCaller[callee] |= callers[method];
+                    if (seen[callee] != component) {
+                        seen[callee] = component;
+                        total = saturatedAdd(total, componentFanOut[callee]);
+                    }
+                }
+            }
+            componentFanOut[component] = total;
+        }
+
+        for (int method = 0; method < fanOut.length; method++) {
+            int component = components[method];
+            fanOut[method] = componentFanOut[component];
+            entryPoints[method] = fanOut[method] > 0 && !componentHasCaller[component];
+        }
+    }
+
+    /**
+     * Iterative Tarjan algorithm; stores the component of each method in {@code components} and returns the number of
+     * components.
+     */
+    private int stronglyConnectedComponents(int[] components) {
+        int methodCount = components.length;
+        int[] index = new int[methodCount];
+        int[] lowLink = new int[methodCount];
+        boolean[] onStack = new boolean[methodCount];
+        int[] stack = new int[methodCount];
+        int[] path = new int[methodCount];
+        int[] nextEdge = new int[methodCount];
+        Arrays.fill(index, -1);
+        int stackSize = 0;
+        int nextIndex = 0;
+        int componentCount = 0;
+        for (int root = 0; root < methodCount; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            int depth = 0;
+            path[0] = root;
+            nextEdge[0] = edgeOffsets[root];
+            index[root] = lowLink[root] = nextIndex++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                int method = path[depth];
+                if (nextEdge[depth] < edgeOffsets[method + 1]) {
+                    int callee = edges[nextEdge[depth]++];
+                    if (index[callee] == -1) {
+                        index[callee] = lowLink[callee] = nextIndex++;
+                        stack[stackSize++] = callee;
+                        onStack[callee] = true;
+                        depth++;
+                        path[depth] = callee;
+                        nextEdge[depth] = edgeOffsets[callee];
+                    } else if (onStack[callee]) {
+                        lowLink[method] = Math.min(lowLink[method], index[callee]);
+                    }
+                    continue;
+                }
+                if (lowLink[method] == index[method]) {
+                    int member;
+                    do {
+                        member = stack[--stackSize];
+                        onStack[member] = false;
+                        components[member] = componentCount;
+                    } while (member != method);
+                    componentCount++;
+                }
+                depth--;
+                if (depth >= 0) {
+                    int caller = path[depth];
+                    lowLink[caller] = Math.min(lowLink[caller], lowLink[method]);
+                }
+            }
+        }
+        return componentCount;
+    }
+
+    private static int[][] members(int[] components, int componentCount) {
+        int[] sizes = new int[componentCount];
+        for (int component : components) {
+            sizes[component]++;
+        }
+        int[][] members = new int[componentCount][];
+        for (int component = 0; component < componentCount; component++) {
+            members[component] = new int[sizes[component]];
+            sizes[component] = 0;
+        }
+        for (int method = 0; method < components.length; method++) {
+            int component = components[method];
+            members[component][sizes[component]++] = method;
+        }
+        return members;
+    }
+
+    private static long saturatedAdd(long left, long right) {
+        long sum = left + right;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    private static class Resolver {
+        private final List<AnalyzedClass> analyzedClasses;
+        private final Map<AnalyzedClass, Integer> firstMethods;
+        private final Map<String, Integer> classIndex;
+        private final Map<String, List<Integer>> subtypes = new HashMap<>();
+        private final Map<String, int[]> resolved = new HashMap<>();
+
+        Resolver(
+                List<AnalyzedClass> analyzedClasses,
+                Map<AnalyzedClass, Integer> firstMethods,
+                Map<String, Integer> classIndex) {
+            this.analyzedClasses = analyzedClasses;
+            this.firstMethods = firstMethods;
+            this.classIndex = classIndex;
+            for (int i = 0; i < analyzedClasses.size(); i++) {
+                AnalyzedClass analyzedClass = analyzedClasses.get(i);
+                if (analyzedClass.getSuperName() != null) {
+                    addSubtype(analyzedClass.getSuperName(), i);
+                }
+                for (String anInterface : analyzedClass.getInterfaces()) {
+                    addSubtype(anInterface, i);
+                }
+            }
+        }
+
+        private void addSubtype(String supertype, int subtype) {
+            if (classIndex.containsKey(supertype)) {
+                subtypes.computeIfAbsent(supertype, key -> new ArrayList<>()).add(subtype);
+            }
+        }
+
+        int[] resolve(String callTarget) {
+            int[] methods = resolved.get(callTarget);
+            if (methods == null) {
+                methods = resolveUncached(callTarget);
+                resolved.put(callTarget, methods);
+            }
+            return methods;
+        }
+
+        private int[] resolveUncached(String callTarget) {
+            int nameStart = callTarget.indexOf('.');
+            int descriptorStart = callTarget.indexOf('(', nameStart);
+            String owner = callTarget.substring(0, nameStart);
+            if (!classIndex.containsKey(owner)) {
+                return NO_METHODS;
+            }
+            String name = callTarget.substring(nameStart + 1, descriptorStart);
+            String descriptor = callTarget.substring(descriptorStart);
+
+            ImmutableIntArray.Builder methods = ImmutableIntArray.builder();
+            for (String type = owner; type != null && classIndex.containsKey(type); ) {
+                AnalyzedClass analyzedClass = analyzedClasses.get(classIndex.get(type));
+                int method = declaredMethod(analyzedClass, name, descriptor);
+                if (method >= 0) {
+                    methods.add(method);
+                    break;
+                }
+                type = analyzedClass.getSuperName();
+            }
+
+            Set<Integer> visited = new HashSet<>();
+            List<Integer> pending = new ArrayList<>(subtypes.getOrDefault(owner, List.of()));
+            while (!pending.isEmpty()) {
+                int subtype = pending.remove(pending.size() - 1);
+                if (!visited.add(subtype)) {
+                    continue;
+                }
+                AnalyzedClass analyzedClass = analyzedClasses.get(subtype);
+                int method = declaredMethod(analyzedClass, name, descriptor);
+                if (method >= 0) {
+                    methods.add(method);
+                }
+                pending.addAll(subtypes.getOrDefault(analyzedClass.getInternalName(), List.of()));
+            }
+            return methods.build().toArray();
+        }
+
+        private int declaredMethod(AnalyzedClass analyzedClass, String name, String descriptor) {
+            for (int method = 0; method < analyzedClass.methodCount(); method++) {
+                if (analyzedClass.methodName(method).equals(name)
+                        && analyzedClass.methodDescriptor(method).equals(descriptor)) {
+                    return firstMethods.get(analyzedClass) + method;
+                }
+            }
+            return -1;
+        }
+    }
+}
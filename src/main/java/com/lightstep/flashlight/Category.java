@@ -0,0 +1,47 @@
+package com.lightstep.flashlight;
+
+enum Category {
+    SYNCHRONIZED("Synchronized methods", 3),
+    LOCK_CONTENTION("Lock contention methods", 9),
+    BLOCKING_CALL("Blocking call methods", 7),
+    CLIENT_CALL("Client invocation methods", 5),
+    REPOSITORY_CALL("Repository invocation methods", 5),
+    REMOTE_IO_ENTRY_POINT("Remote I/O entry point methods", 8),
+    HOT_REMOTE_IO_CALLER("Hot remote I/O caller methods", 10),
+    REMOTE_IO_IN_LOOP("Remote I/O in loop methods", 12),
+    ANNOTATED("Annotated methods", 6),
+    HIGH_CALL_COUNT("High call count methods", 2),
+    HIGH_BRANCH_COUNT("High branch count methods", 1);
+
+    private final String title;
+    private final int value;
+
+    Category(String title, int value) {
+        this.title = title;
+        this.value = value;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /** Returns how much a span on a method of this category is worth, relative to the other categories. */
+    public int getValue() {
+        return value;
+    }
+
+    /** Returns the summed value of the categories in {@code categories}, a bit set of {@link #bit()}. */
+    static int value(int categories) {
+        int value = 0;
+        for (Category category : values()) {
+            if ((categories & category.bit()) != 0) {
+                value += category.value;
+            }
+        }
+        return value;
+    }
+
+    int bit() {
+        return 1 << ordinal();
+    }
+}
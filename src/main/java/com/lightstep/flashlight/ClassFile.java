@@ -0,0 +1,102 @@
+package com.lightstep.flashlight;
+
+import com.google.common.hash.HashCode;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+class ClassFile {
+    private static final String CLASS_FILE_EXTENSION = ".class";
+
+    interface Contents {
+        byte[] read() throws IOException;
+    }
+
+    private final String resourceName;
+    private final String entryName;
+    private final Contents contents;
+    private volatile HashCode contentHash;
+    private volatile long crc;
+
+    ClassFile(String resourceName, Contents contents) {
+        this(resourceName, resourceName, contents, null, -1);
+    }
+
+    /** A negative {@code crc} is computed from the contents when it is needed. */
+    ClassFile(String resourceName, String entryName, Contents contents, @Nullable HashCode contentHash, long crc) {
+        this.resourceName = resourceName;
+        this.entryName = entryName;
+        this.contents = contents;
+        this.contentHash = contentHash;
+        this.crc = crc;
+    }
+
+    static boolean isClassFile(String resourceName) {
+        return resourceName.endsWith(CLASS_FILE_EXTENSION) && !resourceName.startsWith("META-INF/");
+    }
+
+    public String getResourceName() {
+        return resourceName;
+    }
+
+    /**
+     * Returns where the class is stored in its directory or archive, which differs from the resource name for classes
+     * in {@code BOOT-INF/classes/} and in nested jars, e.g. {@code BOOT-INF/lib/client.jar!/com/example/Client.class}.
+     */
+    public String getEntryName() {
+        return entryName;
+    }
+
+    public String getClassName() {
+        return resourceName
+                .substring(0, resourceName.length() - CLASS_FILE_EXTENSION.length())
+                .replace('/', '.');
+    }
+
+    public byte[] read() throws IOException {
+        return contents.read();
+    }
+
+    /**
+     * Returns the CRC-32 of the class bytes, a cheap fingerprint that archives record in their central directory; the
+     * bytes are only read for classes in directories.
+     */
+    public long getCrc() throws IOException {
+        if (crc < 0) {
+            CRC32 checksum = new CRC32();
+            checksum.update(read());
+            crc = checksum.getValue();
+        }
+        return crc;
+    }
+
+    /** Returns the CRC-32 if it is already known, else -1. */
+    long getRecordedCrc() {
+        return crc;
+    }
+
+    /** Returns whether {@code other} has the same bytes, by content hash where both are known, else by CRC. */
+    public boolean hasSameContents(ClassFile other) throws IOException {
+        HashCode hash = contentHash;
+        HashCode otherHash = other.contentHash;
+        if (hash != null && otherHash != null) {
+            return hash.equals(otherHash);
+        }
+        return getCrc() == other.getCrc();
+    }
+
+    @Nullable
+    public HashCode getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(HashCode contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    @Override
+    public String toString() {
+        return resourceName;
+    }
+}
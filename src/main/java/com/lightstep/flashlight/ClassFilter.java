@@ -0,0 +1,51 @@
+package com.lightstep.flashlight;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Accepts class files whose class matches an included {@link PatternIndex pattern}, or any class if there are none,
+ * and no excluded pattern. Patterns are class names such as {@code com.example.*}, where {@code *} or {@code **} at
+ * the end also matches subpackages; a pattern without a wildcard also matches the nested classes of that class.
+ *
+ * <p>The patterns are compiled to resource paths, so a class file is tested by its path in place, before it is read.
+ */
+class ClassFilter implements Predicate<String> {
+    static final ClassFilter ALL = new ClassFilter(List.of(), List.of());
+
+    private static final String CLASS_FILE_EXTENSION = ".class";
+
+    private final PatternIndex<String> includedClasses = new PatternIndex<>();
+    private final PatternIndex<String> excludedClasses = new PatternIndex<>();
+
+    /** Throws an {@link IllegalArgumentException} for a malformed pattern. */
+    public ClassFilter(List<String> includedClasses, List<String> excludedClasses) {
+        for (String pattern : includedClasses) {
+            add(this.includedClasses, pattern);
+        }
+        for (String pattern : excludedClasses) {
+            add(this.excludedClasses, pattern);
+        }
+    }
+
+    private static void add(PatternIndex<String> index, String pattern) {
+        String path = pattern.replace('.', '/');
+        if (path.endsWith("**")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        index.add(path, pattern);
+        if (!path.contains("*")) {
+            index.add(path + "$*", pattern);
+        }
+    }
+
+    /** Returns whether the class file at {@code resourceName}, e.g. {@code com/example/App.class}, is scanned. */
+    @Override
+    public boolean test(String resourceName) {
+        int end = resourceName.endsWith(CLASS_FILE_EXTENSION)
+                ? resourceName.length() - CLASS_FILE_EXTENSION.length()
+                : resourceName.length();
+        return (includedClasses.isEmpty() || includedClasses.matches(resourceName, 0, end))
+                && !excludedClasses.matches(resourceName, 0, end);
+    }
+}
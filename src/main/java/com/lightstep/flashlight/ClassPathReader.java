@@ -0,0 +1,406 @@
+package com.lightstep.flashlight;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Enumerates the class files in a list of directories and jar files. Each directory is walked once and each jar is
+ * opened at most once; class bytes are read straight from the file or archive without a class loader lookup. Jars
+ * nested in a jar, like the libraries of a Spring Boot jar or a war, are read in place rather than extracted.
+ */
+class ClassPathReader implements Closeable {
+    private static final String NESTED_SEPARATOR = "!/";
+    // Spring Boot and war layouts keep the application classes apart from the nested library jars
+    private static final List<String> CLASS_DIRECTORIES = List.of("BOOT-INF/classes/", "WEB-INF/classes/");
+
+    private final List<Path> roots;
+    private final boolean mapArchives;
+    private final AnalysisCache cache;
+    private final ClassFilter filter;
+    private final ScanStats stats;
+    private final Map<Path, ZipFile> openArchives = new HashMap<>();
+    private final Map<Path, ZipBuffer> mappedArchives = new HashMap<>();
+    private final Map<String, ZipBuffer> nestedArchives = new HashMap<>();
+    private final List<ShadowedClass> shadowedClasses = new ArrayList<>();
+
+    /** Receives the classes of each root, see {@link #classes(RootConsumer)}. */
+    interface RootConsumer {
+        void accept(List<ClassFile> classFiles, @Nullable ScanStats.Root root) throws IOException;
+    }
+
+    /** A copy of a class that is not scanned, or instrumented by the agent, because an earlier copy shadows it. */
+    static class ShadowedClass {
+        private final String className;
+        private final String location;
+        private final String shadowedLocation;
+        private final boolean identical;
+
+        ShadowedClass(String className, String location, String shadowedLocation, boolean identical) {
+            this.className = className;
+            this.location = location;
+            this.shadowedLocation = shadowedLocation;
+            this.identical = identical;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        /** Returns where the scanned copy is, e.g. {@code lib/app.jar!/com/example/App.class}. */
+        public String getLocation() {
+            return location;
+        }
+
+        public String getShadowedLocation() {
+            return shadowedLocation;
+        }
+
+        /** Returns whether both copies have the same bytes, so that either analysis applies to both. */
+        public boolean isIdentical() {
+            return identical;
+        }
+
+        @Override
+        public String toString() {
+            return className + ": " + location + " shadows " + shadowedLocation
+                    + (identical ? " (identical)" : " (different)");
+        }
+    }
+
+    /** Uses the archive mapping, cache, filter and stats of {@code options}; the stats time each root. */
+    ClassPathReader(Collection<Path> roots, ScanOptions options) {
+        this.roots = List.copyOf(roots);
+        this.mapArchives = options.mapArchives();
+        this.cache = options.cache();
+        this.filter = options.filter();
+        this.stats = options.stats();
+    }
+
+    /**
+     * Returns all classes that pass the filter, nested ones included, in root order. As with a class loader, the first
+     * root that contains a class shadows any later copies, which are only analyzed once as a result and listed by
+     * {@link #shadowedClasses()}.
+     */
+    public List<ClassFile> classes() throws IOException {
+        List<ClassFile> classFiles = new ArrayList<>();
+        classes((rootClassFiles, root) -> classFiles.addAll(rootClassFiles));
+        return List.copyOf(classFiles);
+    }
+
+    /**
+     * Hands the classes of each root, as {@link #classes()} returns them, to {@code consumer} as soon as the root is
+     * enumerated, along with its stats, if any. Only the names of the classes seen so far are kept, to shadow later
+     * copies.
+     */
+    public void classes(RootConsumer consumer) throws IOException {
+        Map<String, ClassFile> classFiles = new HashMap<>();
+        Map<String, String> locations = new HashMap<>();
+        shadowedClasses.clear();
+        for (Path root : roots) {
+            // only names have been read so far, so filtered classes cost neither I/O nor parsing, except that
+            // compressed nested archives are inflated to list them; archives are still enumerated in full because the
+            // cache records their complete listing
+            boolean directory = Files.isDirectory(root);
+            long start = System.nanoTime();
+            List<ClassFile> rootClassFiles = read(root);
+            ScanStats.Root rootStats = null;
+            if (stats != null) {
+                rootStats = stats.root(root);
+                stats.enumerated(rootStats, System.nanoTime() - start);
+            }
+            List<ClassFile> scannedClassFiles = new ArrayList<>();
+            for (ClassFile classFile : rootClassFiles) {
+                String resourceName = classFile.getResourceName();
+                if (!filter.test(resourceName)) {
+                    continue;
+                }
+                String location = root + (directory ? "/" : NESTED_SEPARATOR) + classFile.getEntryName();
+                ClassFile shadowing = classFiles.putIfAbsent(resourceName, classFile);
+                if (shadowing == null) {
+                    locations.put(resourceName, location);
+                    scannedClassFiles.add(classFile);
+                } else {
+                    // archives record a CRC per entry, so only copies in directories are read to compare them
+                    shadowedClasses.add(new ShadowedClass(
+                            classFile.getClassName(),
+                            locations.get(resourceName),
+                            location,
+                            shadowing.hasSameContents(classFile)));
+                }
+            }
+            consumer.accept(scannedClassFiles, rootStats);
+        }
+    }
+
+    /** Returns the copies of classes that {@link #classes()} left out because an earlier root has the same class. */
+    public List<ShadowedClass> shadowedClasses() {
+        return List.copyOf(shadowedClasses);
+    }
+
+    private List<ClassFile> read(Path root) throws IOException {
+        if (Files.isDirectory(root)) {
+            return readDirectory(root);
+        }
+        if (cache != null) {
+            List<AnalysisCache.ArchiveEntry> cached = cache.archive(root);
+            if (cached != null) {
+                return readCachedArchive(root, cached);
+            }
+        }
+        List<ClassFile> classFiles = null;
+        if (mapArchives) {
+            try {
+                classFiles = readMappedArchive(root);
+            } catch (ZipException e) {
+                // fall back to ZipFile, which also handles ZIP64 archives
+            }
+        }
+        if (classFiles == null) {
+            classFiles = readArchive(root);
+        }
+        if (cache != null) {
+            cache.recordArchive(root, classFiles);
+        }
+        return classFiles;
+    }
+
+    private static List<ClassFile> readDirectory(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile)
+                    .map(file -> new ClassFile(resourceName(root, file), () -> Files.readAllBytes(file)))
+                    .filter(classFile -> ClassFile.isClassFile(classFile.getResourceName()))
+                    .sorted((left, right) -> left.getResourceName().compareTo(right.getResourceName()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static String resourceName(Path root, Path file) {
+        return root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    private List<ClassFile> readArchive(Path root) throws IOException {
+        ZipFile zipFile = open(root);
+        List<ClassFile> classFiles = new ArrayList<>();
+        for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements(); ) {
+            ZipEntry entry = entries.nextElement();
+            String name = entry.getName();
+            if (entry.isDirectory()) {
+                continue;
+            }
+            if (ClassFile.isClassFile(name)) {
+                classFiles.add(new ClassFile(
+                        classResourceName(name), name, () -> read(zipFile, entry), null, entry.getCrc()));
+            } else if (isNestedArchive(name) && entry.getMethod() == ZipEntry.STORED) {
+                // as in Spring Boot jars: only the central directory is read, and only classes that are read inflated
+                readNestedArchive(openNested(root, name), name + NESTED_SEPARATOR, classFiles);
+            } else if (isNestedArchive(name)) {
+                // a compressed nested archive can only be listed by inflating it, at least not into memory
+                try (InputStream nested = zipFile.getInputStream(entry)) {
+                    listNestedArchive(root, name, nested, classFiles);
+                }
+            }
+        }
+        return classFiles;
+    }
+
+    /**
+     * Lists the classes of a compressed archive nested in {@code root} by streaming through it. Only when one of them
+     * passes the filter is the archive read into memory, to read them from it.
+     */
+    private void listNestedArchive(Path root, String entryName, InputStream in, List<ClassFile> classFiles)
+            throws IOException {
+        String prefix = entryName + NESTED_SEPARATOR;
+        List<ClassFile> filteredClassFiles = new ArrayList<>();
+        ZipInputStream zip = new ZipInputStream(in);
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            String name = entry.getName();
+            if (entry.isDirectory()) {
+                continue;
+            }
+            if (ClassFile.isClassFile(name)) {
+                String resourceName = classResourceName(name);
+                if (filter.test(resourceName)) {
+                    readNestedArchive(openNested(root, entryName), prefix, classFiles);
+                    return;
+                }
+                filteredClassFiles.add(new ClassFile(
+                        resourceName, prefix + name, () -> read(root, prefix + name), null, entry.getCrc()));
+            } else if (isNestedArchive(name)) {
+                // the entry's stream ends with the nested archive, so the outer one is not closed
+                listNestedArchive(root, prefix + name, zip, filteredClassFiles);
+            }
+        }
+        classFiles.addAll(filteredClassFiles);
+    }
+
+    private static List<ClassFile> readMappedArchive(Path root) throws IOException {
+        List<ClassFile> classFiles = new ArrayList<>();
+        readNestedArchive(ZipBuffer.map(root), "", classFiles);
+        return classFiles;
+    }
+
+    // the classes of nested archives are read lazily too: stored ones share the buffer of the outer archive
+    private static void readNestedArchive(ZipBuffer zip, String prefix, List<ClassFile> classFiles) throws IOException {
+        for (ZipBuffer.Entry entry : zip.entries()) {
+            String name = entry.getName();
+            if (ClassFile.isClassFile(name)) {
+                classFiles.add(new ClassFile(
+                        classResourceName(name), prefix + name, () -> zip.read(entry), null, entry.getCrc()));
+            } else if (isNestedArchive(name)) {
+                readNestedArchive(zip.nested(entry), prefix + name + NESTED_SEPARATOR, classFiles);
+            }
+        }
+    }
+
+    private static boolean isNestedArchive(String entryName) {
+        return entryName.endsWith(".jar");
+    }
+
+    // BOOT-INF/classes/com/example/App.class is loaded as com/example/App.class
+    private static String classResourceName(String entryName) {
+        for (String classDirectory : CLASS_DIRECTORIES) {
+            if (entryName.startsWith(classDirectory)) {
+                return entryName.substring(classDirectory.length());
+            }
+        }
+        return entryName;
+    }
+
+    // the archive is only opened if a class is missing from the cache
+    private List<ClassFile> readCachedArchive(Path root, List<AnalysisCache.ArchiveEntry> entries) {
+        List<ClassFile> classFiles = new ArrayList<>(entries.size());
+        for (AnalysisCache.ArchiveEntry entry : entries) {
+            String entryName = entry.getEntryName();
+            classFiles.add(new ClassFile(
+                    entry.getResourceName(),
+                    entryName,
+                    () -> read(root, entryName),
+                    entry.getContentHash(),
+                    entry.getCrc()));
+        }
+        return classFiles;
+    }
+
+    private byte[] read(Path root, String entryName) throws IOException {
+        int separator = entryName.lastIndexOf(NESTED_SEPARATOR);
+        if (separator >= 0) {
+            ZipBuffer zip = openNested(root, entryName.substring(0, separator));
+            ZipBuffer.Entry zipEntry = zip.entry(entryName.substring(separator + 2));
+            if (zipEntry == null) {
+                throw new FileNotFoundException(root + NESTED_SEPARATOR + entryName);
+            }
+            return zip.read(zipEntry);
+        }
+        ZipFile zipFile = open(root);
+        ZipEntry zipEntry = zipFile.getEntry(entryName);
+        if (zipEntry == null) {
+            throw new FileNotFoundException(root + NESTED_SEPARATOR + entryName);
+        }
+        return read(zipFile, zipEntry);
+    }
+
+    /**
+     * Returns an archive nested in {@code root}, e.g. {@code BOOT-INF/lib/client.jar}. A stored one is a slice of the
+     * memory mapped outer archive, so that only the parts that are used are read; others are read into memory once.
+     */
+    private synchronized ZipBuffer openNested(Path root, String entryName) throws IOException {
+        String key = root + NESTED_SEPARATOR + entryName;
+        ZipBuffer zip = nestedArchives.get(key);
+        if (zip == null) {
+            int separator = entryName.lastIndexOf(NESTED_SEPARATOR);
+            if (separator >= 0) {
+                ZipBuffer outer = openNested(root, entryName.substring(0, separator));
+                ZipBuffer.Entry entry = outer.entry(entryName.substring(separator + 2));
+                if (entry == null) {
+                    throw new FileNotFoundException(key);
+                }
+                zip = outer.nested(entry);
+            } else {
+                ZipFile zipFile = open(root);
+                ZipEntry entry = zipFile.getEntry(entryName);
+                if (entry == null) {
+                    throw new FileNotFoundException(key);
+                }
+                if (entry.getMethod() == ZipEntry.STORED) {
+                    zip = mappedNested(root, entryName);
+                }
+                if (zip == null) {
+                    zip = new ZipBuffer(ByteBuffer.wrap(read(zipFile, entry)));
+                }
+            }
+            nestedArchives.put(key, zip);
+        }
+        return zip;
+    }
+
+    @Nullable
+    private ZipBuffer mappedNested(Path root, String entryName) throws IOException {
+        ZipBuffer outer = mappedArchives.get(root);
+        try {
+            if (outer == null) {
+                outer = ZipBuffer.map(root);
+                mappedArchives.put(root, outer);
+            }
+            ZipBuffer.Entry entry = outer.entry(entryName);
+            return entry == null ? null : outer.nested(entry);
+        } catch (ZipException e) {
+            // e.g. a ZIP64 archive, which only ZipFile reads
+            return null;
+        }
+    }
+
+    private synchronized ZipFile open(Path archive) throws IOException {
+        ZipFile zipFile = openArchives.get(archive);
+        if (zipFile == null) {
+            zipFile = new ZipFile(archive.toFile());
+            openArchives.put(archive, zipFile);
+        }
+        return zipFile;
+    }
+
+    private static byte[] read(ZipFile zipFile, ZipEntry entry) throws IOException {
+        try (InputStream stream = zipFile.getInputStream(entry)) {
+            return stream.readAllBytes();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (ZipFile archive : openArchives.values()) {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        openArchives.clear();
+        mappedArchives.clear();
+        nestedArchives.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
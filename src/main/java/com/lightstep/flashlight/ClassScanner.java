@@ -1,54 +1,248 @@
 package com.lightstep.flashlight;
 
-import com.google.common.reflect.ClassPath;
+import com.google.common.hash.HashCode;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 class ClassScanner {
-    private final List<URL> targetPaths;
+    private final List<Path> targetPaths;
+    private final ScanOptions options;
+    private final int threads;
+    private final AnalysisCache cache;
+    private final Rules rules;
+    private final ScanStats stats;
+    private volatile List<ClassPathReader.ShadowedClass> shadowedClasses = List.of();
 
-    public ClassScanner(Collection<File> targetPaths) {
+    public ClassScanner(Collection<File> targetPaths, ScanOptions options) {
+        this.options = options;
+        this.threads = options.threads();
+        this.cache = options.cache();
+        this.rules = options.rules();
+        this.stats = options.stats();
         this.targetPaths = targetPaths.stream()
                 .peek(file -> {
                     if (!file.exists()) {
                         throw new IllegalArgumentException(new FileNotFoundException(file.getAbsolutePath()));
                     }
                 })
-                .map(File::toURI)
-                .map(uri -> {
-                    try {
-                        return uri.toURL();
-                    } catch (MalformedURLException e) {
-                        throw new IllegalArgumentException(e);
-                    }
-                })
+                .map(File::toPath)
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Analyzes every class on the target paths. When more than one thread is configured the classes are
+     * analyzed on a work-stealing pool; the result is always in classpath enumeration order.
+     */
     public List<AnalyzedClass> scan() throws IOException {
-        try (URLClassLoader classLoader = new URLClassLoader(targetPaths.toArray(new URL[0]), null)) {
+        try (ClassPathReader reader = new ClassPathReader(targetPaths, options)) {
             List<AnalyzedClass> analyzedClasses = new ArrayList<>();
-
-            for (ClassPath.ClassInfo info : ClassPath.from(classLoader).getTopLevelClasses()) {
-                //        System.out.println(info.getName());
-                try (InputStream resource = classLoader.getResourceAsStream(info.getResourceName())) {
-                    AnalyzedClass analyzedClass =
-                            new AnalyzingClassVisitor(info.getName()).analyze(Objects.requireNonNull(resource));
-                    analyzedClasses.add(analyzedClass);
+            if (threads == 1) {
+                reader.classes((classes, root) -> {
+                    for (ClassFile classFile : classes) {
+                        analyzedClasses.add(analyze(classFile, root));
+                    }
+                });
+            } else {
+                // each root is analyzed while the next one is enumerated
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    List<Future<List<AnalyzedClass>>> roots = new ArrayList<>();
+                    reader.classes((classes, root) -> roots.add(pool.submit(() -> classes.parallelStream()
+                            .map(classFile -> analyzeUnchecked(classFile, root))
+                            .collect(Collectors.toList()))));
+                    for (Future<List<AnalyzedClass>> root : roots) {
+                        analyzedClasses.addAll(await(root));
+                    }
+                } finally {
+                    pool.shutdown();
                 }
             }
+            shadowedClasses = reader.shadowedClasses();
             return analyzedClasses;
         }
     }
+
+    /** Analyzes {@code classes} like {@link #scan()} does, for callers that enumerate class files themselves. */
+    public List<AnalyzedClass> analyze(List<ClassFile> classes) throws IOException {
+        if (threads == 1 || classes.size() < 2) {
+            List<AnalyzedClass> analyzedClasses = new ArrayList<>(classes.size());
+            for (ClassFile classFile : classes) {
+                analyzedClasses.add(analyze(classFile, null));
+            }
+            return analyzedClasses;
+        }
+        return inPool(() -> classes.parallelStream()
+                .map(classFile -> analyzeUnchecked(classFile, null))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Analyzes every class on the target paths and hands each result to {@code consumer} as soon as it is
+     * available, without retaining it. With more than one thread the consumer is called concurrently and in no
+     * particular order. Only the classes of the root being analyzed and of the next one are held, plus the names of
+     * the classes seen so far, which shadow later copies.
+     */
+    public void scan(Consumer<AnalyzedClass> consumer) throws IOException {
+        try (ClassPathReader reader = new ClassPathReader(targetPaths, options)) {
+            if (threads == 1) {
+                reader.classes((classes, root) -> {
+                    for (ClassFile classFile : classes) {
+                        consumer.accept(analyze(classFile, root));
+                    }
+                });
+            } else {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    List<Future<?>> previous = new ArrayList<>(1);
+                    reader.classes((classes, root) -> {
+                        Future<?> analysis = pool.submit(() -> classes.parallelStream()
+                                .map(classFile -> analyzeUnchecked(classFile, root))
+                                .forEach(consumer));
+                        // the root after this one is only enumerated once the previous one has been analyzed
+                        for (Future<?> done : previous) {
+                            await(done);
+                        }
+                        previous.clear();
+                        previous.add(analysis);
+                    });
+                    for (Future<?> done : previous) {
+                        await(done);
+                    }
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            shadowedClasses = reader.shadowedClasses();
+        }
+    }
+
+    /**
+     * Reads the class files of {@code classNames}, the copies that a scan analyzes, keyed by resource name in class
+     * path order. Other classes are neither read nor analyzed.
+     */
+    public Map<String, byte[]> read(Set<String> classNames) throws IOException {
+        try (ClassPathReader reader = new ClassPathReader(targetPaths, options.withStats(null))) {
+            Map<String, byte[]> classFiles = new LinkedHashMap<>();
+            for (ClassFile classFile : reader.classes()) {
+                if (classNames.contains(classFile.getClassName())) {
+                    classFiles.put(classFile.getResourceName(), classFile.read());
+                }
+            }
+            return classFiles;
+        }
+    }
+
+    /** Returns the duplicate classes that the last scan left out, see {@link ClassPathReader#classes()}. */
+    public List<ClassPathReader.ShadowedClass> shadowedClasses() {
+        return shadowedClasses;
+    }
+
+    private <T> T inPool(Callable<T> task) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return await(pool.submit(task));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static <T> T await(Future<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private AnalyzedClass analyzeUnchecked(ClassFile classFile, @Nullable ScanStats.Root root) {
+        try {
+            return analyze(classFile, root);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private AnalyzedClass analyze(ClassFile classFile, @Nullable ScanStats.Root root) throws IOException {
+        long start = stats == null ? 0 : System.nanoTime();
+        AnalyzedClass analyzedClass = null;
+        byte[] bytes = null;
+        HashCode contentHash = null;
+        if (cache != null) {
+            contentHash = classFile.getContentHash();
+            long crc = classFile.getRecordedCrc();
+            if (contentHash == null && crc >= 0) {
+                contentHash = cache.archivedHash(classFile.getResourceName(), crc);
+            }
+            if (contentHash == null) {
+                bytes = read(classFile);
+                contentHash = AnalysisCache.hash(bytes);
+                if (crc >= 0) {
+                    cache.putArchivedHash(classFile.getResourceName(), crc, contentHash);
+                }
+            }
+            classFile.setContentHash(contentHash);
+            analyzedClass = cache.get(contentHash, classFile.getClassName());
+        }
+        boolean cached = analyzedClass != null;
+        if (!cached) {
+            if (bytes == null) {
+                bytes = read(classFile);
+            }
+            analyzedClass = parse(classFile, bytes);
+            if (cache != null) {
+                cache.put(contentHash, analyzedClass);
+            }
+        }
+        if (stats != null) {
+            stats.analyzed(classFile, root, System.nanoTime() - start, cached);
+        }
+        return analyzedClass;
+    }
+
+    private byte[] read(ClassFile classFile) throws IOException {
+        if (stats == null) {
+            return classFile.read();
+        }
+        long start = System.nanoTime();
+        byte[] bytes = classFile.read();
+        stats.read(bytes.length, System.nanoTime() - start);
+        return bytes;
+    }
+
+    private AnalyzedClass parse(ClassFile classFile, byte[] bytes) {
+        if (stats == null) {
+            return new AnalyzingClassVisitor(classFile.getClassName(), rules).analyze(bytes);
+        }
+        long start = System.nanoTime();
+        AnalyzedClass analyzedClass = new AnalyzingClassVisitor(classFile.getClassName(), rules).analyze(bytes);
+        stats.parsed(System.nanoTime() - start);
+        return analyzedClass;
+    }
 }
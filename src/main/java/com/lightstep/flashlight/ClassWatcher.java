@@ -0,0 +1,232 @@
+package com.lightstep.flashlight;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Keeps the selected methods of a classpath up to date while the class files in its directories change. After one
+ * full scan only the class files that were created, modified or deleted are analyzed again, and the selection of each
+ * of their classes is replaced in place. Jars are scanned once.
+ *
+ * <p>Compilers write files in bursts, so changes are collected until the directories have been quiet for
+ * {@link #QUIET_PERIOD_MILLIS}. If the watch service drops events the whole classpath is scanned again.
+ */
+class ClassWatcher implements Closeable {
+    private static final long QUIET_PERIOD_MILLIS = 100;
+
+    private final List<Path> directories;
+    private final ClassScanner scanner;
+    private final MethodSelection selection;
+    private final ClassFilter filter;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    // the class files seen in the directories, to find the classes of a deleted directory
+    private final Set<Path> classFiles = new LinkedHashSet<>();
+    private final SortedMap<String, SortedSet<String>> methods = new TreeMap<>();
+
+    /** {@code scanner} must scan {@code paths} with {@code filter}. */
+    ClassWatcher(Collection<Path> paths, ClassScanner scanner, MethodSelection selection, ClassFilter filter)
+            throws IOException {
+        this.directories = paths.stream()
+                .filter(Files::isDirectory)
+                .map(path -> path.toAbsolutePath().normalize())
+                .collect(Collectors.toList());
+        this.scanner = scanner;
+        this.selection = selection;
+        this.filter = filter;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /** Starts watching the directories and scans the whole classpath. */
+    public void start() throws IOException {
+        for (Path directory : directories) {
+            register(directory);
+        }
+        for (AnalyzedClass analyzedClass : scanner.scan()) {
+            update(analyzedClass.getClassName(), selection.select(analyzedClass).keySet(), null);
+        }
+    }
+
+    public int directoryCount() {
+        return directories.size();
+    }
+
+    /** Returns the selected methods of each class, as of the last scan. */
+    public SortedMap<String, SortedSet<String>> methods() {
+        return Collections.unmodifiableSortedMap(methods);
+    }
+
+    /**
+     * Waits until class files change, analyzes them and returns how the selected methods changed, each as {@code
+     * +class.method} or {@code -class.method}. The list is empty if the selection stayed the same.
+     */
+    public List<String> awaitChanges() throws IOException, InterruptedException {
+        Set<Path> changedFiles = new LinkedHashSet<>();
+        boolean overflow = false;
+        WatchKey key = watchService.take();
+        while (key != null) {
+            Path directory = watchedDirectories.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    overflow = true;
+                    continue;
+                }
+                Path file = directory.resolve((Path) event.context());
+                if (event.kind() == ENTRY_CREATE && Files.isDirectory(file)) {
+                    // files written before the directory was registered have no events of their own
+                    changedFiles.addAll(register(file));
+                } else if (file.getFileName().toString().endsWith(".class")) {
+                    changedFiles.add(file);
+                }
+            }
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+                for (Path classFile : classFiles) {
+                    if (classFile.startsWith(directory)) {
+                        changedFiles.add(classFile);
+                    }
+                }
+            }
+            key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        List<String> changes = new ArrayList<>();
+        if (overflow) {
+            rescan(changes);
+        } else {
+            reanalyze(changedFiles, changes);
+        }
+        return changes;
+    }
+
+    private void reanalyze(Set<Path> changedFiles, List<String> changes) {
+        List<ClassFile> existing = new ArrayList<>();
+        for (Path file : changedFiles) {
+            Path root = root(file);
+            if (root == null) {
+                continue;
+            }
+            String resourceName = root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+            if (!ClassFile.isClassFile(resourceName) || !filter.test(resourceName)) {
+                continue;
+            }
+            ClassFile classFile = new ClassFile(resourceName, () -> Files.readAllBytes(file));
+            if (Files.isRegularFile(file)) {
+                classFiles.add(file);
+                existing.add(classFile);
+            } else {
+                classFiles.remove(file);
+                update(classFile.getClassName(), Set.of(), changes);
+            }
+        }
+        List<AnalyzedClass> analyzedClasses;
+        try {
+            analyzedClasses = scanner.analyze(existing);
+        } catch (IOException | RuntimeException e) {
+            analyzedClasses = new ArrayList<>(existing.size());
+            for (ClassFile classFile : existing) {
+                try {
+                    analyzedClasses.addAll(scanner.analyze(List.of(classFile)));
+                } catch (IOException | RuntimeException skipped) {
+                    // deleted or still being written: the compiler's next write of the file is another change
+                }
+            }
+        }
+        for (AnalyzedClass analyzedClass : analyzedClasses) {
+            update(analyzedClass.getClassName(), selection.select(analyzedClass).keySet(), changes);
+        }
+    }
+
+    private void rescan(List<String> changes) throws IOException {
+        SortedMap<String, Set<String>> scanned = new TreeMap<>();
+        for (AnalyzedClass analyzedClass : scanner.scan()) {
+            scanned.put(analyzedClass.getClassName(), selection.select(analyzedClass).keySet());
+        }
+        for (String className : List.copyOf(methods.keySet())) {
+            if (!scanned.containsKey(className)) {
+                update(className, Set.of(), changes);
+            }
+        }
+        scanned.forEach((className, methodNames) -> update(className, methodNames, changes));
+    }
+
+    private void update(String className, Set<String> selected, @Nullable List<String> changes) {
+        SortedSet<String> previous = selected.isEmpty()
+                ? methods.remove(className)
+                : methods.put(className, new TreeSet<>(selected));
+        if (changes == null) {
+            return;
+        }
+        if (previous != null) {
+            for (String methodName : previous) {
+                if (!selected.contains(methodName)) {
+                    changes.add("-" + className + "." + methodName);
+                }
+            }
+        }
+        for (String methodName : new TreeSet<>(selected)) {
+            if (previous == null || !previous.contains(methodName)) {
+                changes.add("+" + className + "." + methodName);
+            }
+        }
+    }
+
+    // registers a directory and its subdirectories, returning the class files in them
+    private List<Path> register(Path directory) throws IOException {
+        List<Path> found = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isDirectory(file)) {
+                    WatchKey key = file.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                    watchedDirectories.put(key, file);
+                } else if (file.getFileName().toString().endsWith(".class")) {
+                    classFiles.add(file);
+                    found.add(file);
+                }
+            }
+        }
+        return found;
+    }
+
+    @Nullable
+    private Path root(Path file) {
+        for (Path directory : directories) {
+            if (file.startsWith(directory)) {
+                return directory;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
@@ -0,0 +1,267 @@
+package com.lightstep.flashlight;
+
+import org.objectweb.asm.Label;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Control flow graph of a single method, recorded while its instructions are visited and analyzed once the method
+ * ends. Instructions are identified by their position in visiting order. Basic blocks start at labels and after
+ * jumps, returns and throws; exception handlers are successors of every block they cover.
+ *
+ * <p>Loops are the natural loops of back edges, jumps or fall-throughs to a block that dominates their source. javac
+ * only emits reducible control flow, so every loop has a single header. Exceptional edges are never back edges: the
+ * handler that javac emits to release the monitor of a {@code synchronized} block covers itself, which is not a loop.
+ */
+class ControlFlowGraph {
+    private static final int[] NO_BLOCKS = new int[0];
+
+    private static class Jump {
+        private final int position;
+        private final boolean fallsThrough;
+        private final Label[] targets;
+
+        Jump(int position, boolean fallsThrough, Label[] targets) {
+            this.position = position;
+            this.fallsThrough = fallsThrough;
+            this.targets = targets;
+        }
+    }
+
+    private final Map<Label, Integer> labelPositions = new HashMap<>();
+    private final Map<Integer, Jump> jumps = new HashMap<>();
+    private final BitSet exits = new BitSet();
+    private final List<Label[]> handlers = new ArrayList<>();
+
+    private int[] blockStarts = NO_BLOCKS;
+    private int[] blockDepths = NO_BLOCKS;
+    private int cyclomaticComplexity = 1;
+
+    void label(Label label, int position) {
+        labelPositions.put(label, position);
+    }
+
+    /** Records a jump at {@code position}; {@code fallsThrough} if it may also continue with the next instruction. */
+    void jump(int position, boolean fallsThrough, Label... targets) {
+        jumps.put(position, new Jump(position, fallsThrough, targets));
+    }
+
+    /** Records a return or throw at {@code position}. */
+    void exit(int position) {
+        exits.set(position);
+    }
+
+    void tryCatch(Label start, Label end, Label handler) {
+        handlers.add(new Label[] {start, end, handler});
+    }
+
+    /** Builds the graph and finds its loops; call once, after the last instruction. */
+    void analyze(int instructionCount) {
+        if (instructionCount == 0) {
+            return;
+        }
+        BitSet leaders = new BitSet(instructionCount + 1);
+        leaders.set(0);
+        labelPositions.values().forEach(leaders::set);
+        jumps.keySet().forEach(position -> leaders.set(position + 1));
+        exits.stream().forEach(position -> leaders.set(position + 1));
+        blockStarts = leaders.stream().filter(position -> position < instructionCount).toArray();
+        int blockCount = blockStarts.length;
+
+        int[][] successors = new int[blockCount][];
+        Set<Integer> handlerBlocks = new HashSet<>();
+        List<Set<Integer>> exceptional = new ArrayList<>(blockCount);
+        for (int block = 0; block < blockCount; block++) {
+            int last = (block + 1 < blockCount ? blockStarts[block + 1] : instructionCount) - 1;
+            Set<Integer> normal = new HashSet<>();
+            Jump jump = jumps.get(last);
+            if (jump != null) {
+                for (Label target : jump.targets) {
+                    normal.add(block(labelPositions.get(target)));
+                }
+            }
+            if ((jump == null || jump.fallsThrough) && !exits.get(last) && block + 1 < blockCount) {
+                normal.add(block + 1);
+            }
+            successors[block] = normal.stream().mapToInt(Integer::intValue).toArray();
+            if (successors[block].length > 1) {
+                cyclomaticComplexity += successors[block].length - 1;
+            }
+            exceptional.add(new HashSet<>());
+        }
+        for (Label[] handler : handlers) {
+            int start = labelPositions.get(handler[0]);
+            int end = labelPositions.get(handler[1]);
+            int handlerBlock = block(labelPositions.get(handler[2]));
+            handlerBlocks.add(handlerBlock);
+            for (int block = block(start); block < blockCount && blockStarts[block] < end; block++) {
+                exceptional.get(block).add(handlerBlock);
+            }
+        }
+        cyclomaticComplexity += handlerBlocks.size();
+
+        int[][] allSuccessors = new int[blockCount][];
+        for (int block = 0; block < blockCount; block++) {
+            Set<Integer> all = new HashSet<>(exceptional.get(block));
+            for (int successor : successors[block]) {
+                all.add(successor);
+            }
+            allSuccessors[block] = all.stream().mapToInt(Integer::intValue).sorted().toArray();
+        }
+        findLoops(allSuccessors, successors);
+    }
+
+    private void findLoops(int[][] successors, int[][] normalSuccessors) {
+        int blockCount = successors.length;
+        int[] order = reversePostOrder(successors);
+        int[] orderIndex = new int[blockCount];
+        Arrays.fill(orderIndex, -1);
+        for (int i = 0; i < order.length; i++) {
+            orderIndex[order[i]] = i;
+        }
+        List<List<Integer>> predecessors = new ArrayList<>(blockCount);
+        for (int block = 0; block < blockCount; block++) {
+            predecessors.add(new ArrayList<>());
+        }
+        for (int block : order) {
+            for (int successor : successors[block]) {
+                predecessors.get(successor).add(block);
+            }
+        }
+
+        // Cooper, Harvey and Kennedy: "A Simple, Fast Dominance Algorithm"
+        int[] dominators = new int[blockCount];
+        Arrays.fill(dominators, -1);
+        dominators[order[0]] = order[0];
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (int i = 1; i < order.length; i++) {
+                int block = order[i];
+                int dominator = -1;
+                for (int predecessor : predecessors.get(block)) {
+                    if (dominators[predecessor] != -1) {
+                        dominator = dominator == -1
+                                ? predecessor
+                                : intersect(dominators, orderIndex, predecessor, dominator);
+                    }
+                }
+                if (dominators[block] != dominator) {
+                    dominators[block] = dominator;
+                    changed = true;
+                }
+            }
+        }
+
+        Map<Integer, BitSet> loopBodies = new HashMap<>();
+        for (int source : order) {
+            for (int header : normalSuccessors[source]) {
+                if (dominates(dominators, header, source)) {
+                    BitSet body = loopBodies.computeIfAbsent(header, key -> new BitSet(blockCount));
+                    body.set(header);
+                    List<Integer> pending = new ArrayList<>();
+                    pending.add(source);
+                    while (!pending.isEmpty()) {
+                        int block = pending.remove(pending.size() - 1);
+                        if (!body.get(block)) {
+                            body.set(block);
+                            pending.addAll(predecessors.get(block));
+                        }
+                    }
+                }
+            }
+        }
+        blockDepths = new int[blockCount];
+        for (BitSet body : loopBodies.values()) {
+            body.stream().forEach(block -> blockDepths[block]++);
+        }
+    }
+
+    private static int[] reversePostOrder(int[][] successors) {
+        int blockCount = successors.length;
+        int[] postOrder = new int[blockCount];
+        int postOrderSize = 0;
+        boolean[] visited = new boolean[blockCount];
+        int[] stack = new int[blockCount];
+        int[] nextSuccessor = new int[blockCount];
+        int depth = 0;
+        stack[0] = 0;
+        visited[0] = true;
+        while (depth >= 0) {
+            int block = stack[depth];
+            if (nextSuccessor[depth] < successors[block].length) {
+                int successor = successors[block][nextSuccessor[depth]++];
+                if (!visited[successor]) {
+                    visited[successor] = true;
+                    stack[++depth] = successor;
+                    nextSuccessor[depth] = 0;
+                }
+            } else {
+                postOrder[postOrderSize++] = block;
+                depth--;
+            }
+        }
+        int[] order = new int[postOrderSize];
+        for (int i = 0; i < postOrderSize; i++) {
+            order[i] = postOrder[postOrderSize - 1 - i];
+        }
+        return order;
+    }
+
+    private static int intersect(int[] dominators, int[] orderIndex, int left, int right) {
+        while (left != right) {
+            while (orderIndex[left] > orderIndex[right]) {
+                left = dominators[left];
+            }
+            while (orderIndex[right] > orderIndex[left]) {
+                right = dominators[right];
+            }
+        }
+        return left;
+    }
+
+    private static boolean dominates(int[] dominators, int dominator, int block) {
+        if (dominators[block] == -1) {
+            return false;
+        }
+        while (true) {
+            if (block == dominator) {
+                return true;
+            }
+            if (dominators[block] == block) {
+                return false;
+            }
+            block = dominators[block];
+        }
+    }
+
+    private int block(int position) {
+        int block = Arrays.binarySearch(blockStarts, position);
+        return block >= 0 ? block : -block - 2;
+    }
+
+    /** Returns the number of loops enclosing the instruction at {@code position}. */
+    public int loopDepth(int position) {
+        return blockDepths.length == 0 ? 0 : blockDepths[block(position)];
+    }
+
+    /** Returns the maximum loop nesting depth of the method, 0 if it has no loops. */
+    public int loopDepth() {
+        int depth = 0;
+        for (int blockDepth : blockDepths) {
+            depth = Math.max(depth, blockDepth);
+        }
+        return depth;
+    }
+
+    /** Returns the number of decisions plus one: every extra successor of a block and every exception handler. */
+    public int cyclomaticComplexity() {
+        return cyclomaticComplexity;
+    }
+}
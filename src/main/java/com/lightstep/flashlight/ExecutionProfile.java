@@ -0,0 +1,110 @@
+package com.lightstep.flashlight;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * CPU samples per method, aggregated from the {@code jdk.ExecutionSample} events of a JFR recording. Methods are keyed
+ * by class and method name, so overloads share their samples like they share their instrumentation.
+ *
+ * <p>The total weight of a method is the share of samples that have it anywhere on the stack, the self weight the share
+ * of samples that have it on top. A hot method that is mostly on top of the stack is a CPU bound leaf, usually called
+ * in a tight loop, where a span per call would cost more than the call itself.
+ */
+class ExecutionProfile {
+    private static final String EXECUTION_SAMPLE = "jdk.ExecutionSample";
+    private static final double LEAF_SELF_RATIO = 0.8;
+
+    private static class Samples {
+        long self;
+        long total;
+    }
+
+    private final Map<String, Samples> samples = new HashMap<>();
+    private final double hotThreshold;
+    private long sampleCount;
+
+    /** {@code hotThreshold} is the share of all samples, between 0 and 1, from which on a method is hot. */
+    ExecutionProfile(double hotThreshold) {
+        this.hotThreshold = hotThreshold;
+    }
+
+    static ExecutionProfile read(Path recording, double hotThreshold) throws IOException {
+        ExecutionProfile profile = new ExecutionProfile(hotThreshold);
+        try (RecordingFile file = new RecordingFile(recording)) {
+            List<String> methods = new ArrayList<>();
+            while (file.hasMoreEvents()) {
+                RecordedEvent event = file.readEvent();
+                RecordedStackTrace stackTrace = event.getStackTrace();
+                if (!event.getEventType().getName().equals(EXECUTION_SAMPLE) || stackTrace == null) {
+                    continue;
+                }
+                methods.clear();
+                for (RecordedFrame frame : stackTrace.getFrames()) {
+                    if (frame.isJavaFrame()) {
+                        methods.add(key(frame.getMethod().getType().getName(), frame.getMethod().getName()));
+                    }
+                }
+                profile.addSample(methods);
+            }
+        }
+        return profile;
+    }
+
+    private static String key(String className, String methodName) {
+        return className + '.' + methodName;
+    }
+
+    /** Adds one sample; {@code methods} is its stack, top frame first, each as {@code className.methodName}. */
+    void addSample(List<String> methods) {
+        sampleCount++;
+        if (methods.isEmpty()) {
+            return;
+        }
+        samples.computeIfAbsent(methods.get(0), key -> new Samples()).self++;
+        // recursive methods count once per sample
+        Set<String> seen = new HashSet<>();
+        for (String method : methods) {
+            if (seen.add(method)) {
+                samples.computeIfAbsent(method, key -> new Samples()).total++;
+            }
+        }
+    }
+
+    public long sampleCount() {
+        return sampleCount;
+    }
+
+    /** Returns the share of samples with the method anywhere on the stack. */
+    public double weight(String className, String methodName) {
+        Samples method = samples.get(key(className, methodName));
+        return method == null ? 0 : (double) method.total / sampleCount;
+    }
+
+    /** Returns the share of samples with the method on top of the stack. */
+    public double selfWeight(String className, String methodName) {
+        Samples method = samples.get(key(className, methodName));
+        return method == null ? 0 : (double) method.self / sampleCount;
+    }
+
+    public boolean isHot(String className, String methodName) {
+        return sampleCount > 0 && weight(className, methodName) >= hotThreshold;
+    }
+
+    /** Returns whether the method is hot and spends most of its samples in its own code. */
+    public boolean isTooCostlyToSpan(String className, String methodName) {
+        return isHot(className, methodName)
+                && selfWeight(className, methodName) >= LEAF_SELF_RATIO * weight(className, methodName);
+    }
+}
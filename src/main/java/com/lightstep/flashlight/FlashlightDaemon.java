@@ -0,0 +1,208 @@
+package com.lightstep.flashlight;
+
+import com.google.common.hash.HashCode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the scans of {@code --connect} clients in a warm JVM. The analysis results of each scan are kept in memory, per
+ * rules fingerprint, so the next scan only analyzes the classes and jars that changed.
+ *
+ * <p>The daemon listens on the loopback interface only and serves one request at a time; a client has five seconds
+ * to send its request. A request is a token, the client's working directory and its arguments; the response is the
+ * exit code followed by everything the scan printed to standard output and standard error, so the daemon does not
+ * run {@code --watch} or {@code --stream}. Scans can write files, so the daemon only runs them for clients that can
+ * read its token, a random secret in a file that only the daemon's user can read. A client that goes away or sends a
+ * broken request does not stop the daemon.
+ */
+class FlashlightDaemon implements Closeable {
+    static final Path DEFAULT_TOKEN_DIRECTORY = Path.of(System.getProperty("user.home"), ".cache", "flashlight");
+    // a client that connects and sends nothing must not hold up the clients after it
+    static final int REQUEST_TIMEOUT_MILLIS = 5_000;
+    private static final int MAX_ARGUMENTS = 10_000;
+    private static final int REJECTED = 2;
+
+    private final ServerSocket serverSocket;
+    private final Path tokenFile;
+    private final byte[] token;
+    private final Map<HashCode, AnalysisCache> caches = new HashMap<>();
+
+    /** Listens on {@code port} of the loopback interface, or on a free port if it is 0. */
+    FlashlightDaemon(int port) throws IOException {
+        this(port, DEFAULT_TOKEN_DIRECTORY);
+    }
+
+    /** Writes the token of the daemon to a file in {@code tokenDirectory}, where clients must find it. */
+    FlashlightDaemon(int port, Path tokenDirectory) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        token = HashCode.fromBytes(secret).toString().getBytes(StandardCharsets.UTF_8);
+        tokenFile = tokenFile(tokenDirectory, getPort());
+        try {
+            Files.createDirectories(tokenDirectory);
+            Files.deleteIfExists(tokenFile);
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(
+                        PosixFilePermissions.fromString("rw-------")));
+            } else {
+                Files.createFile(tokenFile);
+            }
+            Files.write(tokenFile, token);
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+    }
+
+    private static Path tokenFile(Path tokenDirectory, int port) {
+        return tokenDirectory.resolve("daemon-" + port + ".token");
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** Returns the in-memory cache for scans with the rules of {@code rulesFingerprint}. */
+    AnalysisCache cache(HashCode rulesFingerprint) {
+        return caches.computeIfAbsent(rulesFingerprint, AnalysisCache::inMemory);
+    }
+
+    /** Answers requests until the daemon is closed. */
+    public void serve() throws IOException {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                continue;
+            }
+            try (socket) {
+                socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+                answer(socket);
+            } catch (IOException | RuntimeException e) {
+                // the client went away or sent a broken request, the next one is served as usual
+            }
+        }
+    }
+
+    private void answer(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        byte[] clientToken = in.readUTF().getBytes(StandardCharsets.UTF_8);
+        if (!MessageDigest.isEqual(token, clientToken)) {
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            err.writeBytes(String.format("Invalid token for the Flashlight daemon on port %d%n", getPort())
+                    .getBytes(StandardCharsets.UTF_8));
+            respond(socket, REJECTED, new ByteArrayOutputStream(), err);
+            return;
+        }
+        Path workingDirectory = Path.of(in.readUTF());
+        int argCount = in.readInt();
+        if (argCount < 0 || argCount > MAX_ARGUMENTS) {
+            throw new IOException("Invalid argument count: " + argCount);
+        }
+        String[] args = new String[argCount];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+        // the scan may take longer than the request, but it does not read from the socket
+        socket.setSoTimeout(0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int exitCode;
+        try (PrintStream outStream = new PrintStream(out, false, StandardCharsets.UTF_8);
+                PrintStream errStream = new PrintStream(err, false, StandardCharsets.UTF_8)) {
+            exitCode = FlashlightMain.execute(this, workingDirectory, outStream, errStream, args);
+        }
+        respond(socket, exitCode, out, err);
+    }
+
+    private static void respond(Socket socket, int exitCode, ByteArrayOutputStream out, ByteArrayOutputStream err)
+            throws IOException {
+        DataOutputStream response = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        response.writeInt(exitCode);
+        writeBytes(response, out);
+        writeBytes(response, err);
+        response.flush();
+    }
+
+    private static void writeBytes(DataOutputStream response, ByteArrayOutputStream bytes) throws IOException {
+        response.writeInt(bytes.size());
+        bytes.writeTo(response);
+    }
+
+    /**
+     * Runs a scan with {@code args} in the daemon listening on {@code port} and copies its output to {@code out} and
+     * {@code err}. Returns the exit code of the scan.
+     */
+    static int connect(int port, Path workingDirectory, List<String> args, PrintStream out, PrintStream err)
+            throws IOException {
+        return connect(port, DEFAULT_TOKEN_DIRECTORY, workingDirectory, args, out, err);
+    }
+
+    /**
+     * Like {@link #connect(int, Path, List, PrintStream, PrintStream)}, for a daemon that wrote its token to
+     * {@code tokenDirectory}. Throws {@link java.net.ConnectException} if no daemon listens on {@code port} and
+     * {@link java.nio.file.NoSuchFileException} if its token is missing.
+     */
+    static int connect(
+            int port, Path tokenDirectory, Path workingDirectory, List<String> args, PrintStream out, PrintStream err)
+            throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            String token = Files.readString(tokenFile(tokenDirectory, port), StandardCharsets.UTF_8);
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            request.writeUTF(token);
+            request.writeUTF(workingDirectory.toAbsolutePath().toString());
+            request.writeInt(args.size());
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+
+            DataInputStream response = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            int exitCode = response.readInt();
+            out.write(readBytes(response));
+            out.flush();
+            err.write(readBytes(response));
+            err.flush();
+            return exitCode;
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream response) throws IOException {
+        byte[] bytes = new byte[response.readInt()];
+        response.readFully(bytes);
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        Files.deleteIfExists(tokenFile);
+    }
+}
@@ -1,18 +1,24 @@
 package com.lightstep.flashlight;
 
-import com.google.common.collect.Sets;
 import picocli.CommandLine;
 
+import javax.annotation.Nullable;
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
 
-import static java.util.Map.entry;
-import static java.util.stream.Collectors.toList;
-
 @CommandLine.Command(
         name = "java -jar flashlight.jar",
         mixinStandardHelpOptions = true,
@@ -23,8 +29,24 @@ import static java.util.stream.Collectors.toList;
                         + " Maven:  java -jar flashlight.jar **/target/classes/\n")
 public class FlashlightMain implements Callable<Integer> {
 
-    private static final MethodNameFilter EXCLUDED_METHODS =
-            new MethodNameFilter("<init>", "<clinit>", "toString", "hashCode", "equals");
+    private static final int MAX_BUFFERED_CLASSES = 10_000;
+
+    enum StreamFormat {
+        INCLUDE,
+        NDJSON
+    }
+
+    enum StatsFormat {
+        TEXT,
+        JSON,
+        PROMETHEUS
+    }
+
+    private final FlashlightDaemon daemon;
+    private final Path workingDirectory;
+    private final PrintStream out;
+    private final PrintStream err;
+    private ScanStats stats;
 
     @CommandLine.Spec
     CommandLine.Model.CommandSpec spec; // injected by picocli
@@ -32,19 +54,171 @@ public class FlashlightMain implements Callable<Integer> {
     @CommandLine.Option(
             names = {"-c", "--call"},
             paramLabel = "NUMBER",
-            description = "number of method call instructions considered interesting (default: ${DEFAULT-VALUE})")
-    int methodInstructionCountThreshold = 10;
+            description = "number of method call instructions considered interesting (default: from the rules, 10)")
+    Integer methodInstructionCountThreshold;
 
     @CommandLine.Option(
             names = {"-b", "--branch"},
             paramLabel = "NUMBER",
             description =
-                    "number of branch (if/while/for) instructions considered interesting (default: ${DEFAULT-VALUE})")
-    int branchInstructionCountThreshold = 5;
+                    "number of branch (if/while/for) instructions considered interesting (default: from the rules, 5)")
+    Integer branchInstructionCountThreshold;
+
+    @CommandLine.Option(
+            names = {"-t", "--threads"},
+            paramLabel = "NUMBER",
+            description = "number of threads used to analyze classes (default: ${DEFAULT-VALUE})")
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    @CommandLine.Option(
+            names = {"--mmap"},
+            description = "memory map jar files instead of reading them through java.util.zip")
+    boolean mapArchives;
+
+    @CommandLine.Option(
+            names = {"--cache-dir"},
+            paramLabel = "DIR",
+            arity = "0..1",
+            fallbackValue = "${sys:user.home}/.cache/flashlight",
+            description = "reuse analysis results of unchanged classes and jars stored in DIR"
+                    + " (default when DIR is omitted: ${FALLBACK-VALUE})")
+    File cacheDirectory;
+
+    @CommandLine.Option(
+            names = {"--stream"},
+            paramLabel = "FORMAT",
+            arity = "0..1",
+            fallbackValue = "INCLUDE",
+            description = "print the selected methods of each class as soon as it is analyzed, either as"
+                    + " ${COMPLETION-CANDIDATES} (default when FORMAT is omitted: ${FALLBACK-VALUE})")
+    StreamFormat streamFormat;
+
+    @CommandLine.Option(
+            names = {"--call-graph"},
+            description = "follow calls between the scanned classes and report only the highest-level method on each"
+                    + " client or repository call path")
+    boolean callGraph;
+
+    @CommandLine.Option(
+            names = {"--jfr"},
+            paramLabel = "FILE",
+            description = "rank methods by the CPU samples of a JFR recording and leave out hot CPU bound methods")
+    File recording;
+
+    @CommandLine.Option(
+            names = {"--hot"},
+            paramLabel = "PERCENT",
+            description = "share of the JFR samples from which on a method is hot (default: ${DEFAULT-VALUE})")
+    double hotPercentage = 1.0;
+
+    @CommandLine.Option(
+            names = {"--blocking-calls"},
+            paramLabel = "FILE",
+            description = "additional blocking methods, one 'owner.name' per line such as"
+                    + " 'java.util.concurrent.Future.get'; '*' matches any owner or, at the end of a name, any suffix")
+    File blockingCallPatterns;
+
+    @CommandLine.Option(
+            names = {"--rules"},
+            paramLabel = "FILE",
+            description = "YAML or JSON rules that replace the built-in ones: the calls, annotations and thresholds of"
+                    + " each category and the excluded method names")
+    File rulesFile;
+
+    @CommandLine.Option(
+            names = {"--max-methods"},
+            paramLabel = "NUMBER",
+            description = "select at most NUMBER methods, the most valuable per estimated overhead first")
+    Integer maxMethods;
+
+    @CommandLine.Option(
+            names = {"--overhead-budget"},
+            paramLabel = "NUMBER",
+            description = "select the most valuable methods whose summed estimated overhead stays within NUMBER; a"
+                    + " span adds between 0 and 1 of a call's latency, times its calls per second with --invocations")
+    Double overheadBudget;
+
+    @CommandLine.Option(
+            names = {"--invocations"},
+            paramLabel = "FILE",
+            description = "calls per second of methods for the overhead estimate, one 'class.method NUMBER' per line")
+    File invocations;
+
+    @CommandLine.Option(
+            names = {"--include"},
+            paramLabel = "PATTERN",
+            split = ",",
+            description = "only scan classes matching a pattern such as 'com.example.*', where a trailing '*' also"
+                    + " matches subpackages and a leading one any prefix; may be repeated")
+    List<String> includedClasses;
+
+    @CommandLine.Option(
+            names = {"--exclude"},
+            paramLabel = "PATTERN",
+            split = ",",
+            description = "skip classes matching a pattern, before they are read; may be repeated")
+    List<String> excludedClasses;
+
+    @CommandLine.Option(
+            names = {"--duplicates"},
+            description = "list the classes found more than once, with the copy that is scanned and, like on a"
+                    + " class path, instrumented, and whether the shadowed copies have different bytes")
+    boolean reportDuplicates;
+
+    @CommandLine.Option(
+            names = {"--daemon"},
+            paramLabel = "PORT",
+            description = "keep running and scan for --connect calls on the loopback PORT, 0 for any free one,"
+                    + " keeping the analysis results in memory so that only changed classes are analyzed again")
+    Integer daemonPort;
+
+    @CommandLine.Option(
+            names = {"--connect"},
+            paramLabel = "PORT",
+            description = "run the scan in the daemon on the loopback PORT, or here if none is running")
+    Integer connectPort;
+
+    @CommandLine.Option(
+            names = {"--watch"},
+            description = "keep running and print the selected methods that change, as +class.method or"
+                    + " -class.method, whenever class files in the scanned folders change")
+    boolean watch;
+
+    @CommandLine.Option(
+            names = {"--weave"},
+            paramLabel = "PATH",
+            description = "write copies of the classes with selected methods, with spans woven into those methods, to"
+                    + " the folder or, if PATH ends with .jar, the jar PATH, to put ahead of them on the class path")
+    File weaveOutput;
+
+    @CommandLine.Option(
+            names = {"--tracer"},
+            paramLabel = "CLASS",
+            description = "the class whose static 'Object start(String)' and 'void end(Object, Throwable)' methods"
+                    + " woven methods call (default: one for the OpenTelemetry API, written along with them)")
+    String tracerClass;
+
+    @CommandLine.Option(
+            names = {"--baseline"},
+            paramLabel = "PATH",
+            split = ",",
+            description = "compare with the folders or jar files PATH, e.g. the previous release, and print only the"
+                    + " methods whose selection or categories changed, as +, - or ~class.method; may be repeated")
+    List<File> baselinePaths;
+
+    @CommandLine.Option(
+            names = {"--stats"},
+            paramLabel = "FORMAT",
+            arity = "0..1",
+            fallbackValue = "TEXT",
+            description = "print where the scan spent its time, per phase and per folder or jar, the slowest classes,"
+                    + " classes per second, bytes read, the heap high-water mark and GC time, either as"
+                    + " ${COMPLETION-CANDIDATES} (default when FORMAT is omitted: ${FALLBACK-VALUE})")
+    StatsFormat statsFormat;
 
     Set<File> paths;
 
-    @CommandLine.Parameters(arity = "1..*", description = "the folders or jar files to scan")
+    @CommandLine.Parameters(arity = "0..*", description = "the folders or jar files to scan")
     public void setPaths(Set<File> paths) {
         for (File file : paths) {
             if (!file.exists()) {
@@ -56,90 +230,458 @@ public class FlashlightMain implements Callable<Integer> {
     }
 
     public static void main(String... args) {
-        int exitCode = new CommandLine(new FlashlightMain()).execute(args);
+        int exitCode = execute(null, Path.of(""), System.out, System.err, args);
         System.exit(exitCode);
     }
 
-    private FlashlightMain() {}
+    /**
+     * Runs one invocation in this JVM, as the Gradle and Maven plugins do, and returns its exit code instead of
+     * exiting. Relative paths are resolved against {@code workingDirectory}.
+     */
+    public static int execute(Path workingDirectory, PrintStream out, PrintStream err, String... args) {
+        return execute(null, workingDirectory, out, err, args);
+    }
+
+    /**
+     * Runs one invocation, resolving relative paths against {@code workingDirectory} and printing to {@code out} and
+     * {@code err}; a {@code daemon} provides the analysis results of its earlier scans.
+     */
+    static int execute(
+            @Nullable FlashlightDaemon daemon,
+            Path workingDirectory,
+            PrintStream out,
+            PrintStream err,
+            String... args) {
+        return new CommandLine(new FlashlightMain(daemon, workingDirectory, out, err))
+                .setCaseInsensitiveEnumValuesAllowed(true)
+                .registerConverter(File.class, path -> workingDirectory.resolve(path).toFile())
+                .setOut(new PrintWriter(out, true))
+                .setErr(new PrintWriter(err, true))
+                .execute(args);
+    }
+
+    private FlashlightMain(
+            @Nullable FlashlightDaemon daemon, Path workingDirectory, PrintStream out, PrintStream err) {
+        this.daemon = daemon;
+        this.workingDirectory = workingDirectory;
+        this.out = out;
+        this.err = err;
+    }
 
     @Override
     public Integer call() throws Exception {
-        ClassScanner classScanner = new ClassScanner(paths);
+        if (daemonPort != null || connectPort != null) {
+            return callDaemon();
+        }
+        if (daemon != null && (watch || streamFormat != null)) {
+            // a daemon answers each request once, with all of its output
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(), "--watch and --stream cannot be run by a daemon");
+        }
+        if (paths == null) {
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(), "Missing required parameter: '<paths>'");
+        }
+        if (threads < 1) {
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(), String.format("Thread count must be positive: '%d'", threads));
+        }
+        if (callGraph && streamFormat != null) {
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(), "--call-graph needs the whole classpath and cannot be combined with --stream");
+        }
+        if (cacheDirectory != null && streamFormat != null) {
+            // the cache would have to keep every analyzed class until it is saved
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(), "--cache-dir keeps all analyzed classes and cannot be combined with --stream");
+        }
+        if (hotPercentage <= 0 || hotPercentage > 100) {
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(), String.format("Hot percentage must be in (0, 100]: '%s'", hotPercentage));
+        }
+        if (recording != null && !recording.isFile()) {
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(), String.format("JFR recording does not exist: '%s'", recording));
+        }
+        boolean limited = maxMethods != null || overheadBudget != null;
+        if (watch && (streamFormat != null || callGraph || limited)) {
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(),
+                    "--watch cannot be combined with --stream, --call-graph, --max-methods or --overhead-budget");
+        }
+        if (watch && statsFormat != null) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "--watch cannot be combined with --stats");
+        }
+        if (weaveOutput != null && (streamFormat != null || watch)) {
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(), "--weave cannot be combined with --stream or --watch");
+        }
+        if (baselinePaths != null
+                && (streamFormat != null || watch || weaveOutput != null || callGraph || limited)) {
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(),
+                    "--baseline cannot be combined with --stream, --watch, --weave, --call-graph, --max-methods or"
+                            + " --overhead-budget");
+        }
+        if (baselinePaths != null) {
+            for (File file : baselinePaths) {
+                if (!file.exists()) {
+                    throw new CommandLine.ParameterException(
+                            spec.commandLine(), String.format("Baseline does not exist: '%s'", file));
+                }
+            }
+        }
+        if (tracerClass != null && weaveOutput == null) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "--tracer needs --weave");
+        }
+        if (limited && streamFormat != null) {
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(), "--max-methods and --overhead-budget cannot be combined with --stream");
+        }
+        if ((maxMethods != null && maxMethods < 0) || (overheadBudget != null && !(overheadBudget >= 0))) {
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(), "--max-methods and --overhead-budget must not be negative");
+        }
+        if (invocations != null && !limited) {
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(), "--invocations needs --max-methods or --overhead-budget");
+        }
+        if (invocations != null && !invocations.isFile()) {
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(), String.format("Invocation counts do not exist: '%s'", invocations));
+        }
+        if (blockingCallPatterns != null && !blockingCallPatterns.isFile()) {
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(), String.format("Blocking calls do not exist: '%s'", blockingCallPatterns));
+        }
+        if (rulesFile != null && !rulesFile.isFile()) {
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(), String.format("Rules do not exist: '%s'", rulesFile));
+        }
+        ClassFilter classFilter;
+        try {
+            classFilter = new ClassFilter(
+                    includedClasses == null ? List.of() : includedClasses,
+                    excludedClasses == null ? List.of() : excludedClasses);
+        } catch (IllegalArgumentException e) {
+            throw new CommandLine.ParameterException(spec.commandLine(), e.getMessage());
+        }
+        Rules rules = rulesFile == null ? Rules.defaults() : Rules.read(rulesFile.toPath());
+        rules = rules.withThresholds(
+                methodInstructionCountThreshold == null
+                        ? rules.methodCallCountThreshold()
+                        : methodInstructionCountThreshold,
+                branchInstructionCountThreshold == null
+                        ? rules.branchCountThreshold()
+                        : branchInstructionCountThreshold);
+        BlockingCalls blockingCalls = blockingCallPatterns == null
+                ? BlockingCalls.defaults()
+                : BlockingCalls.withPatterns(blockingCallPatterns.toPath());
+        ExecutionProfile profile =
+                recording == null ? null : ExecutionProfile.read(recording.toPath(), hotPercentage / 100);
+        AnalysisCache cache = cacheDirectory != null
+                ? AnalysisCache.load(cacheDirectory.toPath(), rules.fingerprint())
+                : daemon != null ? daemon.cache(rules.fingerprint()) : null;
+        if (cache == null && baselinePaths != null) {
+            // classes that did not change since the baseline are only analyzed once
+            cache = AnalysisCache.inMemory(rules.fingerprint());
+        }
+        stats = statsFormat == null ? null : new ScanStats();
+        ScanOptions scanOptions = ScanOptions.defaults()
+                .withThreads(threads)
+                .withMapArchives(mapArchives)
+                .withCache(cache)
+                .withRules(rules)
+                .withFilter(classFilter)
+                .withStats(stats);
+        ClassScanner classScanner = new ClassScanner(paths, scanOptions);
+        if (watch) {
+            watch(classScanner, selection(profile, blockingCalls, rules), classFilter, cache);
+            return 0;
+        }
+        if (baselinePaths != null) {
+            SelectionDiff diff = new SelectionDiff(
+                    selection(profile, blockingCalls, rules), selection(profile, blockingCalls, rules));
+            diff(
+                    new ClassScanner(baselinePaths, scanOptions),
+                    classScanner,
+                    diff);
+        } else if (streamFormat != null) {
+            stream(classScanner, selection(profile, blockingCalls, rules));
+        } else {
+            report(classScanner, profile, blockingCalls, rules);
+        }
+        if (reportDuplicates) {
+            List<ClassPathReader.ShadowedClass> shadowedClasses = classScanner.shadowedClasses();
+            err.printf(
+                    "Shadowed duplicates: %d, %d with different bytes%n",
+                    shadowedClasses.size(),
+                    shadowedClasses.stream().filter(shadowed -> !shadowed.isIdentical()).count());
+            shadowedClasses.forEach(shadowed -> err.println("\t" + shadowed));
+        }
+        if (cache != null) {
+            cache.save();
+        }
+        if (cacheDirectory != null) {
+            err.printf(
+                    "Analysis cache: %d hits, %d misses; %d unchanged jars, %d changed jars%n",
+                    cache.hits(), cache.misses(), cache.archiveHits(), cache.archiveMisses());
+        }
+        if (stats != null) {
+            stats.stop();
+            switch (statsFormat) {
+                case JSON:
+                    err.println(stats.json());
+                    break;
+                case PROMETHEUS:
+                    err.print(stats.prometheus());
+                    break;
+                default:
+                    err.print(stats.text());
+            }
+        }
+        return 0;
+    }
+
+    private int callDaemon() throws IOException {
+        if (watch || streamFormat != null) {
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(), "--watch and --stream cannot be combined with --daemon or --connect");
+        }
+        if (daemonPort != null && (connectPort != null || daemon != null)) {
+            throw new CommandLine.ParameterException(
+                    spec.commandLine(), "--daemon cannot be combined with --connect or run by a daemon");
+        }
+        if (daemonPort != null) {
+            try (FlashlightDaemon daemon = new FlashlightDaemon(daemonPort)) {
+                err.printf("Flashlight daemon listening on port %d%n", daemon.getPort());
+                daemon.serve();
+            }
+            return 0;
+        }
+        List<String> args = new ArrayList<>(spec.commandLine().getParseResult().originalArgs());
+        for (int i = 0; i < args.size(); i++) {
+            if (args.get(i).startsWith("--connect=")) {
+                args.remove(i);
+                break;
+            } else if (args.get(i).equals("--connect")) {
+                args.subList(i, i + 2).clear();
+                break;
+            }
+        }
+        try {
+            return FlashlightDaemon.connect(connectPort, workingDirectory, args, out, err);
+        } catch (ConnectException | NoSuchFileException e) {
+            // without the token file the daemon, if any, is not one of this user's
+            err.printf("No Flashlight daemon on port %d, scanning here%n", connectPort);
+            return execute(null, workingDirectory, out, err, args.toArray(new String[0]));
+        }
+    }
+
+    // without a call graph, which needs all classes before the first one is selected
+    private static MethodSelection selection(
+            @Nullable ExecutionProfile profile, BlockingCalls blockingCalls, Rules rules) {
+        return new MethodSelection(SelectionOptions.of(rules).withProfile(profile).withBlockingCalls(blockingCalls));
+    }
+
+    private void report(
+            ClassScanner classScanner, @Nullable ExecutionProfile profile, BlockingCalls blockingCalls, Rules rules)
+            throws IOException {
         List<AnalyzedClass> analyzedClasses = classScanner.scan();
+        long aggregationStart = System.nanoTime();
+        MethodSelection selection = new MethodSelection(SelectionOptions.of(rules)
+                .withCallGraph(callGraph ? CallGraph.build(analyzedClasses, rules.excludedMethods()) : null)
+                .withProfile(profile)
+                .withBlockingCalls(blockingCalls));
+        selection.addAll(analyzedClasses);
+        if (maxMethods != null || overheadBudget != null) {
+            int selected = selection.methodCount();
+            double overhead = selection.limit(
+                    analyzedClasses,
+                    invocations == null ? new OverheadModel() : OverheadModel.read(invocations.toPath()),
+                    maxMethods == null ? Integer.MAX_VALUE : maxMethods,
+                    overheadBudget == null ? Double.POSITIVE_INFINITY : overheadBudget);
+            err.printf(
+                    "Overhead budget: kept %d of %d selected methods, estimated overhead %.3f%n",
+                    selection.methodCount(), selected, overhead);
+        }
+        if (stats != null) {
+            stats.aggregated(System.nanoTime() - aggregationStart);
+        }
+        SortedMap<String, ? extends Set<String>> methods = selection.methods();
 
-        List<Map.Entry<String, Set<String>>> methodsWithSynchronize = analyzedClasses.stream()
-                .map(analyzedClass ->
-                        entry(analyzedClass.getClassName(), analyzedClass.methodsWithSynchronize(EXCLUDED_METHODS)))
-                .filter(analyzedClass -> !analyzedClass.getValue().isEmpty())
-                .collect(toList());
-
-        List<Map.Entry<String, Set<String>>> methodsWithClientCalls = analyzedClasses.stream()
-                .map(analyzedClass ->
-                        entry(analyzedClass.getClassName(), analyzedClass.methodsWithClientCalls(EXCLUDED_METHODS)))
-                .filter(analyzedClass -> !analyzedClass.getValue().isEmpty())
-                .collect(toList());
-
-        List<Map.Entry<String, Set<String>>> methodsWithRepositoryCalls = analyzedClasses.stream()
-                .map(analyzedClass ->
-                        entry(analyzedClass.getClassName(), analyzedClass.methodsWithRepositoryCalls(EXCLUDED_METHODS)))
-                .filter(analyzedClass -> !analyzedClass.getValue().isEmpty())
-                .collect(toList());
-
-        List<Map.Entry<String, Set<String>>> methodsWithHighMethodCount = analyzedClasses.stream()
-                .map(analyzedClass -> entry(
-                        analyzedClass.getClassName(),
-                        analyzedClass.methodsWithHighMethodCount(methodInstructionCountThreshold, EXCLUDED_METHODS)))
-                .filter(analyzedClass -> !analyzedClass.getValue().isEmpty())
-                .collect(toList());
-
-        List<Map.Entry<String, Set<String>>> methodsWithHighBranchCount = analyzedClasses.stream()
-                .map(analyzedClass -> entry(
-                        analyzedClass.getClassName(),
-                        analyzedClass.methodsWithHighBranchCount(branchInstructionCountThreshold, EXCLUDED_METHODS)))
-                .filter(analyzedClass -> !analyzedClass.getValue().isEmpty())
-                .collect(toList());
-
-        TreeMap<String, Set<String>> methods = new TreeMap<>();
-        methodsWithSynchronize.forEach(entry -> methods.merge(entry.getKey(), entry.getValue(), Sets::union));
-        methodsWithClientCalls.forEach(entry -> methods.merge(entry.getKey(), entry.getValue(), Sets::union));
-        methodsWithRepositoryCalls.forEach(entry -> methods.merge(entry.getKey(), entry.getValue(), Sets::union));
-        methodsWithHighMethodCount.forEach(entry -> methods.merge(entry.getKey(), entry.getValue(), Sets::union));
-        methodsWithHighBranchCount.forEach(entry -> methods.merge(entry.getKey(), entry.getValue(), Sets::union));
-
-        System.out.println("Synchronized methods:");
-        methodsWithSynchronize.forEach(
-                analyzedClass -> System.out.println("\t" + analyzedClass.getKey() + analyzedClass.getValue()));
-
-        System.out.println("Client invocation methods:");
-        methodsWithClientCalls.forEach(
-                analyzedClass -> System.out.println("\t" + analyzedClass.getKey() + analyzedClass.getValue()));
-
-        System.out.println("Repository invocation methods:");
-        methodsWithRepositoryCalls.forEach(
-                analyzedClass -> System.out.println("\t" + analyzedClass.getKey() + analyzedClass.getValue()));
-
-        System.out.println("High call count methods:");
-        methodsWithHighMethodCount.forEach(
-                analyzedClass -> System.out.println("\t" + analyzedClass.getKey() + analyzedClass.getValue()));
-
-        System.out.println("High branch count methods:");
-        methodsWithHighBranchCount.forEach(
-                analyzedClass -> System.out.println("\t" + analyzedClass.getKey() + analyzedClass.getValue()));
-
-        System.out.println("System Property:");
-        System.out.print("-Dotel.instrumentation.methods.include=");
-        for (Map.Entry<String, Set<String>> analyzedClass : methods.entrySet()) {
-            System.out.print(
-                    analyzedClass.getKey() + analyzedClass.getValue().toString().replace(" ", "") + ";");
-        }
-
-        System.out.println("\n\nEnvironment Variable:");
-        System.out.println("OTEL_INSTRUMENTATION_METHODS_INCLUDE=\"\\");
-        for (Map.Entry<String, Set<String>> analyzedClass : methods.entrySet()) {
-            System.out.print(
-                    analyzedClass.getKey() + analyzedClass.getValue().toString().replace(" ", "") + ";\\");
-        }
-        System.out.println("\"");
-        return 0;
+        for (Category category : selection.categories()) {
+            out.println(category.getTitle() + ":");
+            selection.methods(category).forEach((className, methodNames) ->
+                    out.println("\t" + className + methodNames));
+        }
+        out.println("Blocking call sites:");
+        selection.blockingCallSites().forEach((className, sites) -> sites.forEach((methodName, blocking) -> {
+            String blockingMethods = blocking.toString().replace('/', '.');
+            out.println("\t" + className + "." + methodName + " -> " + blockingMethods);
+        }));
+        out.println("Critical sections by size:");
+        for (MethodSelection.CriticalSection section : selection.criticalSections()) {
+            out.println("\t" + section);
+        }
+        if (profile != null) {
+            printProfile(selection, profile);
+        }
+
+        out.println("System Property:");
+        out.print("-Dotel.instrumentation.methods.include=");
+        methods.forEach((className, methodNames) -> out.print(include(className, methodNames) + ";"));
+
+        out.println("\n\nEnvironment Variable:");
+        out.println("OTEL_INSTRUMENTATION_METHODS_INCLUDE=\"\\");
+        methods.forEach((className, methodNames) -> out.print(include(className, methodNames) + ";\\"));
+        out.println("\"");
+        if (weaveOutput != null) {
+            weave(classScanner, methods);
+        }
+    }
+
+    private void diff(ClassScanner baselineScanner, ClassScanner classScanner, SelectionDiff diff)
+            throws IOException {
+        List<AnalyzedClass> oldClasses = baselineScanner.scan();
+        List<AnalyzedClass> newClasses = classScanner.scan();
+        long aggregationStart = System.nanoTime();
+        List<SelectionDiff.Change> changes = diff.compare(oldClasses, newClasses);
+        if (stats != null) {
+            stats.aggregated(System.nanoTime() - aggregationStart);
+        }
+        changes.forEach(out::println);
+        err.printf(
+                "Baseline: %d of %d classes and %d methods changed, %d selection changes%n",
+                diff.changedClassCount(), diff.classCount(), diff.changedMethodCount(), changes.size());
+    }
+
+    private void weave(ClassScanner classScanner, SortedMap<String, ? extends Set<String>> methods)
+            throws IOException {
+        SpanWeaver weaver = new SpanWeaver(tracerClass == null ? SpanWeaver.OPEN_TELEMETRY_TRACER : tracerClass);
+        Map<String, byte[]> classFiles = new TreeMap<>();
+        classScanner.read(methods.keySet()).forEach((resourceName, classFile) -> {
+            String className = resourceName.substring(0, resourceName.length() - ".class".length()).replace('/', '.');
+            classFiles.put(resourceName, weaver.weave(classFile, methods.get(className)));
+        });
+        if (tracerClass == null) {
+            classFiles.put(
+                    SpanWeaver.OPEN_TELEMETRY_TRACER.replace('.', '/') + ".class",
+                    SpanWeaver.openTelemetryTracer(SpanWeaver.OPEN_TELEMETRY_TRACER));
+        }
+        SpanWeaver.write(weaveOutput.toPath(), classFiles);
+        err.printf(
+                "Woven: %d methods of %d classes into %s%n", weaver.methodCount(), methods.size(), weaveOutput);
+    }
+
+    // memory use is bounded by MAX_BUFFERED_CLASSES, the final include list is merged from a spill file
+    private void stream(ClassScanner classScanner, MethodSelection selection) throws IOException {
+        try (SpillFile spillFile = new SpillFile(MAX_BUFFERED_CLASSES)) {
+            classScanner.scan(analyzedClass -> {
+                long aggregationStart = stats == null ? 0 : System.nanoTime();
+                SortedMap<String, Integer> selected = selection.select(analyzedClass);
+                if (stats != null) {
+                    stats.aggregated(System.nanoTime() - aggregationStart);
+                }
+                if (selected.isEmpty()) {
+                    return;
+                }
+                String line = streamFormat == StreamFormat.NDJSON
+                        ? ndjson(analyzedClass.getClassName(), selected)
+                        : include(analyzedClass.getClassName(), selected.keySet()) + ";";
+                synchronized (out) {
+                    out.println(line);
+                }
+                try {
+                    spillFile.add(analyzedClass.getClassName(), selected.keySet());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            out.println("System Property:");
+            out.print("-Dotel.instrumentation.methods.include=");
+            spillFile.forEachSorted(
+                    (className, methodNames) -> out.print(include(className, methodNames) + ";"));
+
+            out.println("\n\nEnvironment Variable:");
+            out.println("OTEL_INSTRUMENTATION_METHODS_INCLUDE=\"\\");
+            spillFile.forEachSorted(
+                    (className, methodNames) -> out.print(include(className, methodNames) + ";\\"));
+            out.println("\"");
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // runs until interrupted; classes are selected one at a time, as in stream mode
+    private void watch(
+            ClassScanner classScanner,
+            MethodSelection selection,
+            ClassFilter classFilter,
+            @Nullable AnalysisCache cache)
+            throws IOException {
+        List<Path> roots = new ArrayList<>();
+        paths.forEach(path -> roots.add(path.toPath()));
+        try (ClassWatcher watcher = new ClassWatcher(roots, classScanner, selection, classFilter)) {
+            watcher.start();
+            if (cache != null) {
+                cache.save();
+            }
+            out.print("-Dotel.instrumentation.methods.include=");
+            watcher.methods().forEach(
+                    (className, methodNames) -> out.print(include(className, methodNames) + ";"));
+            out.println();
+            err.printf("Watching %d folders for changed classes%n", watcher.directoryCount());
+            while (true) {
+                watcher.awaitChanges().forEach(out::println);
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void printProfile(MethodSelection selection, ExecutionProfile profile) {
+        out.println("Too costly to span (hot CPU bound methods, left out):");
+        selection.tooCostlyMethods().forEach((className, methodNames) ->
+                out.println("\t" + className + methodNames));
+
+        out.printf("Selected methods by share of %d CPU samples:%n", profile.sampleCount());
+        List<Map.Entry<String, Double>> ranked = new ArrayList<>();
+        selection.methods().forEach((className, methodNames) -> {
+            for (String methodName : methodNames) {
+                double weight = profile.weight(className, methodName);
+                if (weight > 0) {
+                    ranked.add(Map.entry(className + "." + methodName, weight));
+                }
+            }
+        });
+        ranked.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+        for (Map.Entry<String, Double> method : ranked) {
+            out.printf("\t%5.1f%% %s%n", method.getValue() * 100, method.getKey());
+        }
+    }
+
+    private static String include(String className, Set<String> methodNames) {
+        return className + methodNames.toString().replace(" ", "");
+    }
+
+    private static String ndjson(String className, SortedMap<String, Integer> selected) {
+        StringBuilder builder = new StringBuilder("{\"class\":").append(Json.quote(className)).append(",\"methods\":{");
+        String separator = "";
+        for (Map.Entry<String, Integer> method : selected.entrySet()) {
+            builder.append(separator).append(Json.quote(method.getKey())).append(":[");
+            separator = ",";
+            String categorySeparator = "";
+            for (Category category : Category.values()) {
+                if ((method.getValue() & category.bit()) != 0) {
+                    builder.append(categorySeparator).append(Json.quote(category.name()));
+                    categorySeparator = ",";
+                }
+            }
+            builder.append(']');
+        }
+        return builder.append("}}").toString();
     }
 }
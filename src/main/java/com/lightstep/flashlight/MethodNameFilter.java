@@ -1,17 +1,24 @@
 package com.lightstep.flashlight;
 
-import java.util.Set;
+import java.util.List;
 import java.util.function.Predicate;
 
-class MethodNameFilter implements Predicate<AnalyzingMethodVisitor> {
-    private final Set<String> excludedMethodNames;
+/** Accepts method names that match none of the excluded {@link PatternIndex patterns}. */
+class MethodNameFilter implements Predicate<String> {
+    private final PatternIndex<String> excludedMethodNames = new PatternIndex<>();
 
     public MethodNameFilter(String... excludedMethodNames) {
-        this.excludedMethodNames = Set.of(excludedMethodNames);
+        this(List.of(excludedMethodNames));
+    }
+
+    public MethodNameFilter(List<String> excludedMethodNames) {
+        for (String pattern : excludedMethodNames) {
+            this.excludedMethodNames.add(pattern, pattern);
+        }
     }
 
     @Override
-    public boolean test(AnalyzingMethodVisitor analyzingMethodVisitor) {
-        return !excludedMethodNames.contains(analyzingMethodVisitor.name());
+    public boolean test(String methodName) {
+        return !excludedMethodNames.matches(methodName);
     }
 }
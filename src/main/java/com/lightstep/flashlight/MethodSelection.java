@@ -0,0 +1,421 @@
+package com.lightstep.flashlight;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Classifies the methods of analyzed classes into {@link Category categories} in a single pass per class, and collects
+ * the union of all selected methods per class.
+ *
+ * <p>With a {@link CallGraph}, the direct client and repository call categories are replaced by the remote I/O entry
+ * points of the graph, so that only the highest-level method on each I/O path is selected. With an {@link
+ * ExecutionProfile}, hot methods that reach remote I/O get their own category and hot CPU bound leaves are never
+ * selected.
+ *
+ * <p>Lambda bodies and the methods of anonymous and local classes have no stable name to instrument. They are never
+ * selected themselves; lambda bodies pass their flags on within their class, and {@link #addAll} passes the flags of
+ * anonymous and local classes on to their enclosing method.
+ */
+class MethodSelection {
+    private final MethodNameFilter filteredMethods;
+    private final int methodInstructionCountThreshold;
+    private final int branchInstructionCountThreshold;
+    @Nullable private final CallGraph callGraph;
+    @Nullable private final ExecutionProfile profile;
+    private final BlockingCalls blockingCalls;
+    private final Rules rules;
+    private final Map<Category, Map<String, SortedSet<String>>> methodsByCategory = new EnumMap<>(Category.class);
+    private final SortedMap<String, SortedSet<String>> methods = new TreeMap<>();
+    private final SortedMap<String, SortedSet<String>> tooCostlyMethods = new TreeMap<>();
+    private final SortedMap<String, SortedMap<String, List<String>>> blockingCallSites = new TreeMap<>();
+    private final Map<String, Map<String, CriticalSection>> criticalSections = new HashMap<>();
+    // the flags of anonymous and local classes, per enclosing class and method
+    private final Map<String, Map<String, Integer>> enclosedFlags = new HashMap<>();
+
+    MethodSelection(SelectionOptions options) {
+        this.filteredMethods = options.filteredMethods();
+        this.methodInstructionCountThreshold = options.methodCallCountThreshold();
+        this.branchInstructionCountThreshold = options.branchCountThreshold();
+        this.callGraph = options.callGraph();
+        this.profile = options.profile();
+        this.blockingCalls = options.blockingCalls();
+        this.rules = options.rules();
+        for (Category category : categories()) {
+            methodsByCategory.put(category, new LinkedHashMap<>());
+        }
+    }
+
+    /** Returns the categories this selection can assign, in report order. */
+    public Set<Category> categories() {
+        Set<Category> categories = EnumSet.allOf(Category.class);
+        if (callGraph != null) {
+            categories.removeAll(EnumSet.of(Category.CLIENT_CALL, Category.REPOSITORY_CALL));
+        } else {
+            categories.remove(Category.REMOTE_IO_ENTRY_POINT);
+        }
+        if (profile == null) {
+            categories.remove(Category.HOT_REMOTE_IO_CALLER);
+        }
+        return categories;
+    }
+
+    /** Returns the categories of {@code method} as a bit set of {@link Category#bit()}. */
+    int classify(AnalyzedClass analyzedClass, int method) {
+        String className = analyzedClass.getClassName();
+        String methodName = analyzedClass.methodName(method);
+        if (!filteredMethods.test(methodName)
+                || analyzedClass.hasFlag(method, AnalyzedClass.LAMBDA_BODY)
+                || analyzedClass.getEnclosingClassName() != null
+                || (profile != null && profile.isTooCostlyToSpan(className, methodName))) {
+            return 0;
+        }
+        int flags = analyzedClass.flags(method) | enclosedFlags(className, methodName);
+        int categories = 0;
+        if ((flags & AnalyzedClass.SYNCHRONIZED) != 0) {
+            categories |= Category.SYNCHRONIZED.bit();
+        }
+        if ((flags & AnalyzedClass.LOCK_CONTENTION) != 0
+                && !rules.excludesClass(Category.LOCK_CONTENTION, className)) {
+            categories |= Category.LOCK_CONTENTION.bit();
+        }
+        if (!analyzedClass.blockingCalls(method, blockingCalls).isEmpty()) {
+            categories |= Category.BLOCKING_CALL.bit();
+        }
+        if ((flags & AnalyzedClass.ANNOTATED) != 0
+                && !rules.excludesClass(Category.ANNOTATED, className)) {
+            categories |= Category.ANNOTATED.bit();
+        }
+        boolean remoteIoClass = rules.excludesClass(Category.CLIENT_CALL, className)
+                || rules.excludesClass(Category.REPOSITORY_CALL, className);
+        if (callGraph != null) {
+            if (callGraph.isRemoteIoEntryPoint(analyzedClass, method) && !remoteIoClass) {
+                categories |= Category.REMOTE_IO_ENTRY_POINT.bit();
+            }
+        } else {
+            if ((flags & AnalyzedClass.CLIENT_CALL) != 0
+                    && !rules.excludesClass(Category.CLIENT_CALL, className)) {
+                categories |= Category.CLIENT_CALL.bit();
+            }
+            if ((flags & AnalyzedClass.REPOSITORY_CALL) != 0
+                    && !rules.excludesClass(Category.REPOSITORY_CALL, className)) {
+                categories |= Category.REPOSITORY_CALL.bit();
+            }
+        }
+        if ((flags & AnalyzedClass.REMOTE_IO_IN_LOOP) != 0 && !remoteIoClass) {
+            categories |= Category.REMOTE_IO_IN_LOOP.bit();
+        }
+        if (profile != null
+                && profile.isHot(className, methodName)
+                && reachesRemoteIo(analyzedClass, method, flags)
+                && !remoteIoClass) {
+            categories |= Category.HOT_REMOTE_IO_CALLER.bit();
+        }
+        if (analyzedClass.methodCallCount(method) >= methodInstructionCountThreshold) {
+            categories |= Category.HIGH_CALL_COUNT.bit();
+        }
+        if (analyzedClass.jumpCount(method) >= branchInstructionCountThreshold) {
+            categories |= Category.HIGH_BRANCH_COUNT.bit();
+        }
+        return categories;
+    }
+
+    private boolean reachesRemoteIo(AnalyzedClass analyzedClass, int method, int flags) {
+        return callGraph != null
+                ? callGraph.reachesRemoteIo(analyzedClass, method)
+                : (flags & (AnalyzedClass.CLIENT_CALL | AnalyzedClass.REPOSITORY_CALL)) != 0;
+    }
+
+    /** Returns the categories of each selected method of {@code analyzedClass}, keyed by method name. */
+    public SortedMap<String, Integer> select(AnalyzedClass analyzedClass) {
+        SortedMap<String, Integer> selected = new TreeMap<>();
+        for (int method = 0; method < analyzedClass.methodCount(); method++) {
+            int categories = classify(analyzedClass, method);
+            if (categories != 0) {
+                selected.merge(analyzedClass.methodName(method), categories, (left, right) -> left | right);
+            }
+        }
+        return selected;
+    }
+
+    public void add(AnalyzedClass analyzedClass) {
+        String className = analyzedClass.getClassName();
+        SortedMap<String, Integer> selected = select(analyzedClass);
+        selected.forEach((methodName, categories) -> {
+            for (Category category : categories()) {
+                if ((categories & category.bit()) != 0) {
+                    methodsByCategory
+                            .get(category)
+                            .computeIfAbsent(className, name -> new TreeSet<>())
+                            .add(methodName);
+                }
+            }
+            methods.computeIfAbsent(className, name -> new TreeSet<>()).add(methodName);
+        });
+        for (int method = 0; method < analyzedClass.methodCount(); method++) {
+            String methodName = analyzedClass.methodName(method);
+            List<String> sites = analyzedClass.blockingCalls(method, blockingCalls);
+            if (!sites.isEmpty() && (selected.getOrDefault(methodName, 0) & Category.BLOCKING_CALL.bit()) != 0) {
+                List<String> classSites = blockingCallSites
+                        .computeIfAbsent(className, name -> new TreeMap<>())
+                        .computeIfAbsent(methodName, name -> new ArrayList<>());
+                for (String site : sites) {
+                    if (!classSites.contains(site)) {
+                        classSites.add(site);
+                    }
+                }
+            }
+            int size = analyzedClass.metric(Metric.CRITICAL_SECTION_SIZE, method);
+            if (size > 0 && selected.containsKey(methodName)) {
+                criticalSections
+                        .computeIfAbsent(className, name -> new HashMap<>())
+                        .merge(
+                                methodName,
+                                new CriticalSection(
+                                        className,
+                                        methodName,
+                                        size,
+                                        analyzedClass.metric(Metric.LOCKED_CALL_COUNT, method)),
+                                CriticalSection::larger);
+            }
+        }
+        if (profile != null) {
+            for (int method = 0; method < analyzedClass.methodCount(); method++) {
+                String methodName = analyzedClass.methodName(method);
+                if (filteredMethods.test(methodName) && profile.isTooCostlyToSpan(className, methodName)) {
+                    tooCostlyMethods.computeIfAbsent(className, name -> new TreeSet<>()).add(methodName);
+                }
+            }
+        }
+    }
+
+    /** Adds all classes, after passing the flags of anonymous and local classes on to their enclosing methods. */
+    public void addAll(Iterable<AnalyzedClass> analyzedClasses) {
+        passEnclosedFlags(analyzedClasses);
+        for (AnalyzedClass analyzedClass : analyzedClasses) {
+            add(analyzedClass);
+        }
+    }
+
+    /** Passes the flags of the anonymous and local classes among {@code analyzedClasses} on to {@link #select}. */
+    void passEnclosedFlags(Iterable<AnalyzedClass> analyzedClasses) {
+        Map<String, AnalyzedClass> enclosedClasses = new HashMap<>();
+        for (AnalyzedClass analyzedClass : analyzedClasses) {
+            if (analyzedClass.getEnclosingClassName() != null) {
+                enclosedClasses.put(analyzedClass.getClassName(), analyzedClass);
+            }
+        }
+        for (AnalyzedClass enclosed : enclosedClasses.values()) {
+            int flags = 0;
+            for (int method = 0; method < enclosed.methodCount(); method++) {
+                if (filteredMethods.test(enclosed.methodName(method))) {
+                    flags |= enclosed.flags(method) & AnalyzedClass.ENCLOSED_FLAGS;
+                }
+            }
+            // a class declared in another anonymous or local class is attributed to the outermost named method
+            AnalyzedClass outer = enclosed;
+            while (outer.getEnclosingMethodName() != null
+                    && enclosedClasses.containsKey(outer.getEnclosingClassName())) {
+                outer = enclosedClasses.get(outer.getEnclosingClassName());
+            }
+            if (flags != 0 && outer.getEnclosingMethodName() != null) {
+                enclosedFlags
+                        .computeIfAbsent(outer.getEnclosingClassName(), name -> new HashMap<>())
+                        .merge(outer.getEnclosingMethodName(), flags, (left, right) -> left | right);
+            }
+        }
+    }
+
+    /** Returns the flags that anonymous and local classes pass on to the method {@code methodName}. */
+    int enclosedFlags(String className, String methodName) {
+        return enclosedFlags.getOrDefault(className, Map.of()).getOrDefault(methodName, 0);
+    }
+
+    /**
+     * Keeps the most valuable selected methods whose summed {@link OverheadModel#cost cost} fits {@code budget}, at
+     * most {@code maxMethods} of them. Methods are picked greedily by category value per cost; overloads share one
+     * span configuration, so they are picked together at the highest cost among them.
+     *
+     * @return the summed cost of the kept methods
+     */
+    public double limit(
+            Iterable<AnalyzedClass> analyzedClasses, OverheadModel model, int maxMethods, double budget) {
+        List<Candidate> candidates = new ArrayList<>();
+        for (AnalyzedClass analyzedClass : analyzedClasses) {
+            Set<String> selected = methods.get(analyzedClass.getClassName());
+            if (selected == null) {
+                continue;
+            }
+            Map<String, Candidate> classCandidates = new HashMap<>();
+            for (int method = 0; method < analyzedClass.methodCount(); method++) {
+                String methodName = analyzedClass.methodName(method);
+                if (selected.contains(methodName)) {
+                    classCandidates
+                            .computeIfAbsent(methodName, name -> new Candidate(analyzedClass.getClassName(), name))
+                            .add(classify(analyzedClass, method), model.cost(analyzedClass, method));
+                }
+            }
+            candidates.addAll(classCandidates.values());
+        }
+
+        candidates.sort(Comparator.comparingDouble(Candidate::density)
+                .reversed()
+                .thenComparing(candidate -> candidate.className)
+                .thenComparing(candidate -> candidate.methodName));
+        Map<String, Set<String>> kept = new HashMap<>();
+        int keptCount = 0;
+        double total = 0;
+        for (Candidate candidate : candidates) {
+            if (keptCount < maxMethods && total + candidate.cost <= budget) {
+                kept.computeIfAbsent(candidate.className, name -> new HashSet<>()).add(candidate.methodName);
+                keptCount++;
+                total += candidate.cost;
+            }
+        }
+
+        retain(methods, kept);
+        for (Map<String, SortedSet<String>> categoryMethods : methodsByCategory.values()) {
+            retain(categoryMethods, kept);
+        }
+        blockingCallSites.entrySet().removeIf(entry -> {
+            entry.getValue().keySet().retainAll(kept.getOrDefault(entry.getKey(), Set.of()));
+            return entry.getValue().isEmpty();
+        });
+        criticalSections.entrySet().removeIf(entry -> {
+            entry.getValue().keySet().retainAll(kept.getOrDefault(entry.getKey(), Set.of()));
+            return entry.getValue().isEmpty();
+        });
+        return total;
+    }
+
+    private static void retain(Map<String, SortedSet<String>> methods, Map<String, Set<String>> kept) {
+        methods.entrySet().removeIf(entry -> {
+            Set<String> keptMethods = kept.getOrDefault(entry.getKey(), Set.of());
+            entry.getValue().retainAll(keptMethods);
+            return entry.getValue().isEmpty();
+        });
+    }
+
+    /** Returns the selected methods of {@code category} per class, in the order the classes were added. */
+    public Map<String, ? extends Set<String>> methods(Category category) {
+        return Collections.unmodifiableMap(methodsByCategory.getOrDefault(category, Map.of()));
+    }
+
+    /**
+     * Returns the blocking methods invoked by each method of the {@link Category#BLOCKING_CALL} category, per class,
+     * each as {@code owner.name} in internal form.
+     */
+    public SortedMap<String, ? extends Map<String, List<String>>> blockingCallSites() {
+        return Collections.unmodifiableSortedMap(blockingCallSites);
+    }
+
+    /**
+     * Returns the selected methods that hold a lock, largest critical section first. Overloads are listed once, with
+     * the largest critical section among them.
+     */
+    public List<CriticalSection> criticalSections() {
+        List<CriticalSection> sections = new ArrayList<>();
+        for (Map<String, CriticalSection> classSections : criticalSections.values()) {
+            sections.addAll(classSections.values());
+        }
+        sections.sort(Comparator.comparingInt(CriticalSection::getSize)
+                .reversed()
+                .thenComparing(CriticalSection::getClassName)
+                .thenComparing(CriticalSection::getMethodName));
+        return sections;
+    }
+
+    /** Returns the hot CPU bound methods that were left out because a span per call would cost too much. */
+    public SortedMap<String, ? extends Set<String>> tooCostlyMethods() {
+        return Collections.unmodifiableSortedMap(tooCostlyMethods);
+    }
+
+    /** Returns the number of selected methods over all classes. */
+    public int methodCount() {
+        int count = 0;
+        for (Set<String> methodNames : methods.values()) {
+            count += methodNames.size();
+        }
+        return count;
+    }
+
+    /** Returns all selected methods per class, sorted by class name. */
+    public SortedMap<String, ? extends Set<String>> methods() {
+        return Collections.unmodifiableSortedMap(methods);
+    }
+
+    /** The instructions of a method that run while it holds a monitor or lock, and the calls among them. */
+    static class CriticalSection {
+        private final String className;
+        private final String methodName;
+        private final int size;
+        private final int lockedCallCount;
+
+        CriticalSection(String className, String methodName, int size, int lockedCallCount) {
+            this.className = className;
+            this.methodName = methodName;
+            this.size = size;
+            this.lockedCallCount = lockedCallCount;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        /** Returns the number of instructions run while a lock is held, see {@link Metric#CRITICAL_SECTION_SIZE}. */
+        public int getSize() {
+            return size;
+        }
+
+        public int getLockedCallCount() {
+            return lockedCallCount;
+        }
+
+        private CriticalSection larger(CriticalSection other) {
+            return other.size > size ? other : this;
+        }
+
+        @Override
+        public String toString() {
+            return className + "." + methodName + ": " + size + " instructions, " + lockedCallCount + " calls";
+        }
+    }
+
+    private static class Candidate {
+        private final String className;
+        private final String methodName;
+        private int categories;
+        private double cost;
+
+        Candidate(String className, String methodName) {
+            this.className = className;
+            this.methodName = methodName;
+        }
+
+        void add(int categories, double cost) {
+            this.categories |= categories;
+            this.cost = Math.max(this.cost, cost);
+        }
+
+        double density() {
+            return Category.value(categories) / cost;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.lightstep.flashlight;
+
+/**
+ * Per-method counters recorded by {@link AnalyzingMethodVisitor}. Bump the analysis cache format version when adding
+ * one.
+ */
+enum Metric {
+    METHOD_CALL_COUNT,
+    JUMP_COUNT,
+    INSTRUCTION_COUNT,
+    /** Nesting depth of the loops in the method, 0 if it has none. */
+    LOOP_DEPTH,
+    CYCLOMATIC_COMPLEXITY,
+    /** Instructions between taking a lock and releasing it, the whole method for a synchronized one. */
+    CRITICAL_SECTION_SIZE,
+    /** Calls made while holding a lock, other than to lock operations. */
+    LOCKED_CALL_COUNT
+}
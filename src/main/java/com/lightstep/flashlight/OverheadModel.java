@@ -0,0 +1,77 @@
+package com.lightstep.flashlight;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates the cost of a span per call. The work of a call is approximated from its instruction count, multiplied
+ * for every level of loop nesting, plus a fixed cost per method call; leaves and small methods do little work, so a
+ * span is a large share of their latency. Getters are assumed to be inlined away entirely.
+ *
+ * <p>The cost of instrumenting a method is that share times its invocations per second. Methods missing from the
+ * invocation counts are assumed to run once per second, so without counts the cost is the share alone.
+ */
+class OverheadModel {
+    static final double SPAN_NANOS = 1_000;
+    private static final double NANOS_PER_INSTRUCTION = 1;
+    private static final double NANOS_PER_CALL = 20;
+    private static final int ITERATIONS_PER_LOOP = 10;
+
+    private final Map<String, Double> invocationsPerSecond;
+
+    OverheadModel() {
+        this(Map.of());
+    }
+
+    /** {@code invocationsPerSecond} is keyed by {@code className.methodName}. */
+    OverheadModel(Map<String, Double> invocationsPerSecond) {
+        this.invocationsPerSecond = invocationsPerSecond;
+    }
+
+    /**
+     * Reads invocation counts, one method per line as {@code className.methodName callsPerSecond}. Blank lines and
+     * lines starting with {@code #} are skipped.
+     */
+    static OverheadModel read(Path invocations) throws IOException {
+        List<String> lines = Files.readAllLines(invocations, StandardCharsets.UTF_8);
+        Map<String, Double> invocationsPerSecond = new HashMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            try {
+                if (fields.length != 2) {
+                    throw new NumberFormatException("expected a method and a number");
+                }
+                invocationsPerSecond.merge(fields[0], Double.parseDouble(fields[1]), Double::sum);
+            } catch (NumberFormatException e) {
+                throw new IOException(String.format("%s:%d: %s", invocations, i + 1, e.getMessage()), e);
+            }
+        }
+        return new OverheadModel(invocationsPerSecond);
+    }
+
+    /** Returns the share of the latency of a call that a span adds, between 0 and 1. */
+    public double overhead(AnalyzedClass analyzedClass, int method) {
+        if (analyzedClass.hasFlag(method, AnalyzedClass.GETTER)) {
+            return 1;
+        }
+        double work = analyzedClass.metric(Metric.INSTRUCTION_COUNT, method)
+                        * NANOS_PER_INSTRUCTION
+                        * Math.pow(ITERATIONS_PER_LOOP, analyzedClass.metric(Metric.LOOP_DEPTH, method))
+                + analyzedClass.methodCallCount(method) * NANOS_PER_CALL;
+        return SPAN_NANOS / (SPAN_NANOS + work);
+    }
+
+    public double cost(AnalyzedClass analyzedClass, int method) {
+        String key = analyzedClass.getClassName() + '.' + analyzedClass.methodName(method);
+        return overhead(analyzedClass, method) * invocationsPerSecond.getOrDefault(key, 1.0);
+    }
+}
@@ -0,0 +1,107 @@
+package com.lightstep.flashlight;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Name patterns with a value each, compiled for lookups whose cost depends on the length of the name but not on the
+ * number of patterns. A pattern is an exact name, a prefix followed by {@code *}, {@code *} followed by a suffix, or
+ * {@code *} alone to match every name. Exact names and prefixes share one trie, suffixes are stored reversed in a
+ * second one, so a name can be matched in place as a region of a longer string.
+ */
+class PatternIndex<T> {
+    private static class Node<T> {
+        private final Map<Character, Node<T>> children = new HashMap<>();
+        // values of patterns ending here with a '*', and of exact names ending here
+        private final List<T> values = new ArrayList<>(1);
+        private final List<T> exactValues = new ArrayList<>(1);
+    }
+
+    private final Node<T> prefixes = new Node<>();
+    private final Node<T> suffixes = new Node<>();
+    private boolean empty = true;
+
+    static void validate(String pattern) {
+        int wildcard = pattern.indexOf('*');
+        if (pattern.isEmpty()
+                || (wildcard >= 0 && wildcard != 0 && wildcard != pattern.length() - 1)
+                || (wildcard >= 0 && pattern.indexOf('*', wildcard + 1) >= 0)) {
+            throw new IllegalArgumentException(
+                    "Patterns are a name, 'prefix*', '*suffix' or '*': '" + pattern + "'");
+        }
+    }
+
+    public void add(String pattern, T value) {
+        validate(pattern);
+        empty = false;
+        if (pattern.equals("*")) {
+            prefixes.values.add(value);
+        } else if (pattern.endsWith("*")) {
+            Node<T> node = prefixes;
+            for (int i = 0; i < pattern.length() - 1; i++) {
+                node = node.children.computeIfAbsent(pattern.charAt(i), key -> new Node<>());
+            }
+            node.values.add(value);
+        } else if (pattern.startsWith("*")) {
+            Node<T> node = suffixes;
+            for (int i = pattern.length() - 1; i > 0; i--) {
+                node = node.children.computeIfAbsent(pattern.charAt(i), key -> new Node<>());
+            }
+            node.values.add(value);
+        } else {
+            Node<T> node = prefixes;
+            for (int i = 0; i < pattern.length(); i++) {
+                node = node.children.computeIfAbsent(pattern.charAt(i), key -> new Node<>());
+            }
+            node.exactValues.add(value);
+        }
+    }
+
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /** Passes the value of every pattern that matches {@code name} to {@code consumer}. */
+    public void forEachMatch(String name, Consumer<T> consumer) {
+        Node<T> node = prefixes;
+        for (int i = 0; node != null; i++) {
+            node.values.forEach(consumer);
+            if (i == name.length()) {
+                node.exactValues.forEach(consumer);
+            }
+            node = i < name.length() ? node.children.get(name.charAt(i)) : null;
+        }
+        // the root of the suffix trie has no values, '*' is stored as the empty prefix
+        node = suffixes;
+        for (int i = name.length() - 1; node != null; i--) {
+            node.values.forEach(consumer);
+            node = i >= 0 ? node.children.get(name.charAt(i)) : null;
+        }
+    }
+
+    public boolean matches(String name) {
+        return matches(name, 0, name.length());
+    }
+
+    /** Returns whether a pattern matches {@code name.substring(start, end)}, without creating the substring. */
+    public boolean matches(String name, int start, int end) {
+        Node<T> node = prefixes;
+        for (int i = start; node != null; i++) {
+            if (!node.values.isEmpty() || (i == end && !node.exactValues.isEmpty())) {
+                return true;
+            }
+            node = i < end ? node.children.get(name.charAt(i)) : null;
+        }
+        node = suffixes;
+        for (int i = end - 1; node != null; i--) {
+            if (!node.values.isEmpty()) {
+                return true;
+            }
+            node = i >= start ? node.children.get(name.charAt(i)) : null;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,350 @@
+package com.lightstep.flashlight;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.objectweb.asm.Type;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.error.YAMLException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Classification rules, read from YAML or JSON; {@code default-rules.yaml} documents the format. Rules declare the
+ * calls that count as client and repository calls, the lock operations of the {@link Category#LOCK_CONTENTION}
+ * category, the annotations of the {@link Category#ANNOTATED} category, the classes left out of a category, the
+ * excluded method names and the thresholds.
+ *
+ * <p>Call rules are indexed by their owner pattern, so matching an invoke instruction walks one trie no matter how many
+ * rules there are, and only the rules whose owner matches check name, descriptor and return type.
+ */
+class Rules {
+    private static final String DEFAULT_RULES = "default-rules.yaml";
+    private static final Map<Category, Integer> CALL_FLAGS = Map.of(
+            Category.CLIENT_CALL, AnalyzedClass.CLIENT_CALL,
+            Category.REPOSITORY_CALL, AnalyzedClass.REPOSITORY_CALL);
+    // the lock operations of the LOCK_CONTENTION category are call rules as well, with flags of their own
+    private static final Map<String, Integer> LOCK_FLAGS = Map.of(
+            "acquire", AnalyzedClass.LOCK_ACQUIRE,
+            "release", AnalyzedClass.LOCK_RELEASE,
+            "waits", AnalyzedClass.LOCK_WAIT);
+
+    private static class CallRule {
+        private final int flag;
+        private final PatternIndex<Boolean> names = new PatternIndex<>();
+        private final PatternIndex<Boolean> descriptors = new PatternIndex<>();
+        private final PatternIndex<Boolean> ignoredReturnTypes = new PatternIndex<>();
+
+        CallRule(int flag) {
+            this.flag = flag;
+        }
+
+        boolean matches(String name, String descriptor, int returnTypeStart) {
+            return names.matches(name)
+                    && descriptors.matches(descriptor)
+                    && !(descriptor.charAt(returnTypeStart) == 'L'
+                            && ignoredReturnTypes.matches(descriptor, returnTypeStart + 1, descriptor.length() - 1));
+        }
+    }
+
+    private static volatile Rules defaults;
+
+    private final HashCode fingerprint;
+    private final MethodNameFilter excludedMethods;
+    private final int methodCallCountThreshold;
+    private final int branchCountThreshold;
+    private final PatternIndex<CallRule> callRules;
+    private final PatternIndex<Boolean> annotations;
+    private final Map<Category, PatternIndex<Boolean>> excludedClasses;
+    // the call rules whose owner pattern matches, per owner in internal form
+    private final Map<String, CallRule[]> callRulesByOwner = new ConcurrentHashMap<>();
+
+    private Rules(
+            HashCode fingerprint,
+            MethodNameFilter excludedMethods,
+            int methodCallCountThreshold,
+            int branchCountThreshold,
+            PatternIndex<CallRule> callRules,
+            PatternIndex<Boolean> annotations,
+            Map<Category, PatternIndex<Boolean>> excludedClasses) {
+        this.fingerprint = fingerprint;
+        this.excludedMethods = excludedMethods;
+        this.methodCallCountThreshold = methodCallCountThreshold;
+        this.branchCountThreshold = branchCountThreshold;
+        this.callRules = callRules;
+        this.annotations = annotations;
+        this.excludedClasses = excludedClasses;
+    }
+
+    static Rules defaults() {
+        if (defaults == null) {
+            try (InputStream in = Objects.requireNonNull(Rules.class.getResourceAsStream(DEFAULT_RULES))) {
+                defaults = parse(new String(in.readAllBytes(), StandardCharsets.UTF_8), DEFAULT_RULES);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return defaults;
+    }
+
+    static Rules read(Path file) throws IOException {
+        return parse(Files.readString(file, StandardCharsets.UTF_8), file.toString());
+    }
+
+    static Rules parse(String text, String source) throws IOException {
+        try {
+            Object document = new Yaml(new SafeConstructor(new LoaderOptions())).load(text);
+            return compile(
+                    Hashing.murmur3_128().hashString(text, StandardCharsets.UTF_8),
+                    document == null ? Map.of() : map(document, "rules"));
+        } catch (YAMLException | IllegalArgumentException e) {
+            throw new IOException(source + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static Rules compile(HashCode fingerprint, Map<String, Object> document) {
+        checkKeys(document, "rules", Set.of("excludedMethods", "thresholds", "categories"));
+        MethodNameFilter excludedMethods =
+                new MethodNameFilter(strings(document.get("excludedMethods"), "excludedMethods"));
+
+        Map<String, Object> thresholds = map(document.getOrDefault("thresholds", Map.of()), "thresholds");
+        checkKeys(thresholds, "thresholds", Set.of(Category.HIGH_CALL_COUNT.name(), Category.HIGH_BRANCH_COUNT.name()));
+        int methodCallCountThreshold = integer(thresholds.get(Category.HIGH_CALL_COUNT.name()), Integer.MAX_VALUE);
+        int branchCountThreshold = integer(thresholds.get(Category.HIGH_BRANCH_COUNT.name()), Integer.MAX_VALUE);
+
+        PatternIndex<CallRule> callRules = new PatternIndex<>();
+        PatternIndex<Boolean> annotations = new PatternIndex<>();
+        Map<Category, PatternIndex<Boolean>> excludedClasses = new EnumMap<>(Category.class);
+        Map<String, Object> categories = map(document.getOrDefault("categories", Map.of()), "categories");
+        for (Map.Entry<String, Object> entry : categories.entrySet()) {
+            Category category = category(entry.getKey());
+            String where = "categories." + entry.getKey();
+            Map<String, Object> rules = map(entry.getValue(), where);
+            checkKeys(rules, where, Set.of("calls", "acquire", "release", "waits", "annotations", "excludeClasses"));
+            if (rules.containsKey("calls")) {
+                if (!CALL_FLAGS.containsKey(category)) {
+                    throw new IllegalArgumentException(where + ": only " + CALL_FLAGS.keySet() + " have calls");
+                }
+                for (Object call : list(rules.get("calls"), where + ".calls")) {
+                    addCallRule(callRules, CALL_FLAGS.get(category), map(call, where + ".calls"), where + ".calls");
+                }
+            }
+            for (Map.Entry<String, Integer> lockFlag : LOCK_FLAGS.entrySet()) {
+                String key = lockFlag.getKey();
+                if (!rules.containsKey(key)) {
+                    continue;
+                }
+                if (category != Category.LOCK_CONTENTION) {
+                    throw new IllegalArgumentException(where + ": only " + Category.LOCK_CONTENTION + " has " + key);
+                }
+                for (Object call : list(rules.get(key), where + "." + key)) {
+                    addCallRule(callRules, lockFlag.getValue(), map(call, where + "." + key), where + "." + key);
+                }
+            }
+            if (rules.containsKey("annotations")) {
+                if (category != Category.ANNOTATED) {
+                    throw new IllegalArgumentException(where + ": only " + Category.ANNOTATED + " has annotations");
+                }
+                for (String annotation : strings(rules.get("annotations"), where + ".annotations")) {
+                    annotations.add(annotation, true);
+                }
+            }
+            PatternIndex<Boolean> classes = new PatternIndex<>();
+            for (String className : strings(rules.get("excludeClasses"), where + ".excludeClasses")) {
+                classes.add(className, true);
+            }
+            excludedClasses.put(category, classes);
+        }
+        return new Rules(
+                fingerprint,
+                excludedMethods,
+                methodCallCountThreshold,
+                branchCountThreshold,
+                callRules,
+                annotations,
+                excludedClasses);
+    }
+
+    private static void addCallRule(
+            PatternIndex<CallRule> callRules, int flag, Map<String, Object> call, String where) {
+        checkKeys(call, where, Set.of("owner", "name", "descriptor", "ignoreReturning"));
+        CallRule rule = new CallRule(flag);
+        rule.names.add(string(call.getOrDefault("name", "*"), where + ".name"), true);
+        rule.descriptors.add(string(call.getOrDefault("descriptor", "*"), where + ".descriptor"), true);
+        // matched against the return type in internal form, straight from the descriptor
+        for (String returnType : strings(call.get("ignoreReturning"), where + ".ignoreReturning")) {
+            rule.ignoredReturnTypes.add(returnType.replace('.', '/'), true);
+        }
+        callRules.add(string(call.getOrDefault("owner", "*"), where + ".owner"), rule);
+    }
+
+    private static Category category(String name) {
+        try {
+            return Category.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                    "Unknown category '" + name + "', expected one of " + Arrays.toString(Category.values()));
+        }
+    }
+
+    private static void checkKeys(Map<String, Object> map, String where, Set<String> keys) {
+        for (String key : map.keySet()) {
+            if (!keys.contains(key)) {
+                throw new IllegalArgumentException(where + ": unknown key '" + key + "', expected one of " + keys);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> map(Object value, String where) {
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException(where + ": expected a mapping");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    private static List<?> list(Object value, String where) {
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException(where + ": expected a list");
+        }
+        return (List<?>) value;
+    }
+
+    private static List<String> strings(Object value, String where) {
+        if (value == null) {
+            return List.of();
+        }
+        List<?> list = list(value, where);
+        for (Object element : list) {
+            string(element, where);
+        }
+        @SuppressWarnings("unchecked")
+        List<String> strings = (List<String>) list;
+        return strings;
+    }
+
+    private static String string(Object value, String where) {
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException(where + ": expected a string");
+        }
+        PatternIndex.validate((String) value);
+        return (String) value;
+    }
+
+    private static int integer(Object value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Integer)) {
+            throw new IllegalArgumentException("thresholds: expected a number: '" + value + "'");
+        }
+        return (Integer) value;
+    }
+
+    /** Returns these rules with other thresholds; they do not change the fingerprint. */
+    Rules withThresholds(int methodCallCountThreshold, int branchCountThreshold) {
+        return new Rules(
+                fingerprint,
+                excludedMethods,
+                methodCallCountThreshold,
+                branchCountThreshold,
+                callRules,
+                annotations,
+                excludedClasses);
+    }
+
+    /** Returns these rules with other excluded method names; their code is not analyzed, so the fingerprint changes. */
+    Rules withExcludedMethods(List<String> excludedMethodNames) {
+        Hasher hasher = Hashing.murmur3_128().newHasher().putBytes(fingerprint.asBytes());
+        for (String name : excludedMethodNames) {
+            hasher.putString(name, StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+        return new Rules(
+                hasher.hash(),
+                new MethodNameFilter(excludedMethodNames),
+                methodCallCountThreshold,
+                branchCountThreshold,
+                callRules,
+                annotations,
+                excludedClasses);
+    }
+
+    /** Identifies the rules for the analysis cache; results analyzed with other rules are not reused. */
+    public HashCode fingerprint() {
+        return fingerprint;
+    }
+
+    public MethodNameFilter excludedMethods() {
+        return excludedMethods;
+    }
+
+    public int methodCallCountThreshold() {
+        return methodCallCountThreshold;
+    }
+
+    public int branchCountThreshold() {
+        return branchCountThreshold;
+    }
+
+    /**
+     * Returns the {@link AnalyzedClass} flags of an invoke instruction, with {@code owner} in internal form. Owners are
+     * matched once and remembered, the rest of the call is matched in place, so a call of a known owner allocates
+     * nothing.
+     */
+    public int callFlags(String owner, String name, String descriptor) {
+        if (callRules.isEmpty()) {
+            return 0;
+        }
+        CallRule[] ownerRules = callRulesByOwner.get(owner);
+        if (ownerRules == null) {
+            List<CallRule> matching = new ArrayList<>();
+            callRules.forEachMatch(owner.replace('/', '.'), matching::add);
+            ownerRules = matching.toArray(new CallRule[0]);
+            callRulesByOwner.putIfAbsent(owner, ownerRules);
+        }
+        int returnTypeStart = descriptor.lastIndexOf(')') + 1;
+        if (ownerRules.length == 0 || returnsOwner(owner, descriptor, returnTypeStart)) {
+            return 0;
+        }
+        int flags = 0;
+        for (CallRule rule : ownerRules) {
+            if (rule.matches(name, descriptor, returnTypeStart)) {
+                flags |= rule.flag;
+            }
+        }
+        return flags;
+    }
+
+    // calls returning their own owner configure an object, like a builder, rather than use it
+    private static boolean returnsOwner(String owner, String descriptor, int returnTypeStart) {
+        return descriptor.length() - returnTypeStart == owner.length() + 2
+                && descriptor.charAt(returnTypeStart) == 'L'
+                && descriptor.regionMatches(returnTypeStart + 1, owner, 0, owner.length());
+    }
+
+    /** Returns whether {@code descriptor}, e.g. {@code Lcom/example/Scheduled;}, is an annotation of the rules. */
+    public boolean isAnnotation(String descriptor) {
+        return !annotations.isEmpty() && annotations.matches(Type.getType(descriptor).getClassName());
+    }
+
+    /** Returns whether the methods of {@code className} are left out of {@code category}. */
+    public boolean excludesClass(Category category, String className) {
+        PatternIndex<Boolean> classes = excludedClasses.get(category);
+        return classes != null && classes.matches(className);
+    }
+}
@@ -0,0 +1,94 @@
+package com.lightstep.flashlight;
+
+import javax.annotation.Nullable;
+
+/**
+ * How {@link ClassScanner} and {@link ClassPathReader} scan: the analysis threads, whether archives are memory mapped,
+ * the analysis cache, the rules, the class filter and the stats. Each {@code with} method returns a copy.
+ */
+class ScanOptions {
+    private final int threads;
+    private final boolean mapArchives;
+    @Nullable private final AnalysisCache cache;
+    private final Rules rules;
+    private final ClassFilter filter;
+    @Nullable private final ScanStats stats;
+
+    private ScanOptions(
+            int threads,
+            boolean mapArchives,
+            @Nullable AnalysisCache cache,
+            Rules rules,
+            ClassFilter filter,
+            @Nullable ScanStats stats) {
+        this.threads = threads;
+        this.mapArchives = mapArchives;
+        this.cache = cache;
+        this.rules = rules;
+        this.filter = filter;
+        this.stats = stats;
+    }
+
+    /** One thread, no memory mapping, no cache or stats, the default rules and every class. */
+    static ScanOptions defaults() {
+        return new ScanOptions(1, false, null, Rules.defaults(), ClassFilter.ALL, null);
+    }
+
+    /** Analyzes classes on a work-stealing pool of {@code threads} threads. */
+    ScanOptions withThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        return new ScanOptions(threads, mapArchives, cache, rules, filter, stats);
+    }
+
+    /** Memory maps archives instead of reading them through {@link java.util.zip.ZipFile}. */
+    ScanOptions withMapArchives(boolean mapArchives) {
+        return new ScanOptions(threads, mapArchives, cache, rules, filter, stats);
+    }
+
+    /** Reuses the analysis of unchanged classes; the cache must have been loaded with the fingerprint of the rules. */
+    ScanOptions withCache(@Nullable AnalysisCache cache) {
+        return new ScanOptions(threads, mapArchives, cache, rules, filter, stats);
+    }
+
+    ScanOptions withRules(Rules rules) {
+        return new ScanOptions(threads, mapArchives, cache, rules, filter, stats);
+    }
+
+    /** Only scans the classes that pass {@code filter}, which is tested before a class file is read. */
+    ScanOptions withFilter(ClassFilter filter) {
+        return new ScanOptions(threads, mapArchives, cache, rules, filter, stats);
+    }
+
+    /** Records the time spent enumerating, reading and parsing classes, per root, in {@code stats}. */
+    ScanOptions withStats(@Nullable ScanStats stats) {
+        return new ScanOptions(threads, mapArchives, cache, rules, filter, stats);
+    }
+
+    int threads() {
+        return threads;
+    }
+
+    boolean mapArchives() {
+        return mapArchives;
+    }
+
+    @Nullable
+    AnalysisCache cache() {
+        return cache;
+    }
+
+    Rules rules() {
+        return rules;
+    }
+
+    ClassFilter filter() {
+        return filter;
+    }
+
+    @Nullable
+    ScanStats stats() {
+        return stats;
+    }
+}
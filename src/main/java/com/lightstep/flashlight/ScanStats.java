@@ -0,0 +1,374 @@
+package com.lightstep.flashlight;
+
+import javax.annotation.Nullable;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timers of one scan, for {@code --stats}. Analysis threads only add to {@link LongAdder}s; the slowest
+ * classes take a lock only for classes slower than the slowest ones so far.
+ *
+ * <p>Reading and parsing are summed over the analysis threads, so with several threads they can add up to more than
+ * the wall time. Each root's time is its enumeration plus the reading and parsing of its classes.
+ *
+ * <p>The peak use of the heap pools is left alone, as it belongs to the whole JVM, such as the build that runs the
+ * scan. The heap high-water mark sums, per heap pool, its peak use if that rose during the scan, and otherwise the
+ * highest use sampled after each root is enumerated, after aggregation and at the end; it can exceed the actual peak.
+ */
+class ScanStats {
+    private static final int SLOWEST_CLASS_COUNT = 10;
+
+    enum Phase {
+        ENUMERATION,
+        READING,
+        PARSING,
+        AGGREGATION;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /** A folder or jar on the classpath. */
+    static class Root {
+        private final String path;
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder classCount = new LongAdder();
+
+        Root(String path) {
+            this.path = path;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long nanos() {
+            return nanos.sum();
+        }
+
+        public long classCount() {
+            return classCount.sum();
+        }
+    }
+
+    /** A class and how long it took to read and parse. */
+    static class ClassTime {
+        private final String className;
+        private final long nanos;
+
+        ClassTime(String className, long nanos) {
+            this.className = className;
+            this.nanos = nanos;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public long nanos() {
+            return nanos;
+        }
+    }
+
+    private final long startNanos = System.nanoTime();
+    private final long startGcCount;
+    private final long startGcMillis;
+    private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+    private final LongAdder classCount = new LongAdder();
+    private final LongAdder cachedClassCount = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final Map<String, Root> roots = new LinkedHashMap<>();
+    private final PriorityQueue<ClassTime> slowestClasses =
+            new PriorityQueue<>(Comparator.comparingLong(ClassTime::nanos));
+    private volatile long slowestClassThreshold;
+    private long stopNanos;
+    private final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+    private final long[] startPeakBytes;
+    private final long[] sampledPeakBytes;
+    private long heapPeakBytes;
+    private long gcCount;
+    private long gcMillis;
+
+    /** Starts the wall time and takes the peak use of the heap pools so far as the baseline. */
+    ScanStats() {
+        for (int phase = 0; phase < phaseNanos.length; phase++) {
+            phaseNanos[phase] = new LongAdder();
+        }
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool);
+            }
+        }
+        startPeakBytes = new long[heapPools.size()];
+        sampledPeakBytes = new long[heapPools.size()];
+        for (int pool = 0; pool < heapPools.size(); pool++) {
+            startPeakBytes[pool] = heapPools.get(pool).getPeakUsage().getUsed();
+        }
+        sampleHeap();
+        long[] gc = gc();
+        startGcCount = gc[0];
+        startGcMillis = gc[1];
+    }
+
+    /** Returns the stats of {@code root}, adding it on first use. */
+    synchronized Root root(Path root) {
+        return roots.computeIfAbsent(root.toString(), Root::new);
+    }
+
+    void enumerated(Root root, long nanos) {
+        phaseNanos[Phase.ENUMERATION.ordinal()].add(nanos);
+        root.nanos.add(nanos);
+        sampleHeap();
+    }
+
+    void read(int byteCount, long nanos) {
+        phaseNanos[Phase.READING.ordinal()].add(nanos);
+        bytesRead.add(byteCount);
+    }
+
+    void parsed(long nanos) {
+        phaseNanos[Phase.PARSING.ordinal()].add(nanos);
+    }
+
+    void aggregated(long nanos) {
+        phaseNanos[Phase.AGGREGATION.ordinal()].add(nanos);
+        sampleHeap();
+    }
+
+    /**
+     * Records a class of {@code root}, if known, that was read and parsed, or taken from the analysis cache, in
+     * {@code nanos}.
+     */
+    void analyzed(ClassFile classFile, @Nullable Root root, long nanos, boolean cached) {
+        classCount.increment();
+        if (cached) {
+            cachedClassCount.increment();
+        }
+        if (root != null) {
+            root.nanos.add(nanos);
+            root.classCount.increment();
+        }
+        if (nanos > slowestClassThreshold) {
+            addSlowClass(classFile.getClassName(), nanos);
+        }
+    }
+
+    private synchronized void addSlowClass(String className, long nanos) {
+        slowestClasses.add(new ClassTime(className, nanos));
+        if (slowestClasses.size() > SLOWEST_CLASS_COUNT) {
+            slowestClasses.poll();
+            slowestClassThreshold = slowestClasses.peek().nanos();
+        }
+    }
+
+    /** Stops the wall time and takes the heap high-water mark and GC time. */
+    synchronized void stop() {
+        stopNanos = System.nanoTime();
+        sampleHeap();
+        heapPeakBytes = 0;
+        for (int pool = 0; pool < heapPools.size(); pool++) {
+            long peakBytes = heapPools.get(pool).getPeakUsage().getUsed();
+            heapPeakBytes += peakBytes > startPeakBytes[pool] ? peakBytes : sampledPeakBytes[pool];
+        }
+        long[] gc = gc();
+        gcCount = gc[0] - startGcCount;
+        gcMillis = gc[1] - startGcMillis;
+    }
+
+    private synchronized void sampleHeap() {
+        for (int pool = 0; pool < heapPools.size(); pool++) {
+            sampledPeakBytes[pool] = Math.max(sampledPeakBytes[pool], heapPools.get(pool).getUsage().getUsed());
+        }
+    }
+
+    // collections and milliseconds of all collectors, leaving out the ones that do not report them
+    private static long[] gc() {
+        long[] gc = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gc[0] += Math.max(0, collector.getCollectionCount());
+            gc[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return gc;
+    }
+
+    public long classCount() {
+        return classCount.sum();
+    }
+
+    public long cachedClassCount() {
+        return cachedClassCount.sum();
+    }
+
+    public long bytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long nanos(Phase phase) {
+        return phaseNanos[phase.ordinal()].sum();
+    }
+
+    /** Returns the wall time from creation to {@link #stop()}. */
+    public synchronized long wallNanos() {
+        return stopNanos - startNanos;
+    }
+
+    public double classesPerSecond() {
+        long wallNanos = wallNanos();
+        return wallNanos > 0 ? classCount() * (double) TimeUnit.SECONDS.toNanos(1) / wallNanos : 0;
+    }
+
+    /** Returns the roots, slowest first. */
+    public synchronized List<Root> roots() {
+        List<Root> sorted = new ArrayList<>(roots.values());
+        sorted.sort(Comparator.comparingLong(Root::nanos).reversed());
+        return sorted;
+    }
+
+    /** Returns up to ten classes that took longest to read and parse, slowest first. */
+    public synchronized List<ClassTime> slowestClasses() {
+        List<ClassTime> sorted = new ArrayList<>(slowestClasses);
+        sorted.sort(Comparator.comparingLong(ClassTime::nanos).reversed());
+        return sorted;
+    }
+
+    public synchronized long heapPeakBytes() {
+        return heapPeakBytes;
+    }
+
+    public synchronized long gcCount() {
+        return gcCount;
+    }
+
+    public synchronized long gcMillis() {
+        return gcMillis;
+    }
+
+    String text() {
+        StringBuilder text = new StringBuilder("Scan stats:\n");
+        text.append(String.format(
+                Locale.ROOT,
+                "\t%d classes in %.1f ms, %.0f classes/s, %d from the analysis cache%n",
+                classCount(), millis(wallNanos()), classesPerSecond(), cachedClassCount()));
+        text.append(String.format(Locale.ROOT, "\t%d bytes read%n", bytesRead()));
+        for (Phase phase : Phase.values()) {
+            text.append(String.format(Locale.ROOT, "\t%s: %.1f ms%n", phase.label(), millis(nanos(phase))));
+        }
+        text.append(String.format(
+                Locale.ROOT, "\theap high-water mark: %.1f MB%n", heapPeakBytes() / (1024.0 * 1024)));
+        text.append(String.format(Locale.ROOT, "\tGC: %d collections, %d ms%n", gcCount(), gcMillis()));
+        text.append("\tby root:\n");
+        for (Root root : roots()) {
+            text.append(String.format(
+                    Locale.ROOT,
+                    "\t\t%.1f ms %s (%d classes)%n",
+                    millis(root.nanos()),
+                    root.getPath(),
+                    root.classCount()));
+        }
+        text.append("\tslowest classes:\n");
+        for (ClassTime classTime : slowestClasses()) {
+            text.append(String.format(
+                    Locale.ROOT, "\t\t%.1f ms %s%n", millis(classTime.nanos()), classTime.getClassName()));
+        }
+        return text.toString();
+    }
+
+    String json() {
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"classes\":").append(classCount());
+        json.append(",\"cachedClasses\":").append(cachedClassCount());
+        json.append(",\"bytesRead\":").append(bytesRead());
+        json.append(",\"seconds\":").append(seconds(wallNanos()));
+        json.append(",\"classesPerSecond\":").append(String.format(Locale.ROOT, "%.1f", classesPerSecond()));
+        json.append(",\"phases\":{");
+        for (Phase phase : Phase.values()) {
+            json.append(phase.ordinal() == 0 ? "" : ",")
+                    .append(Json.quote(phase.label())).append(':').append(seconds(nanos(phase)));
+        }
+        json.append("},\"heapPeakBytes\":").append(heapPeakBytes());
+        json.append(",\"gcCollections\":").append(gcCount());
+        json.append(",\"gcSeconds\":").append(seconds(TimeUnit.MILLISECONDS.toNanos(gcMillis())));
+        json.append(",\"roots\":[");
+        String separator = "";
+        for (Root root : roots()) {
+            json.append(separator).append("{\"path\":").append(Json.quote(root.getPath()))
+                    .append(",\"classes\":").append(root.classCount())
+                    .append(",\"seconds\":").append(seconds(root.nanos())).append('}');
+            separator = ",";
+        }
+        json.append("],\"slowestClasses\":[");
+        separator = "";
+        for (ClassTime classTime : slowestClasses()) {
+            json.append(separator).append("{\"class\":").append(Json.quote(classTime.getClassName()))
+                    .append(",\"seconds\":").append(seconds(classTime.nanos())).append('}');
+            separator = ",";
+        }
+        return json.append("]}").toString();
+    }
+
+    /** Returns the stats in the Prometheus text exposition format, e.g. for a node exporter's textfile collector. */
+    String prometheus() {
+        StringBuilder metrics = new StringBuilder();
+        metric(metrics, "flashlight_classes_total", "counter", "Classes analyzed or taken from the analysis cache.");
+        metrics.append("flashlight_classes_total ").append(classCount()).append('\n');
+        metric(metrics, "flashlight_cached_classes_total", "counter", "Classes taken from the analysis cache.");
+        metrics.append("flashlight_cached_classes_total ").append(cachedClassCount()).append('\n');
+        metric(metrics, "flashlight_read_bytes_total", "counter", "Bytes of class files read.");
+        metrics.append("flashlight_read_bytes_total ").append(bytesRead()).append('\n');
+        metric(metrics, "flashlight_scan_seconds", "gauge", "Wall time of the scan.");
+        metrics.append("flashlight_scan_seconds ").append(seconds(wallNanos())).append('\n');
+        metric(metrics, "flashlight_phase_seconds_total", "counter", "Time per phase, summed over threads.");
+        for (Phase phase : Phase.values()) {
+            metrics.append("flashlight_phase_seconds_total{phase=\"").append(phase.label()).append("\"} ")
+                    .append(seconds(nanos(phase))).append('\n');
+        }
+        metric(metrics, "flashlight_root_seconds_total", "counter", "Time per folder or jar, summed over threads.");
+        for (Root root : roots()) {
+            metrics.append("flashlight_root_seconds_total{root=\"").append(label(root.getPath())).append("\"} ")
+                    .append(seconds(root.nanos())).append('\n');
+        }
+        metric(metrics, "flashlight_class_seconds", "gauge", "Time to read and parse the slowest classes.");
+        for (ClassTime classTime : slowestClasses()) {
+            metrics.append("flashlight_class_seconds{class=\"").append(label(classTime.getClassName())).append("\"} ")
+                    .append(seconds(classTime.nanos())).append('\n');
+        }
+        metric(metrics, "flashlight_heap_peak_bytes", "gauge", "Summed peak use of the heap pools.");
+        metrics.append("flashlight_heap_peak_bytes ").append(heapPeakBytes()).append('\n');
+        metric(metrics, "flashlight_gc_collections_total", "counter", "Garbage collections during the scan.");
+        metrics.append("flashlight_gc_collections_total ").append(gcCount()).append('\n');
+        metric(metrics, "flashlight_gc_seconds_total", "counter", "Garbage collection time during the scan.");
+        metrics.append("flashlight_gc_seconds_total ")
+                .append(seconds(TimeUnit.MILLISECONDS.toNanos(gcMillis()))).append('\n');
+        return metrics.toString();
+    }
+
+    private static void metric(StringBuilder metrics, String name, String type, String help) {
+        metrics.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        metrics.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String label(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+}
@@ -0,0 +1,193 @@
+package com.lightstep.flashlight;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Compares the selected methods of two versions of a classpath, such as two releases. Methods are compared by the
+ * {@link AnalyzingMethodVisitor#fingerprint() fingerprint} of their instructions first: only methods whose
+ * fingerprint, descriptors or flags changed, overloads together, are classified again, and a class whose methods all
+ * kept them is skipped as a whole.
+ *
+ * <p>Recompiling unchanged code keeps the fingerprints, so classes that differ only in line numbers or constant pool
+ * order report nothing. The changes are the methods that were added to or removed from the selection and the ones
+ * whose categories changed.
+ */
+class SelectionDiff {
+    private final MethodSelection oldSelection;
+    private final MethodSelection newSelection;
+    private int classCount;
+    private int changedClassCount;
+    private int changedMethodCount;
+
+    /** A method whose categories differ between the versions; no categories means the method is not selected. */
+    static class Change {
+        private final String className;
+        private final String methodName;
+        private final int oldCategories;
+        private final int newCategories;
+
+        Change(String className, String methodName, int oldCategories, int newCategories) {
+            this.className = className;
+            this.methodName = methodName;
+            this.oldCategories = oldCategories;
+            this.newCategories = newCategories;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        /** Returns the categories in the old version as a bit set of {@link Category#bit()}. */
+        public int getOldCategories() {
+            return oldCategories;
+        }
+
+        public int getNewCategories() {
+            return newCategories;
+        }
+
+        /** Returns e.g. {@code +com.example.App.run [CLIENT_CALL]}, or {@code ~...} with the old categories first. */
+        @Override
+        public String toString() {
+            String method = className + "." + methodName + " ";
+            if (oldCategories == 0) {
+                return "+" + method + names(newCategories);
+            }
+            if (newCategories == 0) {
+                return "-" + method + names(oldCategories);
+            }
+            return "~" + method + names(oldCategories) + " -> " + names(newCategories);
+        }
+
+        private static List<Category> names(int categories) {
+            List<Category> names = new ArrayList<>();
+            for (Category category : Category.values()) {
+                if ((categories & category.bit()) != 0) {
+                    names.add(category);
+                }
+            }
+            return names;
+        }
+    }
+
+    /** The selections must have the same settings; they classify the old and the new version respectively. */
+    SelectionDiff(MethodSelection oldSelection, MethodSelection newSelection) {
+        this.oldSelection = oldSelection;
+        this.newSelection = newSelection;
+    }
+
+    /** Returns the changes from {@code oldClasses} to {@code newClasses}, sorted by class and method name. */
+    public List<Change> compare(List<AnalyzedClass> oldClasses, List<AnalyzedClass> newClasses) {
+        oldSelection.passEnclosedFlags(oldClasses);
+        newSelection.passEnclosedFlags(newClasses);
+        Map<String, AnalyzedClass> oldClassesByName = new LinkedHashMap<>();
+        for (AnalyzedClass oldClass : oldClasses) {
+            oldClassesByName.putIfAbsent(oldClass.getClassName(), oldClass);
+        }
+        List<Change> changes = new ArrayList<>();
+        for (AnalyzedClass newClass : newClasses) {
+            compare(oldClassesByName.remove(newClass.getClassName()), newClass, changes);
+        }
+        for (AnalyzedClass oldClass : oldClassesByName.values()) {
+            compare(oldClass, null, changes);
+        }
+        changes.sort(Comparator.comparing(Change::getClassName).thenComparing(Change::getMethodName));
+        return changes;
+    }
+
+    private void compare(@Nullable AnalyzedClass oldClass, @Nullable AnalyzedClass newClass, List<Change> changes) {
+        classCount++;
+        Map<String, Long> oldShapes = shapes(oldSelection, oldClass);
+        Map<String, Long> newShapes = shapes(newSelection, newClass);
+        if (oldShapes.equals(newShapes)) {
+            return;
+        }
+        changedClassCount++;
+        Set<String> changedMethods = new TreeSet<>();
+        oldShapes.forEach((methodName, shape) -> {
+            if (!shape.equals(newShapes.get(methodName))) {
+                changedMethods.add(methodName);
+            }
+        });
+        newShapes.forEach((methodName, shape) -> {
+            if (!shape.equals(oldShapes.get(methodName))) {
+                changedMethods.add(methodName);
+            }
+        });
+        changedMethodCount += changedMethods.size();
+
+        Map<String, Integer> oldCategories = categories(oldSelection, oldClass, changedMethods);
+        Map<String, Integer> newCategories = categories(newSelection, newClass, changedMethods);
+        String className = newClass != null ? newClass.getClassName() : oldClass.getClassName();
+        for (String methodName : changedMethods) {
+            int before = oldCategories.getOrDefault(methodName, 0);
+            int after = newCategories.getOrDefault(methodName, 0);
+            if (before != after) {
+                changes.add(new Change(className, methodName, before, after));
+            }
+        }
+    }
+
+    // everything that classification depends on within a class, per method name with its overloads combined
+    private static Map<String, Long> shapes(MethodSelection selection, @Nullable AnalyzedClass analyzedClass) {
+        Map<String, Long> shapes = new HashMap<>();
+        if (analyzedClass == null) {
+            return shapes;
+        }
+        for (int method = 0; method < analyzedClass.methodCount(); method++) {
+            String methodName = analyzedClass.methodName(method);
+            long shape = AnalyzingMethodVisitor.mix(
+                    AnalyzingMethodVisitor.mix(
+                            AnalyzingMethodVisitor.mix(0, analyzedClass.methodDescriptor(method)),
+                            analyzedClass.fingerprint(method)),
+                    analyzedClass.flags(method));
+            // overloads are summed, so that their order does not matter
+            shapes.merge(methodName, shape, Long::sum);
+        }
+        shapes.replaceAll((methodName, shape) -> AnalyzingMethodVisitor.mix(
+                shape, selection.enclosedFlags(analyzedClass.getClassName(), methodName)));
+        return shapes;
+    }
+
+    private static Map<String, Integer> categories(
+            MethodSelection selection, @Nullable AnalyzedClass analyzedClass, Set<String> methodNames) {
+        Map<String, Integer> categories = new HashMap<>();
+        if (analyzedClass == null) {
+            return categories;
+        }
+        for (int method = 0; method < analyzedClass.methodCount(); method++) {
+            String methodName = analyzedClass.methodName(method);
+            if (methodNames.contains(methodName)) {
+                categories.merge(methodName, selection.classify(analyzedClass, method), (left, right) -> left | right);
+            }
+        }
+        return categories;
+    }
+
+    /** Returns the number of classes compared, in either version. */
+    public int classCount() {
+        return classCount;
+    }
+
+    /** Returns the number of classes that had methods to classify again. */
+    public int changedClassCount() {
+        return changedClassCount;
+    }
+
+    /** Returns the number of method names, overloads together, that were classified again. */
+    public int changedMethodCount() {
+        return changedMethodCount;
+    }
+}
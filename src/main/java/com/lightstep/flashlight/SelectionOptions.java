@@ -0,0 +1,138 @@
+package com.lightstep.flashlight;
+
+import javax.annotation.Nullable;
+
+/**
+ * How {@link MethodSelection} classifies methods: the excluded method names and thresholds, by default those of the
+ * rules, plus the call graph, the execution profile and the blocking calls. Each {@code with} method returns a copy.
+ */
+class SelectionOptions {
+    private final Rules rules;
+    private final MethodNameFilter filteredMethods;
+    private final int methodCallCountThreshold;
+    private final int branchCountThreshold;
+    @Nullable private final CallGraph callGraph;
+    @Nullable private final ExecutionProfile profile;
+    private final BlockingCalls blockingCalls;
+
+    private SelectionOptions(
+            Rules rules,
+            MethodNameFilter filteredMethods,
+            int methodCallCountThreshold,
+            int branchCountThreshold,
+            @Nullable CallGraph callGraph,
+            @Nullable ExecutionProfile profile,
+            BlockingCalls blockingCalls) {
+        this.rules = rules;
+        this.filteredMethods = filteredMethods;
+        this.methodCallCountThreshold = methodCallCountThreshold;
+        this.branchCountThreshold = branchCountThreshold;
+        this.callGraph = callGraph;
+        this.profile = profile;
+        this.blockingCalls = blockingCalls;
+    }
+
+    /** The default rules, the default blocking calls and neither call graph nor profile. */
+    static SelectionOptions defaults() {
+        return of(Rules.defaults());
+    }
+
+    /** The excluded method names and thresholds of {@code rules}, the default blocking calls. */
+    static SelectionOptions of(Rules rules) {
+        return new SelectionOptions(
+                rules,
+                rules.excludedMethods(),
+                rules.methodCallCountThreshold(),
+                rules.branchCountThreshold(),
+                null,
+                null,
+                BlockingCalls.defaults());
+    }
+
+    SelectionOptions withFilteredMethods(MethodNameFilter filteredMethods) {
+        return new SelectionOptions(
+                rules,
+                filteredMethods,
+                methodCallCountThreshold,
+                branchCountThreshold,
+                callGraph,
+                profile,
+                blockingCalls);
+    }
+
+    SelectionOptions withThresholds(int methodCallCountThreshold, int branchCountThreshold) {
+        return new SelectionOptions(
+                rules,
+                filteredMethods,
+                methodCallCountThreshold,
+                branchCountThreshold,
+                callGraph,
+                profile,
+                blockingCalls);
+    }
+
+    /** Replaces the client and repository call categories by the remote I/O entry points of {@code callGraph}. */
+    SelectionOptions withCallGraph(@Nullable CallGraph callGraph) {
+        return new SelectionOptions(
+                rules,
+                filteredMethods,
+                methodCallCountThreshold,
+                branchCountThreshold,
+                callGraph,
+                profile,
+                blockingCalls);
+    }
+
+    /** Adds the hot remote I/O callers of {@code profile} and leaves out its hot CPU bound methods. */
+    SelectionOptions withProfile(@Nullable ExecutionProfile profile) {
+        return new SelectionOptions(
+                rules,
+                filteredMethods,
+                methodCallCountThreshold,
+                branchCountThreshold,
+                callGraph,
+                profile,
+                blockingCalls);
+    }
+
+    SelectionOptions withBlockingCalls(BlockingCalls blockingCalls) {
+        return new SelectionOptions(
+                rules,
+                filteredMethods,
+                methodCallCountThreshold,
+                branchCountThreshold,
+                callGraph,
+                profile,
+                blockingCalls);
+    }
+
+    Rules rules() {
+        return rules;
+    }
+
+    MethodNameFilter filteredMethods() {
+        return filteredMethods;
+    }
+
+    int methodCallCountThreshold() {
+        return methodCallCountThreshold;
+    }
+
+    int branchCountThreshold() {
+        return branchCountThreshold;
+    }
+
+    @Nullable
+    CallGraph callGraph() {
+        return callGraph;
+    }
+
+    @Nullable
+    ExecutionProfile profile() {
+        return profile;
+    }
+
+    BlockingCalls blockingCalls() {
+        return blockingCalls;
+    }
+}
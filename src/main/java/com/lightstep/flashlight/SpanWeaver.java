@@ -0,0 +1,395 @@
+package com.lightstep.flashlight;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.TypePath;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.objectweb.asm.Opcodes.ASM9;
+
+/**
+ * Weaves spans into the selected methods of class files ahead of time, so that the OpenTelemetry agent does not have
+ * to match them when they are loaded. The body of a woven method moves to a private synthetic method, and the method
+ * itself, with its name, descriptor, access and annotations unchanged, becomes a wrapper that starts a span, calls the
+ * body and ends the span, with the exception if the body throws one.
+ *
+ * <p>Spans are started and ended by a tracer class with two static methods, {@code Object start(String spanName)}
+ * and {@code void end(Object span, Throwable error)}. {@link #openTelemetryTracer} generates one for the OpenTelemetry
+ * API; tests and local runs can use any other class with these methods. Only the wrapper, whose code is generated
+ * here, needs a new stack map frame, so class files are woven without loading any class they refer to.
+ */
+class SpanWeaver {
+    static final String OPEN_TELEMETRY_TRACER = "com.lightstep.flashlight.FlashlightSpans";
+    private static final String BODY_SUFFIX = "$flashlight";
+    private static final String START_DESCRIPTOR = "(Ljava/lang/String;)Ljava/lang/Object;";
+    private static final String END_DESCRIPTOR = "(Ljava/lang/Object;Ljava/lang/Throwable;)V";
+    private static final int NOT_WOVEN = Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE | Opcodes.ACC_BRIDGE
+            | Opcodes.ACC_SYNTHETIC;
+
+    private final String tracer;
+    private int methodCount;
+
+    /** Weaves calls to {@code tracerClassName}, e.g. {@value #OPEN_TELEMETRY_TRACER}. */
+    SpanWeaver(String tracerClassName) {
+        this.tracer = tracerClassName.replace('.', '/');
+    }
+
+    /** Returns the number of methods woven so far; each overload of a selected method name counts. */
+    public int methodCount() {
+        return methodCount;
+    }
+
+    /**
+     * Returns {@code classFile} with spans around every method named in {@code methodNames}, overloads included, like
+     * the include list of the agent. Constructors, abstract, native, bridge and synthetic methods are left as they are.
+     */
+    public byte[] weave(byte[] classFile, Set<String> methodNames) {
+        ClassReader reader = new ClassReader(classFile);
+        // only the maximum stack sizes and locals are computed; frames are never, as that needs the class hierarchy
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        reader.accept(new WeavingClassVisitor(writer, methodNames), 0);
+        return writer.toByteArray();
+    }
+
+    private class WeavingClassVisitor extends ClassVisitor {
+        private final Set<String> methodNames;
+        private String className;
+        private String spanPrefix;
+        private boolean isInterface;
+        private boolean hasFrames;
+
+        WeavingClassVisitor(ClassVisitor classVisitor, Set<String> methodNames) {
+            super(ASM9, classVisitor);
+            this.methodNames = methodNames;
+        }
+
+        @Override
+        public void visit(
+                int version, int access, String name, String signature, String superName, String[] interfaces) {
+            className = name;
+            // span names are the class name without its package and the method name, like those of the agent
+            spanPrefix = name.substring(name.lastIndexOf('/') + 1) + ".";
+            isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+            hasFrames = (version & 0xFFFF) >= Opcodes.V1_6;
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(
+                int access, String name, String descriptor, String signature, String[] exceptions) {
+            if (!methodNames.contains(name) || name.startsWith("<") || (access & NOT_WOVEN) != 0) {
+                return super.visitMethod(access, name, descriptor, signature, exceptions);
+            }
+            int bodyAccess = (access & ~(Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED | Opcodes.ACC_VARARGS))
+                    | Opcodes.ACC_PRIVATE
+                    | Opcodes.ACC_SYNTHETIC;
+            MethodVisitor body = super.visitMethod(bodyAccess, name + BODY_SUFFIX, descriptor, signature, exceptions);
+            // a synchronized method keeps its monitor in the body, so that the span includes waiting for it
+            int wrapperAccess = access & ~Opcodes.ACC_SYNCHRONIZED;
+            MethodVisitor wrapper = super.visitMethod(wrapperAccess, name, descriptor, signature, exceptions);
+            methodCount++;
+            return new WeavingMethodVisitor(body, wrapper, wrapperAccess, name, descriptor);
+        }
+
+        // the annotations and parameters of a method stay with the wrapper, which is the method callers see
+        private class WeavingMethodVisitor extends MethodVisitor {
+            private final MethodVisitor wrapper;
+            private final int access;
+            private final String name;
+            private final String descriptor;
+
+            WeavingMethodVisitor(
+                    MethodVisitor body, MethodVisitor wrapper, int access, String name, String descriptor) {
+                super(ASM9, body);
+                this.wrapper = wrapper;
+                this.access = access;
+                this.name = name;
+                this.descriptor = descriptor;
+            }
+
+            @Override
+            public void visitParameter(String name, int access) {
+                wrapper.visitParameter(name, access);
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                return wrapper.visitAnnotation(descriptor, visible);
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(
+                    int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                return wrapper.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+            }
+
+            @Override
+            public void visitAnnotableParameterCount(int parameterCount, boolean visible) {
+                wrapper.visitAnnotableParameterCount(parameterCount, visible);
+            }
+
+            @Override
+            public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+                return wrapper.visitParameterAnnotation(parameter, descriptor, visible);
+            }
+
+            @Override
+            public void visitAttribute(Attribute attribute) {
+                wrapper.visitAttribute(attribute);
+            }
+
+            @Override
+            public void visitEnd() {
+                super.visitEnd();
+                writeWrapper();
+            }
+
+            private void writeWrapper() {
+                boolean isStatic = (access & Opcodes.ACC_STATIC) != 0;
+                Type[] argumentTypes = Type.getArgumentTypes(descriptor);
+                Type returnType = Type.getReturnType(descriptor);
+                List<Object> locals = new ArrayList<>();
+                if (!isStatic) {
+                    locals.add(className);
+                }
+                int spanLocal = isStatic ? 0 : 1;
+                for (Type argumentType : argumentTypes) {
+                    locals.add(frameType(argumentType));
+                    spanLocal += argumentType.getSize();
+                }
+                locals.add("java/lang/Object");
+
+                Label start = new Label();
+                Label end = new Label();
+                Label handler = new Label();
+                wrapper.visitCode();
+                wrapper.visitTryCatchBlock(start, end, handler, "java/lang/Throwable");
+                wrapper.visitLdcInsn(spanPrefix + name);
+                wrapper.visitMethodInsn(Opcodes.INVOKESTATIC, tracer, "start", START_DESCRIPTOR, false);
+                wrapper.visitVarInsn(Opcodes.ASTORE, spanLocal);
+                wrapper.visitLabel(start);
+                int local = 0;
+                if (!isStatic) {
+                    wrapper.visitVarInsn(Opcodes.ALOAD, local++);
+                }
+                for (Type argumentType : argumentTypes) {
+                    wrapper.visitVarInsn(argumentType.getOpcode(Opcodes.ILOAD), local);
+                    local += argumentType.getSize();
+                }
+                wrapper.visitMethodInsn(
+                        isStatic ? Opcodes.INVOKESTATIC : Opcodes.INVOKESPECIAL,
+                        className,
+                        name + BODY_SUFFIX,
+                        descriptor,
+                        isInterface);
+                wrapper.visitLabel(end);
+                // the return value stays on the stack while the span ends
+                wrapper.visitVarInsn(Opcodes.ALOAD, spanLocal);
+                wrapper.visitInsn(Opcodes.ACONST_NULL);
+                wrapper.visitMethodInsn(Opcodes.INVOKESTATIC, tracer, "end", END_DESCRIPTOR, false);
+                wrapper.visitInsn(returnType.getOpcode(Opcodes.IRETURN));
+
+                wrapper.visitLabel(handler);
+                if (hasFrames) {
+                    wrapper.visitFrame(
+                            Opcodes.F_NEW,
+                            locals.size(),
+                            locals.toArray(),
+                            1,
+                            new Object[] {"java/lang/Throwable"});
+                }
+                wrapper.visitInsn(Opcodes.DUP);
+                wrapper.visitVarInsn(Opcodes.ALOAD, spanLocal);
+                wrapper.visitInsn(Opcodes.SWAP);
+                wrapper.visitMethodInsn(Opcodes.INVOKESTATIC, tracer, "end", END_DESCRIPTOR, false);
+                wrapper.visitInsn(Opcodes.ATHROW);
+                wrapper.visitMaxs(0, 0);
+                wrapper.visitEnd();
+            }
+        }
+    }
+
+    private static Object frameType(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+            case Type.CHAR:
+            case Type.BYTE:
+            case Type.SHORT:
+            case Type.INT:
+                return Opcodes.INTEGER;
+            case Type.FLOAT:
+                return Opcodes.FLOAT;
+            case Type.LONG:
+                return Opcodes.LONG;
+            case Type.DOUBLE:
+                return Opcodes.DOUBLE;
+            default:
+                return type.getInternalName();
+        }
+    }
+
+    /**
+     * Returns the class file of a tracer named {@code className} that starts each span with the tracer of the global
+     * OpenTelemetry instance and makes it current until it ends. Woven classes need it and the OpenTelemetry API on
+     * their class path; the agent is not needed.
+     */
+    static byte[] openTelemetryTracer(String className) {
+        String name = className.replace('.', '/');
+        String tracer = "io/opentelemetry/api/trace/Tracer";
+        String span = "io/opentelemetry/api/trace/Span";
+        String scope = "io/opentelemetry/context/Scope";
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(
+                Opcodes.V1_8,
+                Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+                name,
+                null,
+                "java/lang/Object",
+                null);
+        writer.visitField(
+                Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "TRACER", "L" + tracer + ";", null, null)
+                .visitEnd();
+
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+        method.visitCode();
+        method.visitLdcInsn("flashlight");
+        method.visitMethodInsn(
+                Opcodes.INVOKESTATIC,
+                "io/opentelemetry/api/GlobalOpenTelemetry",
+                "getTracer",
+                "(Ljava/lang/String;)L" + tracer + ";",
+                false);
+        method.visitFieldInsn(Opcodes.PUTSTATIC, name, "TRACER", "L" + tracer + ";");
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+
+        // a span is the array of the span and the scope that made it current
+        method = writer.visitMethod(
+                Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "start", START_DESCRIPTOR, null, null);
+        method.visitCode();
+        method.visitFieldInsn(Opcodes.GETSTATIC, name, "TRACER", "L" + tracer + ";");
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        method.visitMethodInsn(
+                Opcodes.INVOKEINTERFACE,
+                tracer,
+                "spanBuilder",
+                "(Ljava/lang/String;)Lio/opentelemetry/api/trace/SpanBuilder;",
+                true);
+        method.visitMethodInsn(
+                Opcodes.INVOKEINTERFACE,
+                "io/opentelemetry/api/trace/SpanBuilder",
+                "startSpan",
+                "()L" + span + ";",
+                true);
+        method.visitVarInsn(Opcodes.ASTORE, 1);
+        method.visitInsn(Opcodes.ICONST_2);
+        method.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Object");
+        method.visitInsn(Opcodes.DUP);
+        method.visitInsn(Opcodes.ICONST_0);
+        method.visitVarInsn(Opcodes.ALOAD, 1);
+        method.visitInsn(Opcodes.AASTORE);
+        method.visitInsn(Opcodes.DUP);
+        method.visitInsn(Opcodes.ICONST_1);
+        method.visitVarInsn(Opcodes.ALOAD, 1);
+        method.visitMethodInsn(Opcodes.INVOKEINTERFACE, span, "makeCurrent", "()L" + scope + ";", true);
+        method.visitInsn(Opcodes.AASTORE);
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+
+        method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "end", END_DESCRIPTOR, null, null);
+        method.visitCode();
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        method.visitTypeInsn(Opcodes.CHECKCAST, "[Ljava/lang/Object;");
+        method.visitVarInsn(Opcodes.ASTORE, 2);
+        method.visitVarInsn(Opcodes.ALOAD, 2);
+        method.visitInsn(Opcodes.ICONST_1);
+        method.visitInsn(Opcodes.AALOAD);
+        method.visitTypeInsn(Opcodes.CHECKCAST, scope);
+        method.visitMethodInsn(Opcodes.INVOKEINTERFACE, scope, "close", "()V", true);
+        method.visitVarInsn(Opcodes.ALOAD, 2);
+        method.visitInsn(Opcodes.ICONST_0);
+        method.visitInsn(Opcodes.AALOAD);
+        method.visitTypeInsn(Opcodes.CHECKCAST, span);
+        method.visitVarInsn(Opcodes.ASTORE, 3);
+        Label ended = new Label();
+        method.visitVarInsn(Opcodes.ALOAD, 1);
+        method.visitJumpInsn(Opcodes.IFNULL, ended);
+        method.visitVarInsn(Opcodes.ALOAD, 3);
+        method.visitVarInsn(Opcodes.ALOAD, 1);
+        method.visitMethodInsn(
+                Opcodes.INVOKEINTERFACE, span, "recordException", "(Ljava/lang/Throwable;)L" + span + ";", true);
+        method.visitInsn(Opcodes.POP);
+        method.visitVarInsn(Opcodes.ALOAD, 3);
+        method.visitFieldInsn(
+                Opcodes.GETSTATIC,
+                "io/opentelemetry/api/trace/StatusCode",
+                "ERROR",
+                "Lio/opentelemetry/api/trace/StatusCode;");
+        method.visitMethodInsn(
+                Opcodes.INVOKEINTERFACE,
+                span,
+                "setStatus",
+                "(Lio/opentelemetry/api/trace/StatusCode;)L" + span + ";",
+                true);
+        method.visitInsn(Opcodes.POP);
+        method.visitLabel(ended);
+        method.visitFrame(
+                Opcodes.F_NEW,
+                4,
+                new Object[] {"java/lang/Object", "java/lang/Throwable", "[Ljava/lang/Object;", span},
+                0,
+                new Object[0]);
+        method.visitVarInsn(Opcodes.ALOAD, 3);
+        method.visitMethodInsn(Opcodes.INVOKEINTERFACE, span, "end", "()V", true);
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /**
+     * Writes {@code classFiles}, keyed by resource name, to {@code output}: a jar if its name ends with {@code .jar},
+     * otherwise a directory. Either one goes ahead of the original classes on the class path.
+     */
+    static void write(Path output, Map<String, byte[]> classFiles) throws IOException {
+        if (output.getFileName().toString().endsWith(".jar")) {
+            Path parent = output.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(output))) {
+                for (Map.Entry<String, byte[]> classFile : classFiles.entrySet()) {
+                    jar.putNextEntry(new JarEntry(classFile.getKey()));
+                    jar.write(classFile.getValue());
+                    jar.closeEntry();
+                }
+            }
+            return;
+        }
+        for (Map.Entry<String, byte[]> classFile : classFiles.entrySet()) {
+            Path file = output.resolve(classFile.getKey());
+            Files.createDirectories(file.getParent());
+            Files.write(file, classFile.getValue());
+        }
+    }
+}
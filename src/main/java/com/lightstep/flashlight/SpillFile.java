@@ -0,0 +1,147 @@
+package com.lightstep.flashlight;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Collects selected methods per class on disk and replays them sorted by class name, with duplicate classes merged.
+ * At most {@code maxBufferedClasses} classes are held in memory; larger inputs are written out as sorted runs that
+ * are merged when read back.
+ */
+class SpillFile implements Closeable {
+    private static final char SEPARATOR = '\t';
+
+    private final int maxBufferedClasses;
+    private final Path directory;
+    private final List<Path> runs = new ArrayList<>();
+    private TreeMap<String, SortedSet<String>> buffer = new TreeMap<>();
+
+    SpillFile(int maxBufferedClasses) throws IOException {
+        this.maxBufferedClasses = maxBufferedClasses;
+        this.directory = Files.createTempDirectory("flashlight-spill");
+    }
+
+    public synchronized void add(String className, Collection<String> methodNames) throws IOException {
+        if (methodNames.isEmpty()) {
+            return;
+        }
+        buffer.computeIfAbsent(className, name -> new TreeSet<>()).addAll(methodNames);
+        if (buffer.size() >= maxBufferedClasses) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        Path run = directory.resolve("run-" + runs.size());
+        try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, SortedSet<String>> entry : buffer.entrySet()) {
+                writer.write(entry.getKey());
+                writer.write(SEPARATOR);
+                writer.write(String.join(",", entry.getValue()));
+                writer.newLine();
+            }
+        }
+        runs.add(run);
+        buffer = new TreeMap<>();
+    }
+
+    /** Calls {@code consumer} once per class, in class name order. May be called more than once. */
+    public synchronized void forEachSorted(BiConsumer<String, SortedSet<String>> consumer) throws IOException {
+        flush();
+        List<BufferedReader> readers = new ArrayList<>(runs.size());
+        try {
+            PriorityQueue<Cursor> cursors = new PriorityQueue<>();
+            for (Path run : runs) {
+                BufferedReader reader = Files.newBufferedReader(run, StandardCharsets.UTF_8);
+                readers.add(reader);
+                Cursor cursor = new Cursor(reader);
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+            }
+            while (!cursors.isEmpty()) {
+                Cursor cursor = cursors.poll();
+                String className = cursor.className;
+                SortedSet<String> methodNames = new TreeSet<>(cursor.methodNames);
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+                while (!cursors.isEmpty() && cursors.peek().className.equals(className)) {
+                    Cursor duplicate = cursors.poll();
+                    methodNames.addAll(duplicate.methodNames);
+                    if (duplicate.advance()) {
+                        cursors.add(duplicate);
+                    }
+                }
+                consumer.accept(className, methodNames);
+            }
+        } finally {
+            for (BufferedReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.clear();
+        runs.clear();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.delete(directory);
+    }
+
+    private static class Cursor implements Comparable<Cursor> {
+        private final BufferedReader reader;
+        private String className;
+        private List<String> methodNames;
+
+        Cursor(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        boolean advance() throws IOException {
+            String line = reader.readLine();
+            if (line == null) {
+                return false;
+            }
+            int separator = line.indexOf(SEPARATOR);
+            className = line.substring(0, separator);
+            methodNames = List.of(line.substring(separator + 1).split(","));
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return className.compareTo(other.className);
+        }
+    }
+}
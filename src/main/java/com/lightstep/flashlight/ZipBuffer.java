@@ -0,0 +1,214 @@
+package com.lightstep.flashlight;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only zip archive backed by a {@link ByteBuffer}, either a memory mapped file or an in-memory copy. Only the
+ * central directory is parsed up front; entries are inflated on demand and may be read from several threads.
+ */
+class ZipBuffer {
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    static class Entry {
+        private final String name;
+        private final int method;
+        private final long crc;
+        private final int compressedSize;
+        private final int size;
+        private final int localHeaderOffset;
+
+        Entry(String name, int method, long crc, int compressedSize, int size, int localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final List<Entry> entries;
+    private final Map<String, Entry> entriesByName;
+
+    ZipBuffer(ByteBuffer buffer) throws ZipException {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.entries = Collections.unmodifiableList(readCentralDirectory(this.buffer));
+        this.entriesByName = new HashMap<>(entries.size() * 2);
+        for (Entry entry : entries) {
+            // like ZipFile, the first of several entries with the same name wins
+            entriesByName.putIfAbsent(entry.name, entry);
+        }
+    }
+
+    static ZipBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new ZipException("Archive too large to map: " + path);
+            }
+            return new ZipBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    /** Returns the entry called {@code name}, or {@code null}. */
+    @Nullable
+    public Entry entry(String name) {
+        return entriesByName.get(name);
+    }
+
+    /**
+     * Returns the archive stored in {@code entry}, such as a jar in a Spring Boot jar. A stored entry, as Spring Boot
+     * writes them, shares this buffer without a copy; a deflated one is inflated into memory.
+     */
+    public ZipBuffer nested(Entry entry) throws IOException {
+        if (entry.method == STORED) {
+            return new ZipBuffer(data(entry).slice());
+        }
+        return new ZipBuffer(ByteBuffer.wrap(read(entry)));
+    }
+
+    private ByteBuffer data(Entry entry) throws ZipException {
+        int offset = entry.localHeaderOffset;
+        if (!fits(offset, 30) || buffer.getInt(offset) != LOCAL_FILE_HEADER) {
+            throw new ZipException("Invalid local header for " + entry.name);
+        }
+        int dataOffset = offset + 30 + unsignedShort(offset + 26) + unsignedShort(offset + 28);
+        if (!fits(dataOffset, entry.compressedSize)) {
+            throw new ZipException("Truncated entry " + entry.name);
+        }
+        ByteBuffer data = buffer.duplicate();
+        data.position(dataOffset).limit(dataOffset + entry.compressedSize);
+        return data;
+    }
+
+    public byte[] read(Entry entry) throws IOException {
+        ByteBuffer data = data(entry);
+        if (entry.method == STORED && entry.size != entry.compressedSize) {
+            throw new ZipException("Invalid size of stored entry " + entry.name);
+        }
+        byte[] bytes = new byte[entry.size];
+        if (entry.method == STORED) {
+            data.get(bytes);
+            return bytes;
+        }
+        if (entry.method != DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            int read = 0;
+            while (read < bytes.length) {
+                int inflated = inflater.inflate(bytes, read, bytes.length - read);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException("Truncated entry " + entry.name);
+                }
+                read += inflated;
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid deflate data for " + entry.name + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private List<Entry> readCentralDirectory(ByteBuffer buffer) throws ZipException {
+        int end = findEndOfCentralDirectory(buffer);
+        int count = unsignedShort(end + 10);
+        long directoryOffset = Integer.toUnsignedLong(buffer.getInt(end + 16));
+        if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL) {
+            throw new ZipException("ZIP64 archives are not supported");
+        }
+
+        List<Entry> entries = new ArrayList<>(count);
+        int offset = (int) directoryOffset;
+        for (int i = 0; i < count; i++) {
+            if (!fits(offset, 46) || buffer.getInt(offset) != CENTRAL_DIRECTORY_ENTRY) {
+                throw new ZipException("Invalid central directory entry at " + offset);
+            }
+            int nameLength = unsignedShort(offset + 28);
+            int entryLength = 46 + nameLength + unsignedShort(offset + 30) + unsignedShort(offset + 32);
+            int compressedSize = buffer.getInt(offset + 20);
+            int size = buffer.getInt(offset + 24);
+            int localHeaderOffset = buffer.getInt(offset + 42);
+            // sizes and offsets beyond 2GB would be ZIP64, and do not fit into a buffer anyway
+            if (!fits(offset, entryLength) || compressedSize < 0 || size < 0 || localHeaderOffset < 0) {
+                throw new ZipException("Invalid central directory entry at " + offset);
+            }
+            byte[] name = new byte[nameLength];
+            buffer.duplicate().position(offset + 46).get(name);
+            entries.add(new Entry(
+                    new String(name, StandardCharsets.UTF_8),
+                    unsignedShort(offset + 10),
+                    Integer.toUnsignedLong(buffer.getInt(offset + 16)),
+                    compressedSize,
+                    size,
+                    localHeaderOffset));
+            offset += entryLength;
+        }
+        return entries;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer buffer) throws ZipException {
+        int last = buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE;
+        int first = Math.max(0, last - MAX_COMMENT_SIZE);
+        for (int offset = last; offset >= first; offset--) {
+            if (buffer.getInt(offset) == END_OF_CENTRAL_DIRECTORY) {
+                return offset;
+            }
+        }
+        throw new ZipException("End of central directory not found");
+    }
+
+    /** Returns whether {@code length} bytes from {@code offset} are within the buffer. */
+    private boolean fits(int offset, int length) {
+        return offset >= 0 && length >= 0 && offset <= buffer.limit() - length;
+    }
+
+    private int unsignedShort(int offset) {
+        return Short.toUnsignedInt(buffer.getShort(offset));
+    }
+}
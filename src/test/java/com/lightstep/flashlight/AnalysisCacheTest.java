@@ -0,0 +1,137 @@
+package com.lightstep.flashlight;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AnalysisCacheTest {
+
+    private static final MethodNameFilter FILTER = new MethodNameFilter();
+
+    // each class with the categories of its selected methods
+    private static List<String> scan(File path, AnalysisCache cache) throws IOException {
+        MethodSelection selection = new MethodSelection(SelectionOptions.defaults()
+                .withFilteredMethods(FILTER)
+                .withThresholds(10, 5));
+        return new ClassScanner(Set.of(path), ScanOptions.defaults().withThreads(2).withCache(cache))
+                .scan().stream()
+                        .map(analyzedClass -> analyzedClass.getClassName() + selection.select(analyzedClass))
+                        .collect(toList());
+    }
+
+    @Test
+    void reusesClassesFromDirectories(@TempDir Path cacheDir) throws IOException {
+        File classes = ClassScannerTest.testClasses();
+        AnalysisCache cold = AnalysisCache.load(cacheDir);
+        List<String> expected = scan(classes, cold);
+        cold.save();
+        assertEquals(0, cold.hits());
+        assertEquals(expected.size(), cold.misses());
+
+        AnalysisCache warm = AnalysisCache.load(cacheDir);
+        assertEquals(expected, scan(classes, warm));
+        assertEquals(expected.size(), warm.hits());
+        assertEquals(0, warm.misses());
+    }
+
+    @Test
+    void skipsUnchangedArchives(@TempDir Path tempDir) throws IOException {
+        Path cacheDir = tempDir.resolve("cache");
+        File jar = ClassScannerTest.jar(ClassScannerTest.testClasses().toPath(), tempDir.resolve("test.jar"));
+        AnalysisCache cold = AnalysisCache.load(cacheDir);
+        List<String> expected = scan(jar, cold);
+        cold.save();
+        assertEquals(1, cold.archiveMisses());
+
+        AnalysisCache warm = AnalysisCache.load(cacheDir);
+        assertEquals(expected, scan(jar, warm));
+        assertEquals(1, warm.archiveHits());
+        assertEquals(expected.size(), warm.hits());
+        warm.save();
+
+        Files.setLastModifiedTime(jar.toPath(), FileTime.fromMillis(0));
+        AnalysisCache changed = AnalysisCache.load(cacheDir);
+        assertEquals(expected, scan(jar, changed));
+        assertEquals(1, changed.archiveMisses());
+        assertEquals(expected.size(), changed.hits());
+    }
+
+    @Test
+    void reusesClassesWithinOneRun(@TempDir Path tempDir) throws IOException {
+        Path classes = ClassScannerTest.testClasses().toPath();
+        File baseline = ClassScannerTest.jar(classes, tempDir.resolve("baseline.jar"));
+        File current = ClassScannerTest.jar(classes, tempDir.resolve("current.jar"));
+        AnalysisCache cache = AnalysisCache.inMemory(Rules.defaults().fingerprint());
+        List<String> expected = scan(baseline, cache);
+        assertEquals(0, cache.hits());
+
+        ScanStats stats = new ScanStats();
+        new ClassScanner(Set.of(current), ScanOptions.defaults().withThreads(2).withCache(cache).withStats(stats))
+                .scan();
+        assertEquals(expected.size(), cache.hits());
+        assertEquals(expected.size(), stats.cachedClassCount());
+        // the CRC-32 recorded in the jar identifies the unchanged classes without reading them
+        assertEquals(0, stats.bytesRead());
+    }
+
+    @Test
+    void ignoresCorruptCache(@TempDir Path cacheDir) throws IOException {
+        Files.write(cacheDir.resolve("analysis.cache"), new byte[] {1, 2, 3});
+        AnalysisCache cache = AnalysisCache.load(cacheDir);
+        List<String> expected = scan(ClassScannerTest.testClasses(), cache);
+        assertEquals(expected.size(), cache.misses());
+    }
+
+    @Test
+    void ignoresCorruptLengths(@TempDir Path cacheDir) throws IOException {
+        File classes = ClassScannerTest.testClasses();
+        AnalysisCache valid = AnalysisCache.load(cacheDir);
+        List<String> expected = scan(classes, valid);
+        valid.save();
+        Path file = cacheDir.resolve("analysis.cache");
+        // keep the magic number, format version and rules fingerprint so that what follows is parsed
+        byte[] header = Arrays.copyOf(Files.readAllBytes(file), 4 + 4 + 16);
+        List<byte[]> corruptFiles = new ArrayList<>();
+        for (int interfaceCount : new int[] {-1, Integer.MAX_VALUE}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(header);
+            out.writeInt(1);
+            out.write(new byte[16]);
+            out.writeUTF("com.example.App");
+            out.writeBoolean(false);
+            out.writeInt(interfaceCount);
+            corruptFiles.add(bytes.toByteArray());
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            byte[] bytes = Arrays.copyOf(header, header.length + random.nextInt(4096));
+            for (int j = header.length; j < bytes.length; j++) {
+                bytes[j] = (byte) random.nextInt();
+            }
+            corruptFiles.add(bytes);
+        }
+
+        for (byte[] corruptFile : corruptFiles) {
+            Files.write(file, corruptFile);
+            AnalysisCache cache = AnalysisCache.load(cacheDir);
+            assertEquals(expected, scan(classes, cache));
+            assertEquals(expected.size(), cache.misses());
+        }
+    }
+}
@@ -2,12 +2,13 @@ package com.lightstep.flashlight;
 
 import org.junit.jupiter.api.Test;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Objects;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 
+import static com.lightstep.flashlight.AnalyzedClasses.getAnalyzedClass;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 class AnalyzedClassTest {
@@ -16,134 +17,135 @@ class AnalyzedClassTest {
     private static final int HIGH_BRANCH_INSTRUCTION_COUNT = 5;
     private static final MethodNameFilter FILTER = new MethodNameFilter();
 
-    private static AnalyzedClass getAnalyzedClass(Class<?> subject) {
-        var className = subject.getName();
-        try (InputStream stream = subject.getResourceAsStream("/" + className.replace(".", "/") + ".class")) {
-            return new AnalyzingClassVisitor(className).analyze(Objects.requireNonNull(stream));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    // the selected methods of analyzedClass per category, leaving out empty categories
+    private static Map<Category, Set<String>> categories(AnalyzedClass analyzedClass, MethodNameFilter filter) {
+        MethodSelection selection = new MethodSelection(SelectionOptions.defaults()
+                .withFilteredMethods(filter)
+                .withThresholds(HIGH_METHOD_INSTRUCTION_COUNT, HIGH_BRANCH_INSTRUCTION_COUNT));
+        selection.add(analyzedClass);
+        Map<Category, Set<String>> categories = new EnumMap<>(Category.class);
+        for (Category category : selection.categories()) {
+            Set<String> methods = selection.methods(category).get(analyzedClass.getClassName());
+            if (methods != null) {
+                categories.put(category, methods);
+            }
         }
+        return categories;
     }
 
     @Test
     void baseCase() {
-        Runnable subject = new Runnable() {
-            @Override
-            public void run() {}
-        };
-        var analyzedClass = getAnalyzedClass(subject.getClass());
-        assertEquals(Set.of(), analyzedClass.methodsWithClientCalls(FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithRepositoryCalls(FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithSynchronize(FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithHighBranchCount(HIGH_BRANCH_INSTRUCTION_COUNT, FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithHighMethodCount(HIGH_METHOD_INSTRUCTION_COUNT, FILTER));
+        assertEquals(Map.of(), categories(getAnalyzedClass(BaseCase.class), FILTER));
     }
 
     @Test
     void ignoredMethods() {
-        Runnable subject = new Runnable() {
-            // Requires Java 16+
-            // static {
-            //     new SomeClient().call();
-            // }
-
-            {
-                new SomeClient().call();
-            }
-
-            @Override
-            public void run() {}
-
-            @Override
-            public int hashCode() {
-                new SomeClient().call();
-                return super.hashCode();
-            }
-
-            @Override
-            public boolean equals(Object obj) {
-                new SomeClient().call();
-                return super.equals(obj);
-            }
+        var analyzedClass = getAnalyzedClass(IgnoredMethods.class);
+        assertEquals(Map.of(), categories(analyzedClass, FILTER));
+        assertEquals(1, analyzedClass.methodCount());
+        assertEquals("run", analyzedClass.methodName(0));
 
-            @Override
-            public String toString() {
-                new SomeClient().call();
-                return super.toString();
-            }
-        };
-        var analyzedClass = getAnalyzedClass(subject.getClass());
+        var unfiltered = getAnalyzedClass(IgnoredMethods.class, Rules.defaults().withExcludedMethods(List.of()));
         assertEquals(
-                Set.of(),
-                analyzedClass.methodsWithClientCalls(
-                        new MethodNameFilter("<init>", "<clinit>", "toString", "hashCode", "equals")));
+                Map.of(),
+                categories(unfiltered, new MethodNameFilter("<init>", "<clinit>", "toString", "hashCode", "equals")));
         assertEquals(
-                Set.of("<init>", /*"<clinit>",*/ "toString", "hashCode", "equals"),
-                analyzedClass.methodsWithClientCalls(FILTER));
+                Map.of(Category.CLIENT_CALL, Set.of("<init>", "<clinit>", "toString", "hashCode", "equals")),
+                categories(unfiltered, FILTER));
     }
 
     @Test
     void methodsWithSynchronize() {
-        Runnable subject = new Runnable() {
-            @Override
-            public void run() {
-                synchronized (new Object()) {
-                    new Object();
-                }
-            }
-        };
-        var analyzedClass = getAnalyzedClass(subject.getClass());
-        assertEquals(Set.of(), analyzedClass.methodsWithClientCalls(FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithRepositoryCalls(FILTER));
-        assertEquals(Set.of("run"), analyzedClass.methodsWithSynchronize(FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithHighBranchCount(HIGH_BRANCH_INSTRUCTION_COUNT, FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithHighMethodCount(HIGH_METHOD_INSTRUCTION_COUNT, FILTER));
+        // the constructor call in the synchronized block makes it lock contention, too
+        assertEquals(
+                Map.of(Category.SYNCHRONIZED, Set.of("run"), Category.LOCK_CONTENTION, Set.of("run")),
+                categories(getAnalyzedClass(WithSynchronized.class), FILTER));
     }
 
     @Test
     void methodsWithSynchronizeSignature() {
-        Runnable subject = new Runnable() {
-            @Override
-            public synchronized void run() {}
-        };
-        var analyzedClass = getAnalyzedClass(subject.getClass());
-        assertEquals(Set.of(), analyzedClass.methodsWithClientCalls(FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithRepositoryCalls(FILTER));
-        assertEquals(Set.of("run"), analyzedClass.methodsWithSynchronize(FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithHighBranchCount(HIGH_BRANCH_INSTRUCTION_COUNT, FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithHighMethodCount(HIGH_METHOD_INSTRUCTION_COUNT, FILTER));
+        assertEquals(
+                Map.of(Category.SYNCHRONIZED, Set.of("run")),
+                categories(getAnalyzedClass(WithSynchronizedSignature.class), FILTER));
     }
 
     @Test
     void methodsWithClientCalls() {
-        Runnable subject = new Runnable() {
-            @Override
-            public void run() {
-                new SomeClient().call();
-            }
-        };
-        var analyzedClass = getAnalyzedClass(subject.getClass());
-        assertEquals(Set.of("run"), analyzedClass.methodsWithClientCalls(FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithRepositoryCalls(FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithSynchronize(FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithHighBranchCount(HIGH_BRANCH_INSTRUCTION_COUNT, FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithHighMethodCount(HIGH_METHOD_INSTRUCTION_COUNT, FILTER));
+        assertEquals(
+                Map.of(Category.CLIENT_CALL, Set.of("run")),
+                categories(getAnalyzedClass(WithClientCall.class), FILTER));
     }
 
     @Test
     void methodsWithRepositoryCalls() {
-        Runnable subject = new Runnable() {
-            @Override
-            public void run() {
-                new SomeRepository().call();
+        assertEquals(
+                Map.of(Category.REPOSITORY_CALL, Set.of("run")),
+                categories(getAnalyzedClass(WithRepositoryCall.class), FILTER));
+    }
+
+    // named classes, as the methods of anonymous classes are attributed to the method that declares them
+    private static class BaseCase implements Runnable {
+        @Override
+        public void run() {}
+    }
+
+    private static class IgnoredMethods implements Runnable {
+        static {
+            new SomeClient().call();
+        }
+
+        {
+            new SomeClient().call();
+        }
+
+        @Override
+        public void run() {}
+
+        @Override
+        public int hashCode() {
+            new SomeClient().call();
+            return super.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            new SomeClient().call();
+            return super.equals(obj);
+        }
+
+        @Override
+        public String toString() {
+            new SomeClient().call();
+            return super.toString();
+        }
+    }
+
+    private static class WithSynchronized implements Runnable {
+        @Override
+        public void run() {
+            synchronized (new Object()) {
+                new Object();
             }
-        };
-        var analyzedClass = getAnalyzedClass(subject.getClass());
-        assertEquals(Set.of(), analyzedClass.methodsWithClientCalls(FILTER));
-        assertEquals(Set.of("run"), analyzedClass.methodsWithRepositoryCalls(FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithSynchronize(FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithHighBranchCount(HIGH_BRANCH_INSTRUCTION_COUNT, FILTER));
-        assertEquals(Set.of(), analyzedClass.methodsWithHighMethodCount(HIGH_METHOD_INSTRUCTION_COUNT, FILTER));
+        }
+    }
+
+    private static class WithSynchronizedSignature implements Runnable {
+        @Override
+        public synchronized void run() {}
+    }
+
+    private static class WithClientCall implements Runnable {
+        @Override
+        public void run() {
+            new SomeClient().call();
+        }
+    }
+
+    private static class WithRepositoryCall implements Runnable {
+        @Override
+        public void run() {
+            new SomeRepository().call();
+        }
     }
 
     private static class SomeClient implements Callable<Void> {
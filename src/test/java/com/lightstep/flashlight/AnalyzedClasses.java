@@ -0,0 +1,39 @@
+package com.lightstep.flashlight;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+
+/** Analyzes the test's own classes, as compiled, for the tests. */
+final class AnalyzedClasses {
+
+    private AnalyzedClasses() {}
+
+    static AnalyzedClass getAnalyzedClass(Class<?> subject) {
+        return getAnalyzedClass(subject, Rules.defaults());
+    }
+
+    static AnalyzedClass getAnalyzedClass(Class<?> subject, Rules rules) {
+        return getAnalyzedClass(subject, subject.getName(), rules);
+    }
+
+    /** Analyzes the bytes of {@code subject} as if they were those of the class {@code className}. */
+    static AnalyzedClass getAnalyzedClass(Class<?> subject, String className, Rules rules) {
+        try (InputStream stream = subject.getResourceAsStream("/" + subject.getName().replace('.', '/') + ".class")) {
+            return new AnalyzingClassVisitor(className, rules).analyze(Objects.requireNonNull(stream));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Returns the index of the first method called {@code name}. */
+    static int method(AnalyzedClass analyzedClass, String name) {
+        for (int method = 0; method < analyzedClass.methodCount(); method++) {
+            if (analyzedClass.methodName(method).equals(name)) {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+}
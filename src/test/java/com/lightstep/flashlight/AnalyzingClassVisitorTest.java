@@ -1,13 +1,15 @@
 package com.lightstep.flashlight;
 
 import org.junit.jupiter.api.Test;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Objects;
+import java.lang.management.ManagementFactory;
 import java.util.Set;
 
+import static com.lightstep.flashlight.AnalyzedClasses.getAnalyzedClass;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class AnalyzingClassVisitorTest {
 
@@ -15,48 +17,77 @@ class AnalyzingClassVisitorTest {
     private static final int HIGH_BRANCH_INSTRUCTION_COUNT = 5;
     private static final MethodNameFilter EXCLUDED_METHODS = new MethodNameFilter();
 
-    private static AnalyzedClass getAnalyzedClass(Class<?> subject) {
-        var className = subject.getName();
-        try (InputStream stream = subject.getResourceAsStream("/" + className.replace(".", "/") + ".class")) {
-            return new AnalyzingClassVisitor(className).analyze(Objects.requireNonNull(stream));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    private static final MethodSelection selection = select(getAnalyzedClass(Example.class));
+
+    private static MethodSelection select(AnalyzedClass analyzedClass) {
+        MethodSelection selection = new MethodSelection(SelectionOptions.defaults()
+                .withFilteredMethods(EXCLUDED_METHODS)
+                .withThresholds(HIGH_METHOD_INSTRUCTION_COUNT, HIGH_BRANCH_INSTRUCTION_COUNT));
+        selection.add(analyzedClass);
+        return selection;
     }
 
-    private static final AnalyzedClass analyzedClass = getAnalyzedClass(Example.class);
+    private static Set<String> methods(Category category) {
+        return selection.methods(category).get(Example.class.getName());
+    }
 
     @Test
     void methodsWithClientCalls() {
         assertEquals(
-                Set.of("methodWithClientCall", "methodWithStaticClientCall", "lambda$lambdaWithClientCall$1"),
-                analyzedClass.methodsWithClientCalls(EXCLUDED_METHODS));
+                Set.of("methodWithClientCall", "methodWithStaticClientCall", "lambdaWithClientCall"),
+                methods(Category.CLIENT_CALL));
     }
 
     @Test
     void methodsWithRepositoryCalls() {
         assertEquals(
-                Set.of("methodWithRepositoryCall", "methodWithStaticRepositoryCall", "lambda$lambdaWithRepositoryCall$2"),
-                analyzedClass.methodsWithRepositoryCalls(EXCLUDED_METHODS));
+                Set.of("methodWithRepositoryCall", "methodWithStaticRepositoryCall", "lambdaWithRepositoryCall"),
+                methods(Category.REPOSITORY_CALL));
     }
 
     @Test
     void methodsWithSynchronize() {
         assertEquals(
-                Set.of("synchronizedMethod", "methodWithSynchronized", "lambda$lambdaWithSynchronized$0","staticMethodWithSynchronized"),
-                analyzedClass.methodsWithSynchronize(EXCLUDED_METHODS));
+                Set.of("synchronizedMethod", "methodWithSynchronized", "lambdaWithSynchronized",
+                        "staticMethodWithSynchronized"),
+                methods(Category.SYNCHRONIZED));
     }
 
     @Test
     void methodsWithHighBranchCount() {
-        assertEquals(
-                Set.of("methodWithBranch"),
-                analyzedClass.methodsWithHighBranchCount(HIGH_BRANCH_INSTRUCTION_COUNT, EXCLUDED_METHODS));
+        assertEquals(Set.of("methodWithBranch"), methods(Category.HIGH_BRANCH_COUNT));
     }
 
     @Test
     void methodsWithHighMethodCount() {
-        assertEquals(
-                Set.of("methodWithMethodCalls"), analyzedClass.methodsWithHighMethodCount(HIGH_METHOD_INSTRUCTION_COUNT, EXCLUDED_METHODS));
+        assertEquals(Set.of("methodWithMethodCalls"), methods(Category.HIGH_CALL_COUNT));
+    }
+
+    @Test
+    void invokeInstructionsOfKnownTargetsDoNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        String[][] calls = {
+            {"java/lang/String", "length", "()I"},
+            {"java/util/List", "get", "(I)Ljava/lang/Object;"},
+            {"com/example/OrderService", "process", "(Lcom/example/Order;)Lcom/example/OrderService;"},
+        };
+        MethodVisitor method = new AnalyzingClassVisitor("com.example.Subject")
+                .visitMethod(Opcodes.ACC_PUBLIC, "run", "()V", null, null);
+        invoke(method, calls, 10_000);
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        invoke(method, calls, 100_000);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(allocated < 1_000, allocated + " bytes allocated by 300000 invoke instructions");
+    }
+
+    private static void invoke(MethodVisitor method, String[][] calls, int times) {
+        for (int i = 0; i < times; i++) {
+            for (String[] call : calls) {
+                method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, call[0], call[1], call[2], false);
+            }
+        }
     }
-}
\ No newline at end of file
+}
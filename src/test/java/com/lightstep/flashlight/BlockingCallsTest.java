@@ -0,0 +1,99 @@
+package com.lightstep.flashlight;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static com.lightstep.flashlight.AnalyzedClasses.getAnalyzedClass;
+import static com.lightstep.flashlight.AnalyzedClasses.method;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockingCallsTest {
+
+    private static final MethodNameFilter EXCLUDED_METHODS =
+            new MethodNameFilter("<init>", "<clinit>", "toString", "hashCode", "equals");
+
+    static class Subject {
+        private final Object lock = new Object();
+
+        String await(Future<String> future) throws InterruptedException, ExecutionException {
+            Thread.sleep(1);
+            return future.get();
+        }
+
+        String join(CompletableFuture<String> future) {
+            return future.join();
+        }
+
+        void waitFor() throws InterruptedException {
+            synchronized (lock) {
+                lock.wait(10);
+            }
+        }
+
+        void pause() {
+            Thread.yield();
+        }
+    }
+
+    @Test
+    void matchesPatterns() {
+        BlockingCalls blockingCalls = BlockingCalls.defaults();
+
+        assertTrue(blockingCalls.matches("java/util/concurrent/Future.get()Ljava/lang/Object;"));
+        assertTrue(blockingCalls.matches("java/sql/PreparedStatement.executeQuery()Ljava/sql/ResultSet;"));
+        assertTrue(blockingCalls.matches("com/example/Anything.wait()V"));
+        assertFalse(blockingCalls.matches("java/util/concurrent/Future.isDone()Z"));
+        assertFalse(blockingCalls.matches("java/lang/Thread.yield()V"));
+    }
+
+    @Test
+    void listsBlockingCallSites() {
+        AnalyzedClass subject = getAnalyzedClass(Subject.class);
+        BlockingCalls blockingCalls = BlockingCalls.defaults();
+
+        assertEquals(
+                List.of("java/lang/Thread.sleep", "java/util/concurrent/Future.get"),
+                subject.blockingCalls(method(subject, "await"), blockingCalls));
+
+        MethodSelection selection = new MethodSelection(SelectionOptions.defaults()
+
+                .withFilteredMethods(EXCLUDED_METHODS)
+
+                .withThresholds(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        selection.add(subject);
+        assertEquals(
+                Map.of(Subject.class.getName(), Set.of("await", "join", "waitFor")),
+                selection.methods(Category.BLOCKING_CALL));
+        assertEquals(
+                List.of("java/lang/Object.wait"),
+                selection.blockingCallSites().get(Subject.class.getName()).get("waitFor"));
+    }
+
+    @Test
+    void readsAdditionalPatterns(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("blocking-calls.txt");
+        Files.write(file, List.of("# our own", "com.example.Gateway.call*", "com.example.Gateway$Stub.send"));
+
+        BlockingCalls blockingCalls = BlockingCalls.withPatterns(file);
+        assertTrue(blockingCalls.matches("com/example/Gateway.callRemote()V"));
+        assertTrue(blockingCalls.matches("com/example/Gateway$Stub.send()V"));
+        assertFalse(blockingCalls.matches("com/example/Gateway$Stub.callRemote()V"));
+        assertTrue(blockingCalls.matches("java/lang/Thread.sleep(J)V"));
+
+        Files.write(file, List.of("missingOwner"));
+        assertThrows(IOException.class, () -> BlockingCalls.withPatterns(file));
+    }
+}
@@ -0,0 +1,113 @@
+package com.lightstep.flashlight;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.lightstep.flashlight.AnalyzedClasses.getAnalyzedClass;
+import static com.lightstep.flashlight.AnalyzedClasses.method;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CallGraphTest {
+
+    private static final MethodNameFilter EXCLUDED_METHODS =
+            new MethodNameFilter("<init>", "<clinit>", "toString", "hashCode", "equals");
+
+    static class OrderClient {
+        String fetch(String id) {
+            return id;
+        }
+    }
+
+    interface Store {
+        String load(String id);
+    }
+
+    static class RemoteStore implements Store {
+        private final OrderClient client = new OrderClient();
+
+        @Override
+        public String load(String id) {
+            return client.fetch(id);
+        }
+    }
+
+    static class OrderService {
+        private final OrderClient client = new OrderClient();
+        private final Store store = new RemoteStore();
+
+        public String handle(String id) {
+            return fetchTwice(id) + viaStore(id);
+        }
+
+        private String fetchTwice(String id) {
+            return client.fetch(id) + client.fetch(id);
+        }
+
+        private String viaStore(String id) {
+            return store.load(id);
+        }
+
+        public int even(int n) {
+            return n == 0 ? 1 : odd(n - 1);
+        }
+
+        private int odd(int n) {
+            client.fetch("odd");
+            return n == 0 ? 0 : even(n - 1);
+        }
+
+        public int local(int n) {
+            return n + 1;
+        }
+    }
+
+    @Test
+    void propagatesRemoteIoToEntryPoints() {
+        AnalyzedClass client = getAnalyzedClass(OrderClient.class);
+        AnalyzedClass store = getAnalyzedClass(Store.class);
+        AnalyzedClass remoteStore = getAnalyzedClass(RemoteStore.class);
+        AnalyzedClass service = getAnalyzedClass(OrderService.class);
+        CallGraph graph = CallGraph.build(List.of(client, store, remoteStore, service), EXCLUDED_METHODS);
+
+        assertTrue(graph.reachesRemoteIo(service, method(service, "fetchTwice")));
+        assertFalse(graph.isRemoteIoEntryPoint(service, method(service, "fetchTwice")));
+        // resolved through the interface to the scanned implementation
+        assertTrue(graph.reachesRemoteIo(service, method(service, "viaStore")));
+        assertTrue(graph.isRemoteIoEntryPoint(service, method(service, "handle")));
+        assertEquals(2, graph.fanOut(service, method(service, "handle")));
+        assertFalse(graph.reachesRemoteIo(service, method(service, "local")));
+        assertFalse(graph.reachesRemoteIo(client, method(client, "fetch")));
+    }
+
+    @Test
+    void terminatesOnRecursion() {
+        AnalyzedClass service = getAnalyzedClass(OrderService.class);
+        CallGraph graph = CallGraph.build(List.of(getAnalyzedClass(OrderClient.class), service), EXCLUDED_METHODS);
+
+        assertEquals(1, graph.fanOut(service, method(service, "even")));
+        assertEquals(1, graph.fanOut(service, method(service, "odd")));
+        assertTrue(graph.isRemoteIoEntryPoint(service, method(service, "even")));
+        assertTrue(graph.isRemoteIoEntryPoint(service, method(service, "odd")));
+    }
+
+    @Test
+    void selectsEntryPointsInsteadOfDirectCalls() {
+        AnalyzedClass service = getAnalyzedClass(OrderService.class);
+        List<AnalyzedClass> analyzedClasses = List.of(getAnalyzedClass(OrderClient.class), service);
+        MethodSelection selection = new MethodSelection(SelectionOptions.defaults()
+                .withFilteredMethods(EXCLUDED_METHODS)
+                .withThresholds(Integer.MAX_VALUE, Integer.MAX_VALUE)
+                .withCallGraph(CallGraph.build(analyzedClasses, EXCLUDED_METHODS)));
+        selection.addAll(analyzedClasses);
+
+        assertEquals(
+                Map.of(OrderService.class.getName(), Set.of("handle", "even", "odd")),
+                selection.methods(Category.REMOTE_IO_ENTRY_POINT));
+        assertEquals(Map.of(), selection.methods(Category.CLIENT_CALL));
+    }
+}
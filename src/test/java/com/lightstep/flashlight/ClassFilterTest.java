@@ -0,0 +1,105 @@
+package com.lightstep.flashlight;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassFilterTest {
+
+    @Test
+    void matchesPackagesAndClasses() {
+        ClassFilter filter = new ClassFilter(
+                List.of("com.example.*", "org.vendor.Client"), List.of("com.example.generated.**", "*Test"));
+        assertTrue(filter.test("com/example/App.class"));
+        assertTrue(filter.test("com/example/web/Controller.class"));
+        assertTrue(filter.test("org/vendor/Client.class"));
+        assertTrue(filter.test("org/vendor/Client$Builder.class"));
+        assertFalse(filter.test("org/vendor/ClientFactory.class"));
+        assertFalse(filter.test("org/other/App.class"));
+        assertFalse(filter.test("com/example/generated/Model.class"));
+        assertFalse(filter.test("com/example/AppTest.class"));
+    }
+
+    @Test
+    void includesEverythingWithoutIncludes() {
+        assertTrue(ClassFilter.ALL.test("any/Class.class"));
+        assertFalse(new ClassFilter(List.of(), List.of("any.*")).test("any/Class.class"));
+    }
+
+    @Test
+    void rejectsMalformedPatterns() {
+        assertThrows(IllegalArgumentException.class, () -> new ClassFilter(List.of("com.*.App"), List.of()));
+    }
+
+    @Test
+    void filtersScannedClasses() throws IOException {
+        ClassScanner scanner = new ClassScanner(
+                Set.of(ClassScannerTest.testClasses()),
+                ScanOptions.defaults().withFilter(new ClassFilter(List.of(Example.class.getName()), List.of())));
+        List<String> classNames = scanner.scan().stream().map(AnalyzedClass::getClassName).collect(toList());
+        assertTrue(classNames.contains(Example.class.getName()));
+        assertTrue(classNames.contains(Example.class.getName() + "$SomeClient"));
+        assertEquals(
+                List.of(),
+                classNames.stream()
+                        .filter(className -> !className.startsWith(Example.class.getName()))
+                        .collect(toList()));
+    }
+
+    @Test
+    void skipsNestedArchivesWithoutIncludedClasses(@TempDir Path tempDir) throws IOException {
+        String exampleClass = Example.class.getName().replace('.', '/') + ".class";
+        byte[] exampleBytes = Files.readAllBytes(ClassScannerTest.testClasses().toPath().resolve(exampleClass));
+        ByteArrayOutputStream library = new ByteArrayOutputStream();
+        try (JarOutputStream jarOut = new JarOutputStream(library)) {
+            jarOut.putNextEntry(new ZipEntry("org/vendor/Client.class"));
+            jarOut.write(exampleBytes);
+            jarOut.closeEntry();
+        }
+        // the excluded class cannot be inflated, so the library must be listed from its central directory
+        byte[] libraryBytes = library.toByteArray();
+        ByteBuffer localHeader = ByteBuffer.wrap(libraryBytes).order(ByteOrder.LITTLE_ENDIAN);
+        int dataStart = 30 + localHeader.getShort(26) + localHeader.getShort(28);
+        Arrays.fill(libraryBytes, dataStart, dataStart + 4, (byte) 0xff);
+        Path bootJar = tempDir.resolve("boot.jar");
+        try (JarOutputStream jarOut = new JarOutputStream(Files.newOutputStream(bootJar))) {
+            jarOut.putNextEntry(new ZipEntry("BOOT-INF/classes/" + exampleClass));
+            jarOut.write(exampleBytes);
+            jarOut.closeEntry();
+            ZipEntry nested = new ZipEntry("BOOT-INF/lib/library.jar");
+            nested.setMethod(ZipEntry.STORED);
+            nested.setSize(libraryBytes.length);
+            CRC32 crc = new CRC32();
+            crc.update(libraryBytes);
+            nested.setCrc(crc.getValue());
+            jarOut.putNextEntry(nested);
+            jarOut.write(libraryBytes);
+            jarOut.closeEntry();
+        }
+
+        ClassScanner scanner = new ClassScanner(
+                Set.of(bootJar.toFile()),
+                ScanOptions.defaults().withFilter(new ClassFilter(List.of(Example.class.getName()), List.of())));
+        assertEquals(
+                List.of(Example.class.getName()),
+                scanner.scan().stream().map(AnalyzedClass::getClassName).collect(toList()));
+    }
+}
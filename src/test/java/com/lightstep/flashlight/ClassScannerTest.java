@@ -0,0 +1,131 @@
+package com.lightstep.flashlight;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassScannerTest {
+
+    static File testClasses() {
+        try {
+            return new File(Example.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static List<String> scan(File path, int threads, boolean mapArchives) throws IOException {
+        return new ClassScanner(
+                Set.of(path), ScanOptions.defaults().withThreads(threads).withMapArchives(mapArchives))
+                .scan().stream().map(AnalyzedClass::getClassName).collect(toList());
+    }
+
+    static File jar(Path directory, Path jar) throws IOException {
+        try (OutputStream out = Files.newOutputStream(jar);
+                JarOutputStream jarOut = new JarOutputStream(out);
+                Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile).sorted()::iterator) {
+                String name = directory.relativize(file).toString().replace(File.separatorChar, '/');
+                jarOut.putNextEntry(new ZipEntry(name));
+                jarOut.write(Files.readAllBytes(file));
+                jarOut.closeEntry();
+            }
+        }
+        return jar.toFile();
+    }
+
+    @Test
+    void scansNestedClasses() throws IOException {
+        List<String> classNames = scan(testClasses(), 1, false);
+        assertTrue(classNames.contains(Example.class.getName()));
+        assertTrue(classNames.contains(Example.class.getName() + "$SomeClient"));
+    }
+
+    @Test
+    void parallelScanIsDeterministic() throws IOException {
+        assertEquals(scan(testClasses(), 1, false), scan(testClasses(), 4, false));
+    }
+
+    @Test
+    void rejectsThreadCountsBelowOne() {
+        assertThrows(IllegalArgumentException.class, () -> ScanOptions.defaults().withThreads(0));
+        assertEquals(4, ScanOptions.defaults().withThreads(4).threads());
+        assertEquals(1, ScanOptions.defaults().threads());
+    }
+
+    @Test
+    void scansJarFiles(@TempDir Path tempDir) throws IOException {
+        File jar = jar(testClasses().toPath(), tempDir.resolve("test.jar"));
+        List<String> expected = scan(testClasses(), 1, false);
+        assertEquals(Set.copyOf(expected), Set.copyOf(scan(jar, 1, false)));
+        assertEquals(scan(jar, 1, false), scan(jar, 2, true));
+    }
+
+    @Test
+    void scansSpringBootJars(@TempDir Path tempDir) throws IOException {
+        Path library = jar(testClasses().toPath(), tempDir.resolve("library.jar")).toPath();
+        byte[] libraryBytes = Files.readAllBytes(library);
+        Path bootJar = tempDir.resolve("boot.jar");
+        try (JarOutputStream jarOut = new JarOutputStream(Files.newOutputStream(bootJar))) {
+            String exampleClass = Example.class.getName().replace('.', '/') + ".class";
+            jarOut.putNextEntry(new ZipEntry("BOOT-INF/classes/" + exampleClass));
+            jarOut.write(Files.readAllBytes(testClasses().toPath().resolve(exampleClass)));
+            jarOut.closeEntry();
+            // Spring Boot stores nested jars uncompressed
+            ZipEntry nested = new ZipEntry("BOOT-INF/lib/library.jar");
+            nested.setMethod(ZipEntry.STORED);
+            nested.setSize(libraryBytes.length);
+            CRC32 crc = new CRC32();
+            crc.update(libraryBytes);
+            nested.setCrc(crc.getValue());
+            jarOut.putNextEntry(nested);
+            jarOut.write(libraryBytes);
+            jarOut.closeEntry();
+            jarOut.putNextEntry(new ZipEntry("WEB-INF/lib/deflated.jar"));
+            jarOut.write(libraryBytes);
+            jarOut.closeEntry();
+        }
+
+        Set<String> expected = Set.copyOf(scan(testClasses(), 1, false));
+        List<String> classNames = scan(bootJar.toFile(), 1, false);
+        assertEquals(expected.size(), classNames.size());
+        assertEquals(expected, Set.copyOf(classNames));
+        assertEquals(classNames, scan(bootJar.toFile(), 2, true));
+    }
+
+    @Test
+    void reportsShadowedDuplicates(@TempDir Path tempDir) throws IOException {
+        File jar = jar(testClasses().toPath(), tempDir.resolve("test.jar"));
+        ClassScanner scanner =
+                new ClassScanner(List.of(testClasses(), jar), ScanOptions.defaults().withMapArchives(true));
+        List<AnalyzedClass> analyzedClasses = scanner.scan();
+        List<ClassPathReader.ShadowedClass> shadowedClasses = scanner.shadowedClasses();
+
+        assertEquals(scan(testClasses(), 1, false).size(), analyzedClasses.size());
+        assertEquals(analyzedClasses.size(), shadowedClasses.size());
+        ClassPathReader.ShadowedClass example = shadowedClasses.stream()
+                .filter(shadowed -> shadowed.getClassName().equals(Example.class.getName()))
+                .findFirst()
+                .orElseThrow();
+        assertTrue(example.isIdentical());
+        assertTrue(example.getLocation().startsWith(testClasses().toString()));
+        assertTrue(example.getShadowedLocation().startsWith(jar + "!/"));
+    }
+}
@@ -0,0 +1,50 @@
+package com.lightstep.flashlight;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassWatcherTest {
+
+    @Test
+    void reanalyzesChangedClasses(@TempDir Path classes) throws IOException, InterruptedException {
+        String resourceName = Example.class.getName().replace('.', '/') + ".class";
+        byte[] example = Files.readAllBytes(ClassScannerTest.testClasses().toPath().resolve(resourceName));
+        Path exampleFile = classes.resolve(resourceName);
+        MethodSelection selection = new MethodSelection(SelectionOptions.defaults()
+                .withFilteredMethods(Rules.defaults().excludedMethods())
+                .withThresholds(10, 5));
+
+        try (ClassWatcher watcher = new ClassWatcher(
+                List.of(classes),
+                new ClassScanner(List.of(classes.toFile()), ScanOptions.defaults()),
+                selection,
+                ClassFilter.ALL)) {
+            watcher.start();
+            assertEquals(Set.of(), watcher.methods().keySet());
+
+            // a new package directory, as written by a compiler
+            Files.createDirectories(exampleFile.getParent());
+            Files.write(exampleFile, example);
+            List<String> added = watcher.awaitChanges();
+            assertTrue(added.contains("+" + Example.class.getName() + ".methodWithBranch"));
+            assertEquals(Set.of(Example.class.getName()), watcher.methods().keySet());
+
+            Files.delete(exampleFile);
+            List<String> removed = watcher.awaitChanges();
+            assertEquals(added.size(), removed.size());
+            assertTrue(removed.contains("-" + Example.class.getName() + ".methodWithBranch"));
+            assertFalse(watcher.methods().containsKey(Example.class.getName()));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.lightstep.flashlight;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.lightstep.flashlight.AnalyzedClasses.getAnalyzedClass;
+import static com.lightstep.flashlight.AnalyzedClasses.method;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ControlFlowGraphTest {
+
+    private static final MethodNameFilter EXCLUDED_METHODS =
+            new MethodNameFilter("<init>", "<clinit>", "toString", "hashCode", "equals");
+
+    static class OrderRepository {
+        String find(int id) {
+            return String.valueOf(id);
+        }
+    }
+
+    static class Subject {
+        private final OrderRepository repository = new OrderRepository();
+
+        int ifChain(int i) {
+            if (i == 1) {
+                return 1;
+            }
+            if (i == 2) {
+                return 2;
+            }
+            return i > 3 ? 3 : 0;
+        }
+
+        int nestedLoops(int[][] matrix) {
+            int sum = 0;
+            for (int[] row : matrix) {
+                for (int cell : row) {
+                    sum += cell;
+                }
+            }
+            return sum;
+        }
+
+        void queryPerItem(List<Integer> ids) {
+            for (int id : ids) {
+                repository.find(id);
+            }
+        }
+
+        String queryOnce(int id) {
+            return repository.find(id);
+        }
+
+        void retry() {
+            while (true) {
+                try {
+                    repository.find(0);
+                    return;
+                } catch (RuntimeException e) {
+                    // try again
+                }
+            }
+        }
+
+        void batch(PreparedStatement statement, int count) throws SQLException {
+            int i = 0;
+            do {
+                statement.setInt(1, i);
+                statement.executeUpdate();
+            } while (++i < count);
+        }
+
+        String lockedQuery(int id) {
+            synchronized (repository) {
+                return repository.find(id);
+            }
+        }
+    }
+
+    @Test
+    void computesLoopDepthAndComplexity() {
+        AnalyzedClass subject = getAnalyzedClass(Subject.class);
+
+        assertEquals(0, subject.metric(Metric.LOOP_DEPTH, method(subject, "ifChain")));
+        assertEquals(4, subject.metric(Metric.CYCLOMATIC_COMPLEXITY, method(subject, "ifChain")));
+        assertEquals(2, subject.metric(Metric.LOOP_DEPTH, method(subject, "nestedLoops")));
+        assertEquals(3, subject.metric(Metric.CYCLOMATIC_COMPLEXITY, method(subject, "nestedLoops")));
+        assertEquals(1, subject.metric(Metric.LOOP_DEPTH, method(subject, "retry")));
+        assertEquals(1, subject.metric(Metric.LOOP_DEPTH, method(subject, "batch")));
+        assertEquals(1, subject.metric(Metric.CYCLOMATIC_COMPLEXITY, method(subject, "queryOnce")));
+        // the handler that releases the monitor covers itself, which is not a loop
+        assertEquals(0, subject.metric(Metric.LOOP_DEPTH, method(subject, "lockedQuery")));
+    }
+
+    @Test
+    void findsRemoteIoInLoops() {
+        AnalyzedClass subject = getAnalyzedClass(Subject.class);
+
+        assertTrue(subject.hasFlag(method(subject, "queryPerItem"), AnalyzedClass.REMOTE_IO_IN_LOOP));
+        assertTrue(subject.hasFlag(method(subject, "retry"), AnalyzedClass.REMOTE_IO_IN_LOOP));
+        assertTrue(subject.hasFlag(method(subject, "batch"), AnalyzedClass.REMOTE_IO_IN_LOOP));
+        assertFalse(subject.hasFlag(method(subject, "queryOnce"), AnalyzedClass.REMOTE_IO_IN_LOOP));
+        assertFalse(subject.hasFlag(method(subject, "nestedLoops"), AnalyzedClass.REMOTE_IO_IN_LOOP));
+        assertFalse(subject.hasFlag(method(subject, "lockedQuery"), AnalyzedClass.REMOTE_IO_IN_LOOP));
+
+        MethodSelection selection = new MethodSelection(SelectionOptions.defaults()
+
+                .withFilteredMethods(EXCLUDED_METHODS)
+
+                .withThresholds(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        selection.add(subject);
+        assertEquals(
+                Map.of(Subject.class.getName(), Set.of("queryPerItem", "retry", "batch")),
+                selection.methods(Category.REMOTE_IO_IN_LOOP));
+    }
+}
@@ -0,0 +1,84 @@
+package com.lightstep.flashlight;
+
+import jdk.jfr.Recording;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.lightstep.flashlight.AnalyzedClasses.getAnalyzedClass;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExecutionProfileTest {
+
+    private static final MethodNameFilter EXCLUDED_METHODS =
+            new MethodNameFilter("<init>", "<clinit>", "toString", "hashCode", "equals");
+    private static final String EXAMPLE = Example.class.getName();
+
+    @Test
+    void aggregatesSamplesPerMethod() {
+        ExecutionProfile profile = new ExecutionProfile(0.5);
+        profile.addSample(List.of("a.B.leaf", "a.B.caller", "a.B.caller"));
+        profile.addSample(List.of("a.B.leaf", "a.B.caller"));
+        profile.addSample(List.of("a.B.caller"));
+        profile.addSample(List.of());
+
+        assertEquals(4, profile.sampleCount());
+        assertEquals(0.75, profile.weight("a.B", "caller"));
+        assertEquals(0.25, profile.selfWeight("a.B", "caller"));
+        assertEquals(0.5, profile.weight("a.B", "leaf"));
+        assertTrue(profile.isHot("a.B", "caller"));
+        assertFalse(profile.isTooCostlyToSpan("a.B", "caller"));
+        assertTrue(profile.isTooCostlyToSpan("a.B", "leaf"));
+        assertFalse(profile.isHot("a.B", "unknown"));
+    }
+
+    @Test
+    void ranksHotCallersAndLeavesOutCostlyLeaves() {
+        ExecutionProfile profile = new ExecutionProfile(0.1);
+        profile.addSample(List.of(EXAMPLE + ".methodWithBranch", "Main.main"));
+        profile.addSample(List.of(EXAMPLE + ".methodWithClientCall", "Main.main"));
+        profile.addSample(List.of("Other.run", EXAMPLE + ".methodWithClientCall", "Main.main"));
+        MethodSelection selection = new MethodSelection(SelectionOptions.defaults()
+                .withFilteredMethods(EXCLUDED_METHODS)
+                .withThresholds(10, 5)
+                .withProfile(profile));
+        selection.add(getAnalyzedClass(Example.class));
+
+        assertEquals(
+                Map.of(EXAMPLE, Set.of("methodWithClientCall")), selection.methods(Category.HOT_REMOTE_IO_CALLER));
+        assertEquals(Map.of(EXAMPLE, Set.of("methodWithBranch")), selection.tooCostlyMethods());
+        assertEquals(Map.of(), selection.methods(Category.HIGH_BRANCH_COUNT));
+    }
+
+    @Test
+    void readsExecutionSamples(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("profile.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.ExecutionSample").withPeriod(Duration.ofMillis(1));
+            recording.start();
+            spin(System.nanoTime() + Duration.ofMillis(500).toNanos());
+            recording.stop();
+            recording.dump(file);
+        }
+
+        ExecutionProfile profile = ExecutionProfile.read(file, 0.01);
+        assertTrue(profile.sampleCount() > 0);
+        assertTrue(profile.weight(ExecutionProfileTest.class.getName(), "spin") > 0);
+    }
+
+    private static long spin(long deadline) {
+        long value = 0;
+        while (System.nanoTime() < deadline) {
+            value += Long.numberOfTrailingZeros(value + System.nanoTime());
+        }
+        return value;
+    }
+}
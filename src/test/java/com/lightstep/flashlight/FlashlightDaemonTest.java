@@ -0,0 +1,148 @@
+package com.lightstep.flashlight;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlashlightDaemonTest {
+
+    private static Thread serve(FlashlightDaemon daemon) {
+        Thread server = new Thread(() -> {
+            try {
+                daemon.serve();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static String scan(FlashlightDaemon daemon, Path tokenDirectory, Path classes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // a relative path is resolved against the working directory of the client
+        int exitCode = FlashlightDaemon.connect(
+                daemon.getPort(),
+                tokenDirectory,
+                classes.getParent(),
+                List.of(classes.getFileName().toString()),
+                new PrintStream(out),
+                new PrintStream(new ByteArrayOutputStream()));
+        assertEquals(0, exitCode);
+        return out.toString();
+    }
+
+    @Test
+    void answersScansFromMemory(@TempDir Path tokenDirectory) throws IOException, InterruptedException {
+        Path classes = ClassScannerTest.testClasses().toPath();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        assertEquals(0, FlashlightMain.execute(
+                null, classes.getParent(), new PrintStream(expected), new PrintStream(new ByteArrayOutputStream()),
+                classes.getFileName().toString()));
+
+        try (FlashlightDaemon daemon = new FlashlightDaemon(0, tokenDirectory)) {
+            Thread server = serve(daemon);
+
+            AnalysisCache cache = daemon.cache(Rules.defaults().fingerprint());
+            for (int scan = 0; scan < 2; scan++) {
+                assertEquals(expected.toString(), scan(daemon, tokenDirectory, classes));
+            }
+            assertTrue(cache.hits() > 0);
+            assertEquals(cache.hits(), cache.misses());
+
+            daemon.close();
+            server.join();
+        }
+    }
+
+    @Test
+    void survivesBrokenRequests(@TempDir Path tokenDirectory) throws IOException, InterruptedException {
+        Path classes = ClassScannerTest.testClasses().toPath();
+        try (FlashlightDaemon daemon = new FlashlightDaemon(0, tokenDirectory)) {
+            Thread server = serve(daemon);
+
+            // a port probe connects and closes without a request
+            new Socket(InetAddress.getLoopbackAddress(), daemon.getPort()).close();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+                DataOutputStream request = new DataOutputStream(socket.getOutputStream());
+                request.writeUTF(Files.readString(tokenDirectory.resolve("daemon-" + daemon.getPort() + ".token")));
+                request.writeUTF(classes.getParent().toString());
+                request.writeInt(-1);
+                request.flush();
+            }
+            assertTrue(scan(daemon, tokenDirectory, classes).contains(Example.class.getName()));
+
+            // a client that keeps the connection open without sending anything times out
+            try (Socket silent = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+                assertTrue(scan(daemon, tokenDirectory, classes).contains(Example.class.getName()));
+            }
+
+            daemon.close();
+            server.join();
+        }
+    }
+
+    @Test
+    void rejectsClientsWithoutToken(@TempDir Path tokenDirectory) throws IOException, InterruptedException {
+        try (FlashlightDaemon daemon = new FlashlightDaemon(0, tokenDirectory)) {
+            Thread server = serve(daemon);
+
+            Path otherTokens = Files.createDirectory(tokenDirectory.resolve("other"));
+            Files.writeString(otherTokens.resolve("daemon-" + daemon.getPort() + ".token"), "guess");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            int exitCode = FlashlightDaemon.connect(
+                    daemon.getPort(),
+                    otherTokens,
+                    tokenDirectory,
+                    List.of("--weave=" + tokenDirectory.resolve("woven"), "."),
+                    new PrintStream(out),
+                    new PrintStream(err));
+            assertEquals(2, exitCode);
+            assertEquals("", out.toString());
+            assertTrue(err.toString().startsWith("Invalid token"));
+            assertTrue(Files.notExists(tokenDirectory.resolve("woven")));
+
+            daemon.close();
+            server.join();
+            assertTrue(Files.notExists(tokenDirectory.resolve("daemon-" + daemon.getPort() + ".token")));
+        }
+    }
+
+    @Test
+    void rejectsRequestsThatNeverEnd(@TempDir Path tokenDirectory) throws IOException, InterruptedException {
+        Path classes = ClassScannerTest.testClasses().toPath();
+        try (FlashlightDaemon daemon = new FlashlightDaemon(0, tokenDirectory)) {
+            Thread server = serve(daemon);
+
+            for (String option : List.of("--watch", "--stream=ndjson")) {
+                ByteArrayOutputStream err = new ByteArrayOutputStream();
+                int exitCode = FlashlightDaemon.connect(
+                        daemon.getPort(),
+                        tokenDirectory,
+                        classes.getParent(),
+                        List.of(option, classes.getFileName().toString()),
+                        new PrintStream(new ByteArrayOutputStream()),
+                        new PrintStream(err));
+                assertEquals(2, exitCode);
+                assertTrue(err.toString().startsWith("--watch and --stream cannot be run by a daemon"));
+            }
+
+            daemon.close();
+            server.join();
+        }
+    }
+}
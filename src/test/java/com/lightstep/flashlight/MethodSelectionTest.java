@@ -0,0 +1,187 @@
+package com.lightstep.flashlight;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static com.lightstep.flashlight.AnalyzedClasses.getAnalyzedClass;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MethodSelectionTest {
+
+    private static final MethodNameFilter EXCLUDED_METHODS =
+            new MethodNameFilter("<init>", "<clinit>", "toString", "hashCode", "equals");
+
+    @Test
+    void classifiesInSinglePass() {
+        MethodSelection selection = new MethodSelection(SelectionOptions.defaults()
+                .withFilteredMethods(EXCLUDED_METHODS)
+                .withThresholds(10, 5));
+        selection.addAll(List.of(getAnalyzedClass(Example.class)));
+
+        String className = Example.class.getName();
+        assertEquals(
+                Map.of(className, Set.of("methodWithBranch")), selection.methods(Category.HIGH_BRANCH_COUNT));
+        assertEquals(
+                Map.of(className, Set.of("methodWithMethodCalls")), selection.methods(Category.HIGH_CALL_COUNT));
+        assertEquals(
+                Set.of(
+                        "synchronizedMethod",
+                        "methodWithSynchronized",
+                        "staticMethodWithSynchronized",
+                        "lambdaWithSynchronized",
+                        "methodWithBranch",
+                        "methodWithMethodCalls",
+                        "methodWithClientCall",
+                        "methodWithStaticClientCall",
+                        "lambdaWithClientCall",
+                        "methodWithRepositoryCall",
+                        "methodWithStaticRepositoryCall",
+                        "lambdaWithRepositoryCall"),
+                selection.methods().get(className));
+    }
+
+    @Test
+    void skipsClassesWithoutSelectedMethods() {
+        MethodSelection selection = new MethodSelection(SelectionOptions.defaults()
+                .withFilteredMethods(EXCLUDED_METHODS)
+                .withThresholds(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        selection.add(getAnalyzedClass(MethodSelectionTest.class));
+        assertEquals(Map.of(), selection.methods());
+        assertEquals(Map.of(), selection.methods(Category.SYNCHRONIZED));
+    }
+
+    static class OrderClient {
+        String fetch(int id) {
+            return String.valueOf(id);
+        }
+    }
+
+    static class AsyncService {
+        private final OrderClient client = new OrderClient();
+
+        CompletableFuture<String> chained(int id) {
+            return CompletableFuture.completedFuture(id).thenApplyAsync(key -> client.fetch(key));
+        }
+
+        Supplier<String> reference() {
+            return client::toString;
+        }
+
+        CompletableFuture<String> methodReference(int id) {
+            return CompletableFuture.completedFuture(id).thenApply(client::fetch);
+        }
+
+        Runnable anonymous(int id) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    client.fetch(id);
+                }
+            };
+        }
+
+        Runnable local(int id) {
+            class Fetch implements Runnable {
+                @Override
+                public void run() {
+                    Runnable nested = () -> client.fetch(id);
+                    nested.run();
+                }
+            }
+            return new Fetch();
+        }
+    }
+
+    @Test
+    void attributesLambdasAndAnonymousClassesToEnclosingMethod() throws ReflectiveOperationException {
+        List<AnalyzedClass> analyzedClasses = List.of(
+                getAnalyzedClass(AsyncService.class),
+                getAnalyzedClass(AsyncService.class.getDeclaredMethod("anonymous", int.class)
+                        .invoke(new AsyncService(), 1).getClass()),
+                getAnalyzedClass(AsyncService.class.getDeclaredMethod("local", int.class)
+                        .invoke(new AsyncService(), 1).getClass()));
+        MethodSelection selection = new MethodSelection(SelectionOptions.defaults()
+                .withFilteredMethods(EXCLUDED_METHODS)
+                .withThresholds(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        selection.addAll(analyzedClasses);
+
+        assertEquals(
+                Map.of(AsyncService.class.getName(), Set.of("chained", "methodReference", "anonymous", "local")),
+                selection.methods(Category.CLIENT_CALL));
+        assertEquals(Set.of(AsyncService.class.getName()), selection.methods().keySet());
+
+        MethodSelection entryPoints = new MethodSelection(SelectionOptions.defaults()
+                .withFilteredMethods(EXCLUDED_METHODS)
+                .withThresholds(Integer.MAX_VALUE, Integer.MAX_VALUE)
+                .withCallGraph(CallGraph.build(analyzedClasses, EXCLUDED_METHODS)));
+        entryPoints.addAll(analyzedClasses);
+        assertEquals(
+                Map.of(AsyncService.class.getName(), Set.of("chained", "methodReference", "anonymous", "local")),
+                entryPoints.methods(Category.REMOTE_IO_ENTRY_POINT));
+    }
+
+    static class Inventory {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<String, Integer> counts = new HashMap<>();
+        private final CountDownLatch loaded = new CountDownLatch(1);
+        private int total;
+
+        void add(String item) {
+            lock.lock();
+            try {
+                counts.put(item, counts.getOrDefault(item, 0) + 1);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void increment() {
+            lock.lock();
+            try {
+                total++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        synchronized int total() {
+            return total;
+        }
+
+        int awaitTotal() throws InterruptedException {
+            loaded.await();
+            return total;
+        }
+    }
+
+    @Test
+    void ranksCriticalSectionsOfLockContentionMethods() {
+        MethodSelection selection = new MethodSelection(SelectionOptions.defaults()
+                .withFilteredMethods(EXCLUDED_METHODS)
+                .withThresholds(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        selection.add(getAnalyzedClass(Inventory.class));
+
+        String className = Inventory.class.getName();
+        assertEquals(Map.of(className, Set.of("add", "awaitTotal")), selection.methods(Category.LOCK_CONTENTION));
+        assertEquals(Map.of(className, Set.of("total")), selection.methods(Category.SYNCHRONIZED));
+        List<MethodSelection.CriticalSection> sections = selection.criticalSections();
+        // increment takes the lock, a blocking call, but calls nothing while holding it
+        assertEquals(
+                List.of("add", "increment", "total"),
+                sections.stream().map(MethodSelection.CriticalSection::getMethodName).collect(Collectors.toList()));
+        assertTrue(sections.get(0).getSize() > sections.get(1).getSize());
+        assertEquals(5, sections.get(0).getLockedCallCount());
+        assertEquals(0, sections.get(1).getLockedCallCount());
+        assertEquals(0, sections.get(2).getLockedCallCount());
+    }
+}
@@ -0,0 +1,104 @@
+package com.lightstep.flashlight;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static com.lightstep.flashlight.AnalyzedClasses.getAnalyzedClass;
+import static com.lightstep.flashlight.AnalyzedClasses.method;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OverheadModelTest {
+
+    private static final MethodNameFilter EXCLUDED_METHODS =
+            new MethodNameFilter("<init>", "<clinit>", "toString", "hashCode", "equals");
+
+    static class Subject {
+        private int value;
+
+        int getValue() {
+            return value;
+        }
+
+        int add(int other) {
+            return value + other;
+        }
+
+        int nestedLoops(int[][] matrix) {
+            int sum = 0;
+            for (int[] row : matrix) {
+                for (int cell : row) {
+                    sum += cell;
+                }
+            }
+            return sum;
+        }
+    }
+
+    @Test
+    void recordsStaticSignals() {
+        AnalyzedClass subject = getAnalyzedClass(Subject.class);
+
+        assertTrue(subject.hasFlag(method(subject, "getValue"), AnalyzedClass.GETTER));
+        assertFalse(subject.hasFlag(method(subject, "add"), AnalyzedClass.GETTER));
+        assertEquals(3, subject.metric(Metric.INSTRUCTION_COUNT, method(subject, "getValue")));
+        assertEquals(0, subject.metric(Metric.LOOP_DEPTH, method(subject, "add")));
+        assertEquals(2, subject.metric(Metric.LOOP_DEPTH, method(subject, "nestedLoops")));
+    }
+
+    @Test
+    void estimatesHigherOverheadForSmallerWork() {
+        AnalyzedClass subject = getAnalyzedClass(Subject.class);
+        OverheadModel model = new OverheadModel();
+
+        double getter = model.overhead(subject, method(subject, "getValue"));
+        double leaf = model.overhead(subject, method(subject, "add"));
+        double loops = model.overhead(subject, method(subject, "nestedLoops"));
+        assertEquals(1.0, getter);
+        assertTrue(leaf < getter);
+        assertTrue(loops < leaf);
+    }
+
+    @Test
+    void readsInvocationCounts(@TempDir Path directory) throws IOException {
+        AnalyzedClass subject = getAnalyzedClass(Subject.class);
+        Path invocations = directory.resolve("invocations.txt");
+        Files.write(invocations, List.of("# calls per second", "", Subject.class.getName() + ".getValue 1000"));
+
+        OverheadModel model = OverheadModel.read(invocations);
+        assertEquals(1000.0, model.cost(subject, method(subject, "getValue")));
+        assertEquals(model.overhead(subject, method(subject, "add")), model.cost(subject, method(subject, "add")));
+
+        Files.write(invocations, List.of(Subject.class.getName() + ".getValue often"));
+        assertThrows(IOException.class, () -> OverheadModel.read(invocations));
+    }
+
+    @Test
+    void keepsMostValuableMethodsWithinBudget() {
+        AnalyzedClass example = getAnalyzedClass(Example.class);
+        String className = Example.class.getName();
+        MethodSelection selection = new MethodSelection(SelectionOptions.defaults()
+                .withFilteredMethods(EXCLUDED_METHODS)
+                .withThresholds(10, 5));
+        selection.add(example);
+        OverheadModel model = new OverheadModel(Map.of(className + ".methodWithStaticClientCall", 1_000_000.0));
+
+        double overhead = selection.limit(List.of(example), model, 100, 10);
+        assertTrue(overhead <= 10);
+        assertFalse(selection.methods().get(className).contains("methodWithStaticClientCall"));
+        assertFalse(selection.methods(Category.CLIENT_CALL).get(className).contains("methodWithStaticClientCall"));
+        assertTrue(selection.methods().get(className).contains("methodWithClientCall"));
+
+        selection.limit(List.of(example), model, 2, Double.POSITIVE_INFINITY);
+        assertEquals(2, selection.methodCount());
+        assertEquals(Map.of(), selection.methods(Category.HIGH_BRANCH_COUNT));
+    }
+}
@@ -0,0 +1,144 @@
+package com.lightstep.flashlight;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.lightstep.flashlight.AnalyzedClasses.getAnalyzedClass;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RulesTest {
+
+    private static final String GATEWAY_RULES = "excludedMethods: [\"<init>\"]\n"
+            + "thresholds: {HIGH_CALL_COUNT: 100}\n"
+            + "categories:\n"
+            + "  CLIENT_CALL:\n"
+            + "    calls:\n"
+            + "      - owner: \"*Gateway\"\n"
+            + "        name: \"send*\"\n"
+            + "    excludeClasses: [\"*Gateway\"]\n"
+            + "  ANNOTATED:\n"
+            + "    annotations: [\"" + Job.class.getName() + "\"]\n";
+
+    @interface Job {}
+
+    static class PaymentGateway {
+        String sendPayment(long amount) {
+            return String.valueOf(amount);
+        }
+
+        String status() {
+            return "ok";
+        }
+    }
+
+    static class Checkout {
+        private final PaymentGateway gateway = new PaymentGateway();
+
+        String pay(long amount) {
+            return gateway.sendPayment(amount);
+        }
+
+        String status() {
+            return gateway.status();
+        }
+
+        @Job
+        void cleanUp() {}
+    }
+
+    @Test
+    void indexesExactPrefixAndSuffixPatterns() {
+        PatternIndex<String> index = new PatternIndex<>();
+        index.add("equals", "exact");
+        index.add("get*", "prefix");
+        index.add("*Client", "suffix");
+
+        assertTrue(index.matches("equals"));
+        assertFalse(index.matches("equalsIgnoreCase"));
+        assertTrue(index.matches("getName"));
+        assertTrue(index.matches("get"));
+        assertTrue(index.matches("com.example.OrderClient"));
+        assertFalse(index.matches("com.example.ClientFactory"));
+        List<String> matches = new ArrayList<>();
+        index.forEachMatch("getClient", matches::add);
+        assertEquals(List.of("prefix", "suffix"), matches);
+
+        index.add("*", "any");
+        assertTrue(index.matches("anything"));
+        assertThrows(IllegalArgumentException.class, () -> index.add("a*b", "infix"));
+    }
+
+    @Test
+    void classifiesCallsAndAnnotationsByRules() throws IOException {
+        Rules rules = Rules.parse(GATEWAY_RULES, "test");
+        AnalyzedClass checkout = getAnalyzedClass(Checkout.class, rules);
+        MethodSelection selection = new MethodSelection(SelectionOptions.of(rules));
+        selection.add(checkout);
+        selection.add(getAnalyzedClass(PaymentGateway.class, rules));
+
+        assertEquals(Map.of(Checkout.class.getName(), Set.of("pay")), selection.methods(Category.CLIENT_CALL));
+        assertEquals(Map.of(Checkout.class.getName(), Set.of("cleanUp")), selection.methods(Category.ANNOTATED));
+        assertEquals(Map.of(), selection.methods(Category.HIGH_BRANCH_COUNT));
+    }
+
+    @Test
+    void defaultRulesKeepBuiltInCategories() {
+        Rules rules = Rules.defaults();
+
+        assertEquals(10, rules.methodCallCountThreshold());
+        assertEquals(5, rules.branchCountThreshold());
+        assertFalse(rules.excludedMethods().test("toString"));
+        assertEquals(
+                AnalyzedClass.CLIENT_CALL, rules.callFlags("com/example/OrderClient", "get", "()Ljava/lang/String;"));
+        assertEquals(0, rules.callFlags("com/example/OrderClient", "builder", "()Lcom/example/OrderClient$Builder;"));
+        assertEquals(0, rules.callFlags("com/example/OrderClient", "self", "()Lcom/example/OrderClient;"));
+        assertEquals(AnalyzedClass.REPOSITORY_CALL, rules.callFlags("java/sql/Statement", "executeQuery", "()V"));
+        assertEquals(
+                AnalyzedClass.LOCK_ACQUIRE, rules.callFlags("java/util/concurrent/locks/ReentrantLock", "lock", "()V"));
+        assertEquals(AnalyzedClass.LOCK_WAIT, rules.callFlags("java/util/concurrent/CountDownLatch", "await", "()V"));
+        assertTrue(rules.isAnnotation("Lorg/springframework/scheduling/annotation/Scheduled;"));
+        assertTrue(rules.excludesClass(Category.REPOSITORY_CALL, "com.example.OrderRepository"));
+    }
+
+    @Test
+    void rejectsInvalidRules() {
+        assertThrows(IOException.class, () -> Rules.parse("categories: {UNKNOWN: {}}", "test"));
+        assertThrows(IOException.class, () -> Rules.parse("categories: {SYNCHRONIZED: {calls: []}}", "test"));
+        assertThrows(IOException.class, () -> Rules.parse("categories: {CLIENT_CALL: {acquire: []}}", "test"));
+        assertThrows(IOException.class, () -> Rules.parse("excludedMethods: [\"a*b\"]", "test"));
+        assertThrows(IOException.class, () -> Rules.parse("thresholds: {HIGH_CALL_COUNT: many}", "test"));
+        assertThrows(IOException.class, () -> Rules.parse("[", "test"));
+    }
+
+    @Test
+    void cacheIsKeyedOnRules(@TempDir Path cacheDir) throws IOException {
+        Rules rules = Rules.parse(GATEWAY_RULES, "test");
+        assertNotEquals(Rules.defaults().fingerprint(), rules.fingerprint());
+        Set<File> classes = Set.of(ClassScannerTest.testClasses());
+
+        AnalysisCache cold = AnalysisCache.load(cacheDir);
+        int classCount = new ClassScanner(classes, ScanOptions.defaults().withCache(cold)).scan().size();
+        cold.save();
+
+        AnalysisCache otherRules = AnalysisCache.load(cacheDir, rules.fingerprint());
+        new ClassScanner(classes, ScanOptions.defaults().withCache(otherRules).withRules(rules)).scan();
+        assertEquals(0, otherRules.hits());
+        assertEquals(classCount, otherRules.misses());
+
+        AnalysisCache sameRules = AnalysisCache.load(cacheDir);
+        new ClassScanner(classes, ScanOptions.defaults().withCache(sameRules)).scan();
+        assertEquals(classCount, sameRules.hits());
+    }
+}
@@ -0,0 +1,105 @@
+package com.lightstep.flashlight;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScanStatsTest {
+
+    @Test
+    void countsClassesBytesAndRoots() throws IOException {
+        File testClasses = ClassScannerTest.testClasses();
+        ScanStats stats = new ScanStats();
+        List<AnalyzedClass> analyzedClasses = new ClassScanner(
+                Set.of(testClasses), ScanOptions.defaults().withThreads(2).withStats(stats)).scan();
+        stats.stop();
+
+        assertEquals(analyzedClasses.size(), stats.classCount());
+        assertEquals(0, stats.cachedClassCount());
+        assertTrue(stats.bytesRead() > 0);
+        assertTrue(stats.nanos(ScanStats.Phase.PARSING) > 0);
+        assertTrue(stats.wallNanos() > 0);
+        assertEquals(1, stats.roots().size());
+        assertEquals(testClasses.toPath().toString(), stats.roots().get(0).getPath());
+        assertEquals(analyzedClasses.size(), stats.roots().get(0).classCount());
+        assertEquals(10, stats.slowestClasses().size());
+        assertTrue(stats.json().startsWith("{\"classes\":" + analyzedClasses.size() + ","));
+        assertTrue(stats.prometheus().contains("\nflashlight_classes_total " + analyzedClasses.size() + "\n"));
+    }
+
+    @Test
+    void countsClassesPerRootWhileStreaming(@TempDir Path tempDir) throws IOException {
+        File testClasses = ClassScannerTest.testClasses();
+        File jar = ClassScannerTest.jar(testClasses.toPath(), tempDir.resolve("test.jar"));
+        ScanStats stats = new ScanStats();
+        AtomicInteger classCount = new AtomicInteger();
+        new ClassScanner(List.of(testClasses, jar), ScanOptions.defaults().withThreads(4).withStats(stats))
+                .scan(analyzedClass -> classCount.incrementAndGet());
+        stats.stop();
+
+        assertEquals(classCount.get(), stats.classCount());
+        assertEquals(2, stats.roots().size());
+        assertEquals(classCount.get(), stats.roots().get(0).classCount());
+        // every class in the jar is shadowed by the same class in the folder
+        assertEquals(0, stats.roots().get(1).classCount());
+    }
+
+    @Test
+    void keepsSlowestClasses() {
+        ScanStats stats = new ScanStats();
+        for (int i = 1; i <= 20; i++) {
+            stats.analyzed(new ClassFile("com/example/C" + i + ".class", () -> new byte[0]), null, i, false);
+        }
+        stats.stop();
+
+        assertEquals(
+                List.of("com.example.C20", "com.example.C19", "com.example.C18", "com.example.C17", "com.example.C16",
+                        "com.example.C15", "com.example.C14", "com.example.C13", "com.example.C12", "com.example.C11"),
+                stats.slowestClasses().stream().map(ScanStats.ClassTime::getClassName).collect(Collectors.toList()));
+        assertEquals(20, stats.classCount());
+        assertTrue(stats.prometheus().contains("flashlight_class_seconds{class=\"com.example.C20\"} 0.000000\n"));
+    }
+
+    @Test
+    void leavesHeapPeaksAlone() {
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .collect(Collectors.toList());
+        long[] peaks = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).toArray();
+        ScanStats stats = new ScanStats();
+        stats.stop();
+
+        for (int pool = 0; pool < heapPools.size(); pool++) {
+            assertTrue(heapPools.get(pool).getPeakUsage().getUsed() >= peaks[pool]);
+        }
+        assertTrue(stats.heapPeakBytes() > 0);
+    }
+
+    @Test
+    void formatsTextIndependentOfLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            ScanStats stats = new ScanStats();
+            stats.analyzed(new ClassFile("com/example/Slow.class", () -> new byte[0]), null, 1_500_000, false);
+            stats.stop();
+            assertTrue(stats.text().contains("\t1.5 ms com.example.Slow"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+}
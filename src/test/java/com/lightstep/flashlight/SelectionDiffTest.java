@@ -0,0 +1,126 @@
+package com.lightstep.flashlight;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.lightstep.flashlight.AnalyzedClasses.getAnalyzedClass;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SelectionDiffTest {
+
+    private static final MethodNameFilter EXCLUDED_METHODS =
+            new MethodNameFilter("<init>", "<clinit>", "toString", "hashCode", "equals");
+    private static final String CHECKOUT = "com.example.Checkout";
+
+    static class OrderClient {
+        static String fetch(int id) {
+            return String.valueOf(id);
+        }
+    }
+
+    // two releases of com.example.Checkout; the methods never refer to their own class, which is named differently
+    static class CheckoutV1 {
+        static String unchanged(String id) {
+            return id.trim();
+        }
+
+        static String fetch(int id) {
+            return String.valueOf(id);
+        }
+
+        static Object lock(Object lock) {
+            synchronized (lock) {
+                return lock;
+            }
+        }
+
+        static int branches(int i) {
+            if (i == 1) {
+                return 1;
+            } else if (i == 2) {
+                return 2;
+            } else if (i == 3) {
+                return 3;
+            } else if (i == 4) {
+                return 4;
+            } else if (i == 5) {
+                return 5;
+            }
+            return 0;
+        }
+    }
+
+    static class CheckoutV2 {
+        static String unchanged(String id) {
+            return id.trim();
+        }
+
+        static String fetch(int id) {
+            return OrderClient.fetch(id);
+        }
+
+        static Object lock(Object lock) {
+            return lock;
+        }
+
+        static int branches(int i) {
+            if (i == 1) {
+                return 1;
+            } else if (i == 2) {
+                return 2;
+            } else if (i == 3) {
+                return 3;
+            } else if (i == 4) {
+                return 4;
+            } else if (i == 5) {
+                return OrderClient.fetch(5).length();
+            }
+            return 0;
+        }
+    }
+
+    private static SelectionDiff diff() {
+        SelectionOptions options =
+                SelectionOptions.defaults().withFilteredMethods(EXCLUDED_METHODS).withThresholds(10, 5);
+        return new SelectionDiff(new MethodSelection(options), new MethodSelection(options));
+    }
+
+    @Test
+    void reportsOnlyChangedSelections() {
+        SelectionDiff diff = diff();
+        List<SelectionDiff.Change> changes = diff.compare(
+                List.of(getAnalyzedClass(CheckoutV1.class, CHECKOUT, Rules.defaults())),
+                List.of(getAnalyzedClass(CheckoutV2.class, CHECKOUT, Rules.defaults())));
+
+        assertEquals(
+                List.of(
+                        "~com.example.Checkout.branches [HIGH_BRANCH_COUNT] -> [CLIENT_CALL, HIGH_BRANCH_COUNT]",
+                        "+com.example.Checkout.fetch [CLIENT_CALL]",
+                        "-com.example.Checkout.lock [SYNCHRONIZED]"),
+                changes.stream().map(SelectionDiff.Change::toString).collect(Collectors.toList()));
+        assertEquals(1, diff.classCount());
+        assertEquals(1, diff.changedClassCount());
+        // unchanged kept its fingerprint and was not classified again
+        assertEquals(3, diff.changedMethodCount());
+    }
+
+    @Test
+    void skipsClassesWithSameFingerprints() {
+        SelectionDiff diff = diff();
+        List<SelectionDiff.Change> changes = diff.compare(
+                List.of(
+                        getAnalyzedClass(CheckoutV1.class, CHECKOUT, Rules.defaults()),
+                        getAnalyzedClass(Example.class)),
+                List.of(getAnalyzedClass(CheckoutV1.class, CHECKOUT, Rules.defaults())));
+
+        assertEquals(0, changes.stream().filter(change -> change.getClassName().equals(CHECKOUT)).count());
+        assertEquals(
+                List.of(Example.class.getName()),
+                changes.stream().map(SelectionDiff.Change::getClassName).distinct().collect(Collectors.toList()));
+        assertEquals(0, changes.stream().filter(change -> change.getNewCategories() != 0).count());
+        assertEquals(2, diff.classCount());
+        assertEquals(1, diff.changedClassCount());
+    }
+}
@@ -0,0 +1,125 @@
+package com.lightstep.flashlight;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.jar.JarFile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpanWeaverTest {
+
+    public static class RecordingTracer {
+        static final List<String> EVENTS = new ArrayList<>();
+
+        public static Object start(String spanName) {
+            EVENTS.add("start " + spanName);
+            return spanName;
+        }
+
+        public static void end(Object span, Throwable error) {
+            EVENTS.add("end " + span + (error == null ? "" : " " + error.getClass().getSimpleName()));
+        }
+    }
+
+    public static class Greeter {
+        private int greetings;
+
+        @Deprecated
+        public String greet(String name) {
+            greetings++;
+            return "Hello, " + name;
+        }
+
+        public synchronized int greetings() {
+            return greetings;
+        }
+
+        public static long sum(long first, int second, double third) {
+            return first + second + (long) third;
+        }
+
+        public void fail() {
+            throw new IllegalStateException("failed");
+        }
+
+        public String farewell(String name) {
+            return "Goodbye, " + name;
+        }
+    }
+
+    private static class WovenClassLoader extends ClassLoader {
+        WovenClassLoader() {
+            super(SpanWeaverTest.class.getClassLoader());
+        }
+
+        Class<?> define(String className, byte[] classFile) {
+            return defineClass(className, classFile, 0, classFile.length);
+        }
+    }
+
+    private static byte[] classFile(Class<?> subject) throws IOException {
+        try (InputStream stream = subject.getResourceAsStream("/" + subject.getName().replace('.', '/') + ".class")) {
+            return Objects.requireNonNull(stream).readAllBytes();
+        }
+    }
+
+    @Test
+    void wrapsSelectedMethodsInSpans() throws Exception {
+        RecordingTracer.EVENTS.clear();
+        SpanWeaver weaver = new SpanWeaver(RecordingTracer.class.getName());
+        byte[] woven = weaver.weave(classFile(Greeter.class), Set.of("greet", "greetings", "sum", "fail"));
+        assertEquals(4, weaver.methodCount());
+
+        Class<?> greeterClass = new WovenClassLoader().define(Greeter.class.getName(), woven);
+        Object greeter = greeterClass.getDeclaredConstructor().newInstance();
+        Method greet = greeterClass.getMethod("greet", String.class);
+        assertEquals("Hello, Ada", greet.invoke(greeter, "Ada"));
+        assertEquals(1, greeterClass.getMethod("greetings").invoke(greeter));
+        assertEquals(6L, greeterClass.getMethod("sum", long.class, int.class, double.class).invoke(null, 1L, 2, 3.5));
+        InvocationTargetException thrown = assertThrows(
+                InvocationTargetException.class, () -> greeterClass.getMethod("fail").invoke(greeter));
+        assertTrue(thrown.getCause() instanceof IllegalStateException);
+        assertEquals("Goodbye, Ada", greeterClass.getMethod("farewell", String.class).invoke(greeter, "Ada"));
+
+        assertEquals(
+                List.of(
+                        "start SpanWeaverTest$Greeter.greet",
+                        "end SpanWeaverTest$Greeter.greet",
+                        "start SpanWeaverTest$Greeter.greetings",
+                        "end SpanWeaverTest$Greeter.greetings",
+                        "start SpanWeaverTest$Greeter.sum",
+                        "end SpanWeaverTest$Greeter.sum",
+                        "start SpanWeaverTest$Greeter.fail",
+                        "end SpanWeaverTest$Greeter.fail IllegalStateException"),
+                RecordingTracer.EVENTS);
+        assertTrue(greet.isAnnotationPresent(Deprecated.class));
+    }
+
+    @Test
+    void writesJarWithTracer(@TempDir Path output) throws IOException {
+        Path jar = output.resolve("woven.jar");
+        String tracerResource = SpanWeaver.OPEN_TELEMETRY_TRACER.replace('.', '/') + ".class";
+        SpanWeaver.write(jar, Map.of(tracerResource, SpanWeaver.openTelemetryTracer(SpanWeaver.OPEN_TELEMETRY_TRACER)));
+
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            assertNotNull(jarFile.getEntry(tracerResource));
+        }
+        SpanWeaver.write(output.resolve("classes"), Map.of(tracerResource, new byte[] {1}));
+        assertTrue(Files.isRegularFile(output.resolve("classes").resolve(tracerResource)));
+    }
+}
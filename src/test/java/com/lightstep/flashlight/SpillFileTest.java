@@ -0,0 +1,38 @@
+package com.lightstep.flashlight;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SpillFileTest {
+
+    private static Map<String, Set<String>> contents(SpillFile spillFile) throws IOException {
+        Map<String, Set<String>> contents = new LinkedHashMap<>();
+        spillFile.forEachSorted(contents::put);
+        return contents;
+    }
+
+    @Test
+    void mergesSortedRuns() throws IOException {
+        try (SpillFile spillFile = new SpillFile(2)) {
+            spillFile.add("c.C", List.of("run"));
+            spillFile.add("a.A", List.of("get"));
+            spillFile.add("b.B", List.of("call"));
+            spillFile.add("a.A", List.of("put", "get"));
+            spillFile.add("d.D", List.of());
+
+            Map<String, Set<String>> expected = new LinkedHashMap<>();
+            expected.put("a.A", Set.of("get", "put"));
+            expected.put("b.B", Set.of("call"));
+            expected.put("c.C", Set.of("run"));
+            assertEquals(List.copyOf(expected.entrySet()), List.copyOf(contents(spillFile).entrySet()));
+            assertEquals(expected, contents(spillFile));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.lightstep.flashlight;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ZipBufferTest {
+
+    private static byte[] archive() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOut = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < 3; i++) {
+                zipOut.putNextEntry(new ZipEntry("com/example/Class" + i + ".class"));
+                zipOut.write(("class " + i).repeat(10).getBytes(StandardCharsets.UTF_8));
+                zipOut.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Reads every entry of {@code bytes}, which may only fail with a {@link ZipException}. */
+    private static void readAll(byte[] bytes) throws IOException {
+        try {
+            ZipBuffer zip = new ZipBuffer(ByteBuffer.wrap(bytes));
+            for (ZipBuffer.Entry entry : zip.entries()) {
+                zip.read(entry);
+            }
+        } catch (ZipException e) {
+            // expected for most corrupt archives
+        }
+    }
+
+    @Test
+    void findsEntriesByName() throws IOException {
+        ZipBuffer zip = new ZipBuffer(ByteBuffer.wrap(archive()));
+        assertEquals(3, zip.entries().size());
+        assertArrayEquals(
+                "class 1".repeat(10).getBytes(StandardCharsets.UTF_8),
+                zip.read(zip.entry("com/example/Class1.class")));
+        assertNull(zip.entry("com/example/Class3.class"));
+    }
+
+    @Test
+    void rejectsCorruptArchivesWithZipException() throws IOException {
+        byte[] archive = archive();
+        for (int length = 0; length < archive.length; length++) {
+            readAll(Arrays.copyOf(archive, length));
+        }
+        for (int offset = 0; offset < archive.length; offset++) {
+            byte[] corrupt = archive.clone();
+            corrupt[offset] = (byte) 0xff;
+            readAll(corrupt);
+            corrupt[offset] = (byte) 0x80;
+            readAll(corrupt);
+        }
+    }
+}